@@ -171,8 +171,9 @@ import java.util.Objects;
  * which the <code>ImageView</code> instances reside. The data source is provided by a custom class called
  * <code>ImageAdapter</code>, a subclass of <code>BaseAdapter</code>. The actual data items (images in bitmaps) are
  * loaded by <code>ImageDownloader</code> a custom class that includes an inner class called
- * <code>BitmapDownloaderTask</code>, a subclass of <code>AsyncTask</code>. Additional details were presented in an
- * earlier demo program, Demo_ListView_2.</p>
+ * <code>BitmapDownloaderTask</code>, which is run on background threads by <code>ImageLoader</code> (earlier, it was
+ * a subclass of <code>AsyncTask</code>). Additional details were presented in an earlier demo program,
+ * Demo_ListView_2.</p>
  *
  * <code>AsyncTask</code> is a helper class built around <code>Thread</code> and <code>Handler</code>. An
  * <code>AsyncTask</code> instance provides computations that run on a background thread and provide results to the main
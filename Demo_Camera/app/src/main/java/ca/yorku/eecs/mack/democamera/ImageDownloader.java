@@ -5,75 +5,46 @@ import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.os.Handler;
 import android.util.Log;
 import android.widget.ImageView;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
 
 /**
  * This helper class download images from the Internet and binds those with the provided ImageView.
  *
  * <p> It requires the INTERNET permission, which should be added to your application's manifest file. </p>
  *
- * A local cache of downloaded images is maintained internally to improve performance.
+ * A local cache of downloaded images is maintained internally to improve performance. A request for an image that
+ * is already being downloaded (e.g., for another view) joins that download, rather than decoding the image again.
+ * The images are loaded on the threads of the ImageLoader, newest request first.
  */
 class ImageDownloader
 {
     private static final String MYDEBUG = "MYDEBUG"; // for Log.i messages
-    private static final int HARD_CACHE_CAPACITY = 10;
-    private static final int DELAY_BEFORE_PURGE = 10 * 1000; // in milliseconds
-
-    // Soft cache for bitmaps kicked out of hard cache
-    private final static ConcurrentHashMap<String, SoftReference<Bitmap>> sSoftBitmapCache = new
-            ConcurrentHashMap<String, SoftReference<Bitmap>>(HARD_CACHE_CAPACITY / 2);
-
-    // Hard cache, with a fixed maximum capacity and a life duration
-    private final HashMap<String, Bitmap> sHardBitmapCache = new LinkedHashMap<String, Bitmap>(HARD_CACHE_CAPACITY /
-            2, 0.75f, true)
-    {
-        private static final long serialVersionUID = 1L;
-
-        @Override
-        protected boolean removeEldestEntry(LinkedHashMap.Entry<String, Bitmap> eldest)
-        {
-            if (size() > HARD_CACHE_CAPACITY)
-            {
-                // Entries push-out of hard reference cache are transferred to soft reference cache
-                sSoftBitmapCache.put(eldest.getKey(), new SoftReference<Bitmap>(eldest.getValue()));
-                return true;
-            } else
-                return false;
-        }
-    };
-    private final Handler purgeHandler = new Handler();
-    private final Runnable purger = new Runnable()
-    {
-        public void run()
-        {
-            clearCache();
-        }
-    };
+    // the memory cache (one per process, with a budget in bytes; see BitmapMemoryCache)
+    private BitmapMemoryCache memoryCache;
+    // the downloads in progress, by path and width, in all the downloaders in the process (UI thread only)
+    private static final HashMap<String, BitmapDownloaderTask> inFlight = new HashMap<String, BitmapDownloaderTask>();
     private int displayWidth;
 
 	/*
      * Cache-related fields and methods.
 	 * 
-	 * We use a hard and a soft cache. A soft reference cache is too aggressively cleared by the Garbage Collector.
+	 * The bitmaps are kept in a memory cache with a budget in bytes (see BitmapMemoryCache). The
+	 * cache is shared by all the downloaders in the process, and it is purged after a period in
+	 * which none of them has used it (see BitmapMemoryCache).
 	 */
 
     /**
-     * Returns true if the current download has been canceled or if there was no download in progress on this image
-     * view. Returns false if the download in progress deals with the same url. The download is not stopped in that
-     * case.
+     * Returns true if the current download has been canceled (or the image view has been detached from it, if other
+     * views are waiting for the same image) or if there was no download in progress on this image view. Returns false
+     * if the download in progress deals with the same url. The download is not stopped in that case.
      */
     private static boolean cancelPotentialDownload(String pathArg, ImageView imageView)
     {
@@ -84,7 +55,7 @@ class ImageDownloader
             String bitmapPath = bitmapDownloaderTask.url;
             if ((bitmapPath == null) || (!bitmapPath.equals(pathArg)))
             {
-                bitmapDownloaderTask.cancel(true);
+                bitmapDownloaderTask.detach(imageView);
             } else
             {
                 // The same URL is already being downloaded.
@@ -125,7 +96,9 @@ class ImageDownloader
     {
         displayWidth = displayWidthArg;
 
-        resetPurgeTimer();
+        if (memoryCache == null)
+            memoryCache = BitmapMemoryCache.getInstance(imageView.getContext());
+        memoryCache.resetPurgeTimer();
         Bitmap bitmap = getBitmapFromCache(path);
 
         if (bitmap == null)
@@ -153,11 +126,22 @@ class ImageDownloader
 
         if (cancelPotentialDownload(path, imageView))
         {
-            BitmapDownloaderTask task = new BitmapDownloaderTask(imageView, displayWidth);
+            // join the download in progress for this image and width, if any
+            String key = inFlightKey(path, displayWidth);
+            BitmapDownloaderTask task = inFlight.get(key);
+            boolean joined = task != null;
+            if (joined)
+                task.addImageView(imageView);
+            else
+            {
+                task = new BitmapDownloaderTask(imageView, path, displayWidth);
+                inFlight.put(key, task);
+            }
             DownloadedDrawable downloadedDrawable = new DownloadedDrawable(task);
             imageView.setImageDrawable(downloadedDrawable);
             imageView.setMinimumHeight(156);
-            task.execute(path);
+            if (!joined)
+                ImageLoader.getInstance().submit(task);
         }
     }
 
@@ -169,12 +153,7 @@ class ImageDownloader
     private void addBitmapToCache(String path, Bitmap bitmap)
     {
         if (bitmap != null)
-        {
-            synchronized (sHardBitmapCache)
-            {
-                sHardBitmapCache.put(path, bitmap);
-            }
-        }
+            memoryCache.put(path, bitmap);
     }
 
     /**
@@ -183,53 +162,7 @@ class ImageDownloader
      */
     private Bitmap getBitmapFromCache(String path)
     {
-        // First try the hard reference cache
-        synchronized (sHardBitmapCache)
-        {
-            final Bitmap bitmap = sHardBitmapCache.get(path);
-            if (bitmap != null)
-            {
-                // Bitmap found in hard cache
-                // Move element to first position, so that it is removed last
-                sHardBitmapCache.remove(path);
-                sHardBitmapCache.put(path, bitmap);
-                return bitmap;
-            }
-        }
-
-        // Then try the soft reference cache
-        SoftReference<Bitmap> bitmapReference = sSoftBitmapCache.get(path);
-        if (bitmapReference != null)
-        {
-            final Bitmap bitmap = bitmapReference.get();
-            if (bitmap != null)
-            {
-                // Bitmap found in soft cache
-                return bitmap;
-            } else
-            {
-                // Soft reference has been Garbage Collected
-                sSoftBitmapCache.remove(path);
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Clears the image cache used internally to improve performance. Note that for memory efficiency reasons, the cache
-     * will automatically be cleared after a certain inactivity delay.
-     */
-    private void clearCache()
-    {
-        sHardBitmapCache.clear();
-        sSoftBitmapCache.clear();
-    }
-
-    // allow a new delay before the automatic cache clear is done
-    private void resetPurgeTimer()
-    {
-        purgeHandler.removeCallbacks(purger);
-        purgeHandler.postDelayed(purger, DELAY_BEFORE_PURGE);
+        return memoryCache.get(path);
     }
 
     /**
@@ -255,28 +188,62 @@ class ImageDownloader
         }
     }
 
-    // the actual AsyncTask that will asynchronously download the image
-    private class BitmapDownloaderTask extends AsyncTask<String, Void, Bitmap>
+    // the key of a download in inFlight (the same file decoded for a different width is a different download)
+    private static String inFlightKey(String path, int width)
+    {
+        return width + ":" + path;
+    }
+
+    // the actual request that will asynchronously download the image (and bind it to every view still waiting for it)
+    private class BitmapDownloaderTask extends ImageLoader.Request<BitmapFactory.Options>
     {
-        private final WeakReference<ImageView> imageViewReference;
-        private String url;
+        private final ArrayList<WeakReference<ImageView>> imageViewReferences;
+        private final String url;
         private int displayWidth;
 
-        BitmapDownloaderTask(ImageView imageView, int displayWidthArg)
+        BitmapDownloaderTask(ImageView imageView, String urlArg, int displayWidthArg)
         {
-            imageViewReference = new WeakReference<ImageView>(imageView);
+            imageViewReferences = new ArrayList<WeakReference<ImageView>>();
+            imageViewReferences.add(new WeakReference<ImageView>(imageView));
+            url = urlArg;
             displayWidth = displayWidthArg;
         }
 
-        // actual download method. Image is scaled to fit available display width
-        @Override
-        protected Bitmap doInBackground(String... params)
+        void addImageView(ImageView imageView)
+        {
+            imageViewReferences.add(new WeakReference<ImageView>(imageView));
+        }
+
+        // the image view is being bound to another image: cancel the download, unless another view still waits for it
+        void detach(ImageView imageView)
+        {
+            boolean waiting = false;
+            Iterator<WeakReference<ImageView>> it = imageViewReferences.iterator();
+            while (it.hasNext())
+            {
+                ImageView v = it.next().get();
+                if (v == null || v == imageView || getBitmapDownloaderTask(v) != this)
+                    it.remove();
+                else
+                    waiting = true;
+            }
+            if (!waiting)
+            {
+                cancel();
+                removeFromInFlight();
+            }
+        }
+
+        private void removeFromInFlight()
         {
-            url = params[0];
-            return decodeFile(new File(url));
+            String key = inFlightKey(url, displayWidth);
+            if (inFlight.get(key) == this)
+                inFlight.remove(key);
         }
 
-        private Bitmap decodeFile(File f)
+        // read the image size and choose the scale, so the image fits the available display width (null on error)
+        @Override
+        BitmapFactory.Options read()
         {
             // scaling method adapted from...
             // http://stackoverflow.com/questions/8132296/handle-resolution-of-different-size-images-in-listview
@@ -288,7 +255,7 @@ class ImageDownloader
                 // decode image size (without allocating memory to store the bitmap)
                 BitmapFactory.Options o = new BitmapFactory.Options();
                 o.inJustDecodeBounds = true;
-                BitmapFactory.decodeStream(new FileInputStream(f), null, o);
+                BitmapFactory.decodeStream(new FileInputStream(url), null, o);
 
                 // determine scale value so image will fit in available display width
                 int scale = 1;
@@ -301,10 +268,9 @@ class ImageDownloader
                     scale *= 2;
                 }
 
-                // decode image, scaled to fit display width (allocates memory to store the bitmap)
                 BitmapFactory.Options o2 = new BitmapFactory.Options();
                 o2.inSampleSize = scale;
-                return BitmapFactory.decodeStream(new FileInputStream(f), null, o2);
+                return o2;
             } catch (FileNotFoundException e)
             {
                 Log.i(MYDEBUG, "FileNotFoundException: e=" + e.toString());
@@ -312,24 +278,37 @@ class ImageDownloader
             return null;
         }
 
-        // once the image is downloaded, associate it to the imageView
+        // decode image, scaled to fit display width (allocates memory to store the bitmap)
         @Override
-        protected void onPostExecute(Bitmap bitmap)
+        Bitmap decode(BitmapFactory.Options o2)
         {
-            // Log.i(MYDEBUG, "onPostExecute!");
-            if (isCancelled())
+            try
+            {
+                return BitmapFactory.decodeStream(new FileInputStream(url), null, o2);
+            } catch (FileNotFoundException e)
             {
-                bitmap = null;
+                Log.i(MYDEBUG, "FileNotFoundException: e=" + e.toString());
             }
+            return null;
+        }
 
+        // once the image is downloaded, associate it to the imageViews
+        @Override
+        void onLoaded(Bitmap bitmap)
+        {
+            // Log.i(MYDEBUG, "onLoaded!");
+            removeFromInFlight();
             addBitmapToCache(url, bitmap);
 
-            ImageView imageView = imageViewReference.get();
-            BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
-            // Change bitmap only if this process is still associated with it
-            if ((this == bitmapDownloaderTask))
+            for (WeakReference<ImageView> imageViewReference : imageViewReferences)
             {
-                imageView.setImageBitmap(bitmap);
+                ImageView imageView = imageViewReference.get();
+                BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
+                // Change bitmap only if this process is still associated with it
+                if ((this == bitmapDownloaderTask))
+                {
+                    imageView.setImageBitmap(bitmap);
+                }
             }
         }
     }
@@ -0,0 +1,157 @@
+package ca.yorku.eecs.mack.democamera;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background threads that load the images for ImageDownloader (in place of AsyncTask's single, process-wide
+ * queue).
+ * <p>
+ * A request is done in two stages: reading (waiting on the disk or the network) on one small pool of threads, and
+ * then decoding (CPU bound) on another, with one thread per core, less one for the UI thread. The result is delivered
+ * on the UI thread. Each pool takes the newest request first (LIFO), so after a fling the images for the views on the
+ * screen now are loaded before those for the views that went by. A request that is cancelled (its view was bound to
+ * another image) is dropped at the start of the next stage, so it never reaches the decoder if it has not already.
+ * <p>
+ * There is one loader per process (see getInstance).
+ */
+class ImageLoader
+{
+    static final int READ_THREADS = 4;
+    static final int DECODE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int KEEP_ALIVE_SECONDS = 30; // idle threads end after this
+
+    private static ImageLoader instance;
+
+    private final ThreadPoolExecutor readExecutor;
+    private final ThreadPoolExecutor decodeExecutor;
+    private final Handler uiHandler;
+
+    /**
+     * A request to load one image. read runs on a read thread and decode on a decode thread (data is the value
+     * returned by read; if read returns null, decode is skipped and the bitmap is null). onLoaded runs on the UI
+     * thread, unless the request was cancelled.
+     */
+    abstract static class Request<T>
+    {
+        private volatile boolean cancelled;
+
+        abstract T read();
+
+        abstract Bitmap decode(T data);
+
+        abstract void onLoaded(Bitmap bitmap);
+
+        // UI thread
+        void cancel()
+        {
+            cancelled = true;
+        }
+
+        boolean isCancelled()
+        {
+            return cancelled;
+        }
+    }
+
+    private ImageLoader()
+    {
+        readExecutor = newExecutor(READ_THREADS, "ImageLoader read");
+        decodeExecutor = newExecutor(DECODE_THREADS, "ImageLoader decode");
+        uiHandler = new Handler(Looper.getMainLooper());
+    }
+
+    static synchronized ImageLoader getInstance()
+    {
+        if (instance == null)
+            instance = new ImageLoader();
+        return instance;
+    }
+
+    /**
+     * Queue a request (ahead of the requests that are waiting).
+     */
+    <T> void submit(final Request<T> request)
+    {
+        readExecutor.execute(new Runnable()
+        {
+            public void run()
+            {
+                if (request.isCancelled())
+                    return;
+                final T data = request.read();
+                if (data == null)
+                {
+                    deliver(request, null);
+                    return;
+                }
+                decodeExecutor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        if (request.isCancelled())
+                            return;
+                        deliver(request, request.decode(data));
+                    }
+                });
+            }
+        });
+    }
+
+    private <T> void deliver(final Request<T> request, final Bitmap bitmap)
+    {
+        uiHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                if (!request.isCancelled())
+                    request.onLoaded(bitmap);
+            }
+        });
+    }
+
+    // a fixed number of threads (at background priority), taking the newest job first
+    private static ThreadPoolExecutor newExecutor(int threads, final String name)
+    {
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r)
+            {
+                return new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, name + " #" + count.incrementAndGet());
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LifoQueue(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // a work queue that hands out the newest job first (the pool takes from the head, so new jobs go there too)
+    private static class LifoQueue extends LinkedBlockingDeque<Runnable>
+    {
+        private static final long serialVersionUID = 1L; // fix compiler warning
+
+        @Override
+        public boolean offer(Runnable r)
+        {
+            return offerFirst(r);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BatchRecognizer - recognize a corpus of recorded gestures using all available cores <p>
+ *
+ * This class is for offline work, such as re-scoring a corpus of recorded gestures after a change to a stroke
+ * dictionary. It runs on a plain JVM (no device is needed). The gestures are read from an <code>Iterator</code> in
+ * chunks, so the corpus need not fit in memory. Each chunk is split recursively and recognized in parallel on a
+ * fork/join pool. Each worker thread has its own <code>Unistroke</code> object. <p>
+ *
+ * The result is a <code>Result</code> object holding, for each expected symbol, the number of gestures, the number
+ * recognized correctly, and the confusion counts (i.e., how often the gesture was recognized as each other symbol).
+ * A gesture that records the dictionary active when it was made (e.g., DIGITS in NUM mode) is recognized with that
+ * dictionary; otherwise the dictionary given to the constructor is used. For example,
+ *
+ * <pre>
+ *     BatchRecognizer br = new BatchRecognizer(Unistroke.GRAFFITI);
+ *     BatchRecognizer.Result r = br.recognize(gestures.iterator());
+ *     r.print(System.out);
+ * </pre>
+ */
+class BatchRecognizer
+{
+    private static final int CHUNK_SIZE = 16384; // gestures read from the iterator at a time
+    private static final int SPLIT_THRESHOLD = 256; // gestures recognized sequentially in a single task
+
+    private int dictionary; // default dictionary
+    private ForkJoinPool pool;
+    private ThreadLocal<Unistroke> recognizers; // one recognizer per worker thread
+
+    /**
+     * Construct a batch recognizer using all available cores.
+     *
+     * @param dictionaryArg the dictionary to use for recognition (e.g., <code>Unistroke.GRAFFITI</code>)
+     */
+    BatchRecognizer(int dictionaryArg)
+    {
+        this(dictionaryArg, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a batch recognizer using the specified number of threads.
+     */
+    BatchRecognizer(final int dictionaryArg, int threads)
+    {
+        dictionary = dictionaryArg;
+        pool = new ForkJoinPool(threads);
+        recognizers = new ThreadLocal<Unistroke>()
+        {
+            @Override
+            protected Unistroke initialValue()
+            {
+                Unistroke u = new Unistroke();
+                u.setDictionary(dictionaryArg);
+                return u;
+            }
+        };
+    }
+
+    /**
+     * Recognize all the gestures provided by the iterator.
+     */
+    Result recognize(Iterator<RecordedGesture> gestures)
+    {
+        Result total = new Result();
+        ArrayList<RecordedGesture> chunk = new ArrayList<RecordedGesture>(CHUNK_SIZE);
+        while (gestures.hasNext())
+        {
+            chunk.clear();
+            while (gestures.hasNext() && chunk.size() < CHUNK_SIZE)
+                chunk.add(gestures.next());
+            RecordedGesture[] a = chunk.toArray(new RecordedGesture[chunk.size()]);
+            total.add(pool.invoke(new RecognizeTask(a, 0, a.length)));
+        }
+        return total;
+    }
+
+    /**
+     * Release the worker threads.
+     */
+    void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    // recognize gestures[lo] to gestures[hi - 1], splitting the range in two until it is small enough
+    private class RecognizeTask extends RecursiveTask<Result>
+    {
+        private static final long serialVersionUID = 1L; // fix compiler warning
+
+        RecordedGesture[] gestures;
+        int lo, hi;
+
+        RecognizeTask(RecordedGesture[] gesturesArg, int loArg, int hiArg)
+        {
+            gestures = gesturesArg;
+            lo = loArg;
+            hi = hiArg;
+        }
+
+        @Override
+        protected Result compute()
+        {
+            if (hi - lo <= SPLIT_THRESHOLD)
+            {
+                Unistroke u = recognizers.get();
+                Result r = new Result();
+                for (int i = lo; i < hi; ++i)
+                {
+                    RecordedGesture g = gestures[i];
+                    u.setDictionary(g.dictionary != 0 ? g.dictionary : dictionary);
+                    r.add(g.expected, u.recognize(g.xs, g.ys, g.n));
+                }
+                return r;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            RecognizeTask left = new RecognizeTask(gestures, lo, mid);
+            left.fork();
+            Result r = new RecognizeTask(gestures, mid, hi).compute();
+            r.add(left.join());
+            return r;
+        }
+    }
+
+    /**
+     * Result - accuracy and confusion counts for a batch of recognized gestures
+     */
+    static class Result
+    {
+        // expected symbol -> (recognized symbol -> count)
+        private HashMap<String, HashMap<String, int[]>> confusion = new HashMap<String, HashMap<String, int[]>>();
+        private int total, correct;
+
+        void add(String expected, String recognized)
+        {
+            HashMap<String, int[]> row = confusion.get(expected);
+            if (row == null)
+            {
+                row = new HashMap<String, int[]>();
+                confusion.put(expected, row);
+            }
+            int[] count = row.get(recognized);
+            if (count == null)
+            {
+                count = new int[1];
+                row.put(recognized, count);
+            }
+            ++count[0];
+            ++total;
+            if (expected.equals(recognized))
+                ++correct;
+        }
+
+        void add(Result r)
+        {
+            for (Map.Entry<String, HashMap<String, int[]>> row : r.confusion.entrySet())
+            {
+                for (Map.Entry<String, int[]> cell : row.getValue().entrySet())
+                {
+                    HashMap<String, int[]> myRow = confusion.get(row.getKey());
+                    if (myRow == null)
+                    {
+                        myRow = new HashMap<String, int[]>();
+                        confusion.put(row.getKey(), myRow);
+                    }
+                    int[] count = myRow.get(cell.getKey());
+                    if (count == null)
+                    {
+                        count = new int[1];
+                        myRow.put(cell.getKey(), count);
+                    }
+                    count[0] += cell.getValue()[0];
+                }
+            }
+            total += r.total;
+            correct += r.correct;
+        }
+
+        int getTotal()
+        {
+            return total;
+        }
+
+        int getCorrect()
+        {
+            return correct;
+        }
+
+        /**
+         * The proportion of all gestures recognized as their expected symbol.
+         */
+        double getAccuracy()
+        {
+            return total == 0 ? 0.0 : (double)correct / total;
+        }
+
+        /**
+         * The number of gestures with the specified expected symbol.
+         */
+        int getTotal(String expected)
+        {
+            int sum = 0;
+            HashMap<String, int[]> row = confusion.get(expected);
+            if (row != null)
+                for (int[] count : row.values())
+                    sum += count[0];
+            return sum;
+        }
+
+        /**
+         * The proportion of gestures with the specified expected symbol that were recognized as that symbol.
+         */
+        double getAccuracy(String expected)
+        {
+            int n = getTotal(expected);
+            return n == 0 ? 0.0 : (double)getConfusion(expected, expected) / n;
+        }
+
+        /**
+         * The number of gestures with the specified expected symbol that were recognized as the specified symbol.
+         */
+        int getConfusion(String expected, String recognized)
+        {
+            HashMap<String, int[]> row = confusion.get(expected);
+            if (row == null)
+                return 0;
+            int[] count = row.get(recognized);
+            return count == null ? 0 : count[0];
+        }
+
+        /**
+         * The expected symbols (sorted).
+         */
+        TreeSet<String> getSymbols()
+        {
+            return new TreeSet<String>(confusion.keySet());
+        }
+
+        /**
+         * The confusion matrix as a sorted map: expected symbol -> (recognized symbol -> count).
+         */
+        TreeMap<String, TreeMap<String, Integer>> getConfusionMatrix()
+        {
+            TreeMap<String, TreeMap<String, Integer>> matrix = new TreeMap<String, TreeMap<String, Integer>>();
+            for (Map.Entry<String, HashMap<String, int[]>> row : confusion.entrySet())
+            {
+                TreeMap<String, Integer> r = new TreeMap<String, Integer>();
+                for (Map.Entry<String, int[]> cell : row.getValue().entrySet())
+                    r.put(cell.getKey(), cell.getValue()[0]);
+                matrix.put(row.getKey(), r);
+            }
+            return matrix;
+        }
+
+        /**
+         * Print the per-symbol accuracy and the confusions (one line per expected symbol).
+         */
+        void print(PrintStream ps)
+        {
+            ps.printf("Gestures: %d, correct: %d, accuracy: %.2f%%\n", total, correct, 100.0 * getAccuracy());
+            for (Map.Entry<String, TreeMap<String, Integer>> row : getConfusionMatrix().entrySet())
+            {
+                String expected = row.getKey();
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, Integer> cell : row.getValue().entrySet())
+                    if (!cell.getKey().equals(expected))
+                        sb.append(' ').append(cell.getKey()).append('=').append(cell.getValue());
+                ps.printf("%-5s n=%-7d accuracy=%6.2f%%  confusions:%s\n", expected, getTotal(expected),
+                        100.0 * getAccuracy(expected), sb.length() > 0 ? sb.toString() : " none");
+            }
+        }
+    }
+}
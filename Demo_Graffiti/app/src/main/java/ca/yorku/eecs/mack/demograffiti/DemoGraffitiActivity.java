@@ -6,12 +6,22 @@ import android.graphics.Color;
 import android.os.Bundle;
 import android.os.Vibrator;
 import android.text.InputType;
+import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ImageView;
+import android.widget.Toast;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 
 /**
  * Demo_Graffiti - demo of handwriting recognition using finger gestures on the surface of the tablet. Single-touch
@@ -113,14 +123,18 @@ public class DemoGraffitiActivity extends Activity implements View.OnClickListen
     private static String MYDEBUG = "MYDEBUG"; // for Log.i messages
 
     final int PULSE_DURATION = 15;
+    final String GESTURE_LOG = "gestures.glog"; // see GestureLog (copy from the device to replay the gestures)
+    final String LATENCY_CSV = "latency.csv"; // see LatencyMonitor (written when the activity is destroyed)
 
     GraffitiPanel graffitiPanel;
     ImageView gestureSetImage;
     EditText recognizedText;
-    CheckBox eraseOnFingerLiftCheckBox;
+    CheckBox eraseOnFingerLiftCheckBox, showLatencyCheckBox, useTemplatesCheckBox;
     boolean eraseOnFingerLift;
     Vibrator vib;
     Button clearButton, exitButton;
+    GestureRecorder gestureRecorder;
+    File logDirectory;
 
     /**
      * Called when the activity is first created.
@@ -134,6 +148,13 @@ public class DemoGraffitiActivity extends Activity implements View.OnClickListen
         graffitiPanel = (GraffitiPanel)findViewById(R.id.paintPanel);
         graffitiPanel.setOnStrokeListener(this);
 
+        // log all gestures to the app's external files directory (if available)
+        logDirectory = getExternalFilesDir(null);
+        if (logDirectory == null)
+            logDirectory = getFilesDir();
+        gestureRecorder = new GestureRecorder(new File(logDirectory, GESTURE_LOG));
+        graffitiPanel.setGestureRecorder(gestureRecorder);
+
         recognizedText = (EditText)findViewById(R.id.recognizedtext);
         recognizedText.setBackgroundColor(Color.WHITE);
         recognizedText.setTextColor(Color.BLUE);
@@ -148,6 +169,12 @@ public class DemoGraffitiActivity extends Activity implements View.OnClickListen
         eraseOnFingerLiftCheckBox.setChecked(true);
         eraseOnFingerLift = true;
 
+        showLatencyCheckBox = (CheckBox)findViewById(R.id.showlatency);
+        showLatencyCheckBox.setOnClickListener(this);
+
+        useTemplatesCheckBox = (CheckBox)findViewById(R.id.usetemplates);
+        useTemplatesCheckBox.setOnClickListener(this);
+
         gestureSetImage = (ImageView)findViewById(R.id.imgGestureSet);
         gestureSetImage.setAdjustViewBounds(true);
 
@@ -167,6 +194,38 @@ public class DemoGraffitiActivity extends Activity implements View.OnClickListen
     @Override
     public void onDestroy()
     {
+        graffitiPanel.setGestureRecorder(null);
+        gestureRecorder.close();
+
+        // save the latency percentiles (copy from the device to compare builds); the percentiles are formatted here,
+        // and the file is written on a background thread
+        final String csv;
+        try
+        {
+            StringWriter sw = new StringWriter();
+            graffitiPanel.getLatencyMonitor().writeCsv(sw);
+            csv = sw.toString();
+        } catch (IOException e)
+        {
+            throw new AssertionError(e); // (a StringWriter does not throw)
+        }
+        final File latencyFile = new File(logDirectory, LATENCY_CSV);
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Writer w = new FileWriter(latencyFile);
+                    w.write(csv);
+                    w.close();
+                } catch (IOException e)
+                {
+                    Log.i(MYDEBUG, "Can't write latency file: " + e);
+                }
+            }
+        }).start();
         super.onDestroy();
     }
 
@@ -187,9 +246,67 @@ public class DemoGraffitiActivity extends Activity implements View.OnClickListen
         {
             eraseOnFingerLift = eraseOnFingerLiftCheckBox.isChecked();
             graffitiPanel.setEraseOnFingerLift(eraseOnFingerLift);
+
+        } else if (v == showLatencyCheckBox)
+        {
+            graffitiPanel.setShowLatency(showLatencyCheckBox.isChecked());
+
+        } else if (v == useTemplatesCheckBox)
+        {
+            if (useTemplatesCheckBox.isChecked())
+                useTemplateRecognizer();
+            else
+                graffitiPanel.setRecognizer(graffitiPanel.u);
         }
     }
 
+    /*
+     * Switch the panel to a TemplateRecognizer trained on the strokes in the gesture log (see RecognizerBenchmark).
+     * The log is read on a background thread. If the log has no strokes yet, the panel keeps the Unistroke engine.
+     * Note: strokes made while the templates are in use are logged with the template engine's results.
+     */
+    private void useTemplateRecognizer()
+    {
+        final File log = new File(logDirectory, GESTURE_LOG);
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final TemplateRecognizer tr = new TemplateRecognizer();
+                int count = 0;
+                try
+                {
+                    GestureLog.Reader reader = new GestureLog.Reader(new BufferedInputStream(new FileInputStream(log)));
+                    count = tr.addTemplates(reader);
+                    reader.close();
+                } catch (IOException e)
+                {
+                    Log.i(MYDEBUG, "Can't read gesture log: " + e);
+                }
+                final int templates = count;
+                runOnUiThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (!useTemplatesCheckBox.isChecked())
+                            return; // (unchecked while the log was read)
+                        if (templates == 0)
+                        {
+                            useTemplatesCheckBox.setChecked(false);
+                            Toast.makeText(DemoGraffitiActivity.this, "No recorded strokes yet", Toast.LENGTH_SHORT)
+                                    .show();
+                            return;
+                        }
+                        graffitiPanel.setRecognizer(tr);
+                        Log.i(MYDEBUG, "Template recognizer: " + templates + " templates");
+                    }
+                });
+            }
+        }).start();
+    }
+
     @Override
     public void onStroke(GraffitiEvent ge)
     {
@@ -0,0 +1,280 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * GestureLog - a compact binary format for logging gestures <p>
+ *
+ * A gesture log begins with a five-byte header (the characters "GLOG" followed by a version byte). The header is
+ * followed by one record per gesture. All integers in a record are written as variable-length integers (7 bits per
+ * byte, least-significant group first, high bit set on all but the last byte). Signed values are first
+ * zigzag-encoded, so small negative values are also short. The fields in a record are... <p>
+ *
+ * <pre>
+ *     timeStampFingerDown   - shifted left one bit, with the low bit set on the first record of a session (see
+ *                             below); otherwise, the (signed) difference from the previous record's
+ *                             timeStampFingerDown
+ *     duration              - timeStampFingerUp - timeStampFingerDown
+ *     dictionary            - the dictionary active when the gesture was made (e.g., Unistroke.GRAFFITI)
+ *     raw                   - the raw result from the recognizer (length, followed by UTF-8 bytes)
+ *     n                     - the number of sample points
+ *     x, y                  - the first sample point
+ *     dx, dy (n - 1 times)  - the (signed) difference from the previous sample point
+ * </pre>
+ *
+ * Since successive sample points are close together, most deltas fit in a single byte. A typical stroke of 50 sample
+ * points is about 110 bytes, compared to 50 x 2 x 4 = 400 bytes for the raw coordinates alone. <p>
+ *
+ * A log may hold several sessions (a new <code>Writer</code> appending to an existing log starts a session). The
+ * first record of each session has its timeStampFingerDown in full (zigzag-encoded, and then shifted and flagged as
+ * above), so the differences in a session never depend on the session before it. <p>
+ *
+ * A log that was cut short (e.g., the app was killed in the middle of a write) is read up to the last complete
+ * record.
+ */
+class GestureLog
+{
+    private static final byte[] MAGIC = {'G', 'L', 'O', 'G'};
+    private static final int VERSION = 2; // (version 1 had no session flag)
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Returns true if a file is a gesture log of the current version (so a <code>Writer</code> may append to it).
+     */
+    static boolean isCurrentLog(File file)
+    {
+        if (!file.isFile())
+            return false;
+        try
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                for (byte m : MAGIC)
+                    if (in.read() != m)
+                        return false;
+                return in.read() == VERSION;
+            } finally
+            {
+                in.close();
+            }
+        } catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Writer - writes a gesture log to an output stream (not thread safe)
+     */
+    static class Writer
+    {
+        private OutputStream out;
+        private long previousTimeStamp;
+        private boolean sessionStarted; // (false until the first record, which has its time stamp in full)
+
+        /**
+         * @param outArg      the stream to write to (should be buffered)
+         * @param writeHeader true to write the header (i.e., at the beginning of a new log)
+         */
+        Writer(OutputStream outArg, boolean writeHeader) throws IOException
+        {
+            out = outArg;
+            if (writeHeader)
+            {
+                out.write(MAGIC);
+                out.write(VERSION);
+            }
+        }
+
+        void write(String raw, int dictionary, long timeStampFingerDown, long timeStampFingerUp, float[] xs,
+                   float[] ys, int n) throws IOException
+        {
+            if (sessionStarted)
+                writeUnsigned(zigzag(timeStampFingerDown - previousTimeStamp) << 1);
+            else
+                writeUnsigned(zigzag(timeStampFingerDown) << 1 | 1);
+            sessionStarted = true;
+            previousTimeStamp = timeStampFingerDown;
+            writeUnsigned(timeStampFingerUp - timeStampFingerDown);
+            writeUnsigned(dictionary);
+
+            byte[] b = raw.getBytes(UTF8);
+            writeUnsigned(b.length);
+            out.write(b);
+
+            writeUnsigned(n);
+            int px = 0, py = 0;
+            for (int i = 0; i < n; ++i)
+            {
+                int x = Math.round(xs[i]);
+                int y = Math.round(ys[i]);
+                writeSigned(x - px);
+                writeSigned(y - py);
+                px = x;
+                py = y;
+            }
+        }
+
+        void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        void close() throws IOException
+        {
+            out.close();
+        }
+
+        private void writeSigned(long v) throws IOException
+        {
+            writeUnsigned(zigzag(v));
+        }
+
+        private static long zigzag(long v)
+        {
+            return (v << 1) ^ (v >> 63);
+        }
+
+        private void writeUnsigned(long v) throws IOException
+        {
+            while ((v & ~0x7fL) != 0)
+            {
+                out.write((int)((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int)v);
+        }
+    }
+
+    /**
+     * Reader - reads a gesture log from an input stream, one <code>RecordedGesture</code> at a time. The expected
+     * symbol of each <code>RecordedGesture</code> is the raw result logged for the gesture.
+     */
+    static class Reader implements Iterator<RecordedGesture>
+    {
+        private InputStream in;
+        private long previousTimeStamp;
+        private RecordedGesture next;
+
+        /**
+         * @param inArg the stream to read from (should be buffered)
+         */
+        Reader(InputStream inArg) throws IOException
+        {
+            in = inArg;
+            for (byte m : MAGIC)
+                if (in.read() != m)
+                    throw new IOException("Not a gesture log");
+            int version = in.read();
+            if (version != VERSION)
+                throw new IOException("Unsupported gesture log version: " + version);
+            next = readRecord();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public RecordedGesture next()
+        {
+            if (next == null)
+                throw new NoSuchElementException();
+            RecordedGesture g = next;
+            next = readRecord();
+            return g;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        void close() throws IOException
+        {
+            in.close();
+        }
+
+        // returns null at the end of the log (or at a truncated record)
+        private RecordedGesture readRecord()
+        {
+            try
+            {
+                int first = in.read();
+                if (first == -1)
+                    return null; // clean end of log
+                long t = readUnsigned(first);
+                long down = (t & 1) != 0 ? unzigzag(t >>> 1) : previousTimeStamp + unzigzag(t >>> 1); // (see above)
+                previousTimeStamp = down;
+                long up = down + readUnsigned(in.read());
+                int dictionary = (int)readUnsigned(in.read());
+
+                byte[] b = new byte[(int)readUnsigned(in.read())];
+                readFully(b);
+                String raw = new String(b, UTF8);
+
+                int n = (int)readUnsigned(in.read());
+                float[] xs = new float[n];
+                float[] ys = new float[n];
+                int x = 0, y = 0;
+                for (int i = 0; i < n; ++i)
+                {
+                    x += (int)unzigzag(readUnsigned(in.read()));
+                    y += (int)unzigzag(readUnsigned(in.read()));
+                    xs[i] = x;
+                    ys[i] = y;
+                }
+                return new RecordedGesture(raw, xs, ys, n, dictionary, down, up);
+            } catch (IOException e)
+            {
+                return null; // truncated record
+            }
+        }
+
+        // read a varint, given its first byte
+        private long readUnsigned(int b) throws IOException
+        {
+            long v = 0;
+            int shift = 0;
+            while (true)
+            {
+                if (b == -1)
+                    throw new EOFException();
+                v |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+                shift += 7;
+                b = in.read();
+            }
+        }
+
+        private void readFully(byte[] b) throws IOException
+        {
+            int offset = 0;
+            while (offset < b.length)
+            {
+                int count = in.read(b, offset, b.length - offset);
+                if (count == -1)
+                    throw new EOFException();
+                offset += count;
+            }
+        }
+
+        private static long unzigzag(long v)
+        {
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
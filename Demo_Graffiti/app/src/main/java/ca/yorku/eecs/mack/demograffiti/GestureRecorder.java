@@ -0,0 +1,107 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * GestureRecorder - appends each gesture to a gesture log file on a background thread <p>
+ *
+ * The recorder is attached to a <code>GraffitiPanel</code> (see <code>setGestureRecorder</code>). On finger lift, the
+ * panel passes the gesture to <code>record</code>, which copies the sample points and returns immediately. The
+ * encoding and file I/O are done on a single background thread, so the UI thread never waits on the disk. The file
+ * format is described in <code>GestureLog</code>. <p>
+ *
+ * A log may be replayed off the device with <code>GestureReplay</code>.
+ */
+class GestureRecorder
+{
+    private static final String MYDEBUG = "MYDEBUG"; // for Log.i messages
+
+    private ExecutorService executor;
+    private GestureLog.Writer writer;
+
+    /**
+     * Construct a recorder that appends to the specified file (creating it, if necessary, or replacing it if it is a
+     * log of an older version).
+     */
+    GestureRecorder(final File file)
+    {
+        executor = Executors.newSingleThreadExecutor();
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    // append a session to the log, unless it is empty or from an older version (then start afresh)
+                    boolean newLog = !GestureLog.isCurrentLog(file);
+                    FileOutputStream out = new FileOutputStream(file, !newLog);
+                    writer = new GestureLog.Writer(new BufferedOutputStream(out), newLog);
+                } catch (IOException e)
+                {
+                    Log.i(MYDEBUG, "Can't open gesture log: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Record a gesture. The sample points are copied, so the caller may reuse its arrays immediately.
+     */
+    void record(final String raw, final int dictionary, final long timeStampFingerDown, final long timeStampFingerUp,
+                float[] xs, float[] ys, final int n)
+    {
+        final float[] xsCopy = Arrays.copyOf(xs, n);
+        final float[] ysCopy = Arrays.copyOf(ys, n);
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (writer == null)
+                    return;
+                try
+                {
+                    writer.write(raw, dictionary, timeStampFingerDown, timeStampFingerUp, xsCopy, ysCopy, n);
+                    writer.flush(); // one gesture at a time, so little is lost if the app is killed
+                } catch (IOException e)
+                {
+                    Log.i(MYDEBUG, "Can't write gesture log: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write any pending gestures, close the log, and stop the background thread.
+     */
+    void close()
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (writer == null)
+                    return;
+                try
+                {
+                    writer.close();
+                } catch (IOException e)
+                {
+                    Log.i(MYDEBUG, "Can't close gesture log: " + e);
+                }
+                writer = null;
+            }
+        });
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,107 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * GestureReplay - replay a gesture log through <code>Unistroke</code> on a plain JVM <p>
+ *
+ * Each gesture in the log is recognized again, one at a time, using the dictionary that was active when the gesture
+ * was made. The tool reports the throughput (strokes per second), the latency percentiles for a single
+ * <code>recognize</code> call, and the accuracy. Accuracy is the agreement with the raw result logged on the device,
+ * so a change to the recognizer or a dictionary shows up as a drop in accuracy along with the confusions. Taps
+ * ("=TAP") are skipped, since they are never passed to the recognizer. <p>
+ *
+ * Usage (with the app's classes and <code>android.jar</code> on the class path):
+ *
+ * <pre>
+ *     java ca.yorku.eecs.mack.demograffiti.GestureReplay gestures.glog [passes] [resample]
+ * </pre>
+ *
+ * The log is replayed <code>passes</code> times (at least 1; default 5). The first pass warms up the JVM and is not
+ * included in the timing. If <code>resample</code> is given, each stroke is first resampled to that many sample points
+ * (see <code>Unistroke.setResampleCount</code>). Since the logged results were recognized without resampling, the
+ * accuracy then shows how many strokes are recognized the same way with resampling.
+ */
+class GestureReplay
+{
+    public static void main(String[] args) throws IOException
+    {
+        String fileName = args.length > 0 ? args[0] : null;
+        int passes = 5;
+        int resample = 0;
+        try
+        {
+            if (args.length > 1)
+                passes = Integer.parseInt(args[1]);
+            if (args.length > 2)
+                resample = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e)
+        {
+            passes = 0;
+        }
+        if (fileName == null || passes < 1 || resample < 0)
+        {
+            System.out.println("usage: GestureReplay <gesture log> [passes] [resample] (passes >= 1, resample >= 0)");
+            return;
+        }
+
+        Unistroke u = new Unistroke();
+        u.setResampleCount(resample);
+        long[] latency = new long[1024];
+        int count = 0;
+        long totalNanos = 0;
+        BatchRecognizer.Result result = null;
+
+        for (int pass = 0; pass < passes; ++pass)
+        {
+            boolean warmUp = pass == 0 && passes > 1;
+            BatchRecognizer.Result r = new BatchRecognizer.Result();
+            GestureLog.Reader reader = new GestureLog.Reader(new BufferedInputStream(new FileInputStream(fileName)));
+            while (reader.hasNext())
+            {
+                RecordedGesture g = reader.next();
+                if (g.expected.equals("=TAP"))
+                    continue;
+
+                u.setDictionary(g.dictionary != 0 ? g.dictionary : Unistroke.GRAFFITI);
+                long t0 = System.nanoTime();
+                String recognized = u.recognize(g.xs, g.ys, g.n);
+                long t1 = System.nanoTime();
+                r.add(g.expected, recognized);
+
+                if (!warmUp)
+                {
+                    if (count == latency.length)
+                        latency = Arrays.copyOf(latency, 2 * count);
+                    latency[count++] = t1 - t0;
+                    totalNanos += t1 - t0;
+                }
+            }
+            reader.close();
+            result = r;
+        }
+
+        if (count == 0)
+        {
+            System.out.println("No strokes in " + fileName);
+            return;
+        }
+
+        Arrays.sort(latency, 0, count);
+        System.out.printf("Strokes: %d (x %d timed passes)\n", result.getTotal(), passes > 1 ? passes - 1 : 1);
+        System.out.printf("Throughput: %.0f strokes/s\n", count / (totalNanos / 1e9));
+        System.out.printf("Latency (us): p50=%.1f p90=%.1f p99=%.1f max=%.1f\n", percentile(latency, count, 50),
+                percentile(latency, count, 90), percentile(latency, count, 99), latency[count - 1] / 1e3);
+        result.print(System.out);
+    }
+
+    // the p-th percentile of the first n (sorted) values, in microseconds
+    static double percentile(long[] sorted, int n, double p)
+    {
+        int i = (int)Math.ceil(p / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, i))] / 1e3;
+    }
+}
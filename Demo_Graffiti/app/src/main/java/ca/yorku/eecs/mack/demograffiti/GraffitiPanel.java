@@ -49,8 +49,9 @@ public class GraffitiPanel extends View
     boolean numOn, numLockOn;
     boolean symOn, symLockOn;
     Unistroke u;
+    StrokeRecognizer recognizer; // the active recognition engine (u, by default)
     OnStrokeListener onStrokeListener; // for the call back to the activity implementing the
-    private Paint paintInk, paintStateText, paintSymbolText, paintChipLine, paintStateTextWatermark;
+    private Paint paintInk, paintStateText, paintSymbolText, paintChipLine, paintStateTextWatermark, paintLatencyText;
 
     /*
      * The "gesture" array holds the points for the current gesture. On finger lift, it is provided
@@ -68,6 +69,23 @@ public class GraffitiPanel extends View
     //private ArrayList<Point[]> gestureSet;
     private ArrayList<ArrayList<Point>> gestureSet;
 
+    /*
+     * The "strokeAccumulator" holds the same sample points as "gesture", but as primitive arrays. It also tracks the
+     * bounding box and path length of the stroke as the points arrive, so the recognizer has less to do on finger
+     * lift.
+     */
+    private StrokeAccumulator strokeAccumulator;
+
+    private GestureRecorder gestureRecorder; // if not null, each gesture is appended to a gesture log
+
+    /*
+     * Timings (in nanoseconds) for the stages of the text-entry path. See LatencyMonitor.
+     */
+    private LatencyMonitor latencyMonitor;
+    private long captureNanos; // time spent collecting the sample points for the current stroke
+    private long drawRequestNanos; // when the last stroke was finished (0 = no draw pending)
+    private boolean showLatency;
+
     private long timeStampFingerDown;
     private boolean eraseOnFingerLift = true;
 
@@ -95,9 +113,12 @@ public class GraffitiPanel extends View
         this.setBackgroundColor(GESTURE_BACKGROUND); // Pink
 
         u = new Unistroke();
+        recognizer = u;
 
         gesture = new ArrayList<Point>(); // an array of points representing a single gesture
         gestureSet = new ArrayList<ArrayList<Point>>();
+        strokeAccumulator = new StrokeAccumulator();
+        latencyMonitor = new LatencyMonitor();
 
         capOn = capLockOn = numOn = numLockOn = symOn = symLockOn = false;
 
@@ -129,6 +150,12 @@ public class GraffitiPanel extends View
         paintChipLine.setStrokeWidth(9f);
         paintChipLine.setAntiAlias(true);
         paintChipLine.setColor(0xffbbbbbb);
+
+        paintLatencyText = new Paint();
+        paintLatencyText.setColor(0xff555555);
+        paintLatencyText.setAntiAlias(true);
+        paintLatencyText.setTypeface(Typeface.MONOSPACE);
+        paintLatencyText.setTextSize(STATE_TEXT_SIZE / 2);
     }
 
     /*
@@ -162,6 +189,19 @@ public class GraffitiPanel extends View
         onStrokeListener = onStrokeListenerArg;
     }
 
+    /**
+     * Attach a gesture recorder to this <code>GraffitiPanel</code>. <p>
+     *
+     * On each finger lift, the gesture, its timestamps, and the raw result from the recognizer are passed to the
+     * recorder, which appends them to a gesture log on a background thread. See <code>GestureRecorder</code>.
+     *
+     * @param gestureRecorderArg the recorder (or <code>null</code> to stop recording)
+     */
+    public void setGestureRecorder(GestureRecorder gestureRecorderArg)
+    {
+        gestureRecorder = gestureRecorderArg;
+    }
+
     /**
      * Set the dictionary that this <code>GraffitiPanel</code> will use to recognize strokes. <p>
      *
@@ -172,7 +212,47 @@ public class GraffitiPanel extends View
      */
     public void setDictionary(int dictionaryArg)
     {
-        u.setDictionary(dictionaryArg);
+        recognizer.setDictionary(dictionaryArg);
+    }
+
+    /**
+     * Set the engine that this <code>GraffitiPanel</code> will use to recognize strokes. <p>
+     *
+     * The default is a <code>Unistroke</code> engine. The engine may be changed at any time (e.g., to a
+     * <code>TemplateRecognizer</code> trained on the user's own strokes). The active dictionary carries over to the new
+     * engine. <p>
+     *
+     * @param recognizerArg the recognition engine
+     */
+    public void setRecognizer(StrokeRecognizer recognizerArg)
+    {
+        recognizerArg.setDictionary(recognizer.getDictionary());
+        recognizer = recognizerArg;
+    }
+
+    public StrokeRecognizer getRecognizer()
+    {
+        return recognizer;
+    }
+
+    /**
+     * Returns the latency histograms for the stages of the text-entry path (capture, recognition, dispatch, and draw).
+     * See <code>LatencyMonitor</code>.
+     */
+    public LatencyMonitor getLatencyMonitor()
+    {
+        return latencyMonitor;
+    }
+
+    /**
+     * Control whether the latency percentiles are shown on this <code>GraffitiPanel</code>. <p>
+     *
+     * @param showLatencyArg if true, the p50, p95, and p99 latencies for each stage are drawn at the bottom of the panel
+     */
+    public void setShowLatency(boolean showLatencyArg)
+    {
+        showLatency = showLatencyArg;
+        invalidate();
     }
 
     /**
@@ -184,6 +264,7 @@ public class GraffitiPanel extends View
     @Override
     public boolean onTouchEvent(MotionEvent me)
     {
+        long t0 = System.nanoTime();
         int x = Math.round(me.getX());
         int y = Math.round(me.getY());
 
@@ -192,12 +273,18 @@ public class GraffitiPanel extends View
             // beginning of gesture
             case MotionEvent.ACTION_DOWN:
                 timeStampFingerDown = System.currentTimeMillis();
-                gesture.add(new Point(x, y));
+                strokeAccumulator.reset();
+                addSamplePoint(x, y);
+                captureNanos = System.nanoTime() - t0;
                 break;
 
             // gesture in progress
             case MotionEvent.ACTION_MOVE:
-                gesture.add(new Point(x, y));
+                // include the sample points batched since the last event (otherwise, fast strokes lose detail)
+                for (int i = 0; i < me.getHistorySize(); ++i)
+                    addSamplePoint(Math.round(me.getHistoricalX(i)), Math.round(me.getHistoricalY(i)));
+                addSamplePoint(x, y);
+                captureNanos += System.nanoTime() - t0;
                 break;
 
             // End of gesture
@@ -208,17 +295,27 @@ public class GraffitiPanel extends View
                 long timeStampFingerUp = System.currentTimeMillis();
                 long strokeDuration = timeStampFingerUp - timeStampFingerDown;
 
-                gesture.add(new Point(x, y)); // last point in the gesture
+                addSamplePoint(x, y); // last point in the gesture
+                latencyMonitor.record(LatencyMonitor.CAPTURE, captureNanos + System.nanoTime() - t0);
 
                 // =========================
                 // Now do the Graffiti stuff
                 // =========================
 
                 String raw;
+                int dictionary = recognizer.getDictionary();
                 if (strokeDuration < TAP_DURATION_THRESHOLD)
                     raw = "=TAP";
                 else
-                    raw = u.recognize(gesture); // the heavy lifting is done here!
+                {
+                    long t1 = System.nanoTime();
+                    raw = recognizer.recognize(strokeAccumulator); // the heavy lifting is done here!
+                    latencyMonitor.record(LatencyMonitor.RECOGNITION, System.nanoTime() - t1);
+                }
+
+                if (gestureRecorder != null) // log the gesture (on a background thread)
+                    gestureRecorder.record(raw, dictionary, timeStampFingerDown, timeStampFingerUp,
+                            strokeAccumulator.xs, strokeAccumulator.ys, strokeAccumulator.n);
 
                 // Begin with straight-line strokes. Let's go around the compass dial, starting at
                 // NORTH...
@@ -359,8 +456,10 @@ public class GraffitiPanel extends View
                     setBackgroundColor(GraffitiPanel.GESTURE_BACKGROUND);
 
                 // call back to the activity (or IME service) implementing OnStrokeListener
+                long t2 = System.nanoTime();
                 onStrokeListener.onStroke(new GraffitiEvent(raw, charCode, type, x, y, timeStampFingerDown,
                         timeStampFingerUp, gesture));
+                latencyMonitor.record(LatencyMonitor.DISPATCH, System.nanoTime() - t2);
 
                 if (eraseOnFingerLift)
                     gestureSet.clear();
@@ -368,6 +467,7 @@ public class GraffitiPanel extends View
                     gestureSet.add(new ArrayList<Point>(gesture));
 
                 gesture.clear();
+                drawRequestNanos = System.nanoTime(); // the DRAW stage ends in onDraw
                 break;
         }
         invalidate(); // refresh the graffiti panel (i.e., draw ink and state indicators)
@@ -442,8 +542,35 @@ public class GraffitiPanel extends View
         for (int i = 0; i < gestureSet.size(); ++i)
             paintGestureInk(canvas, gestureSet.get(i));
 
+        // =====================================
+        // Paint the latency overlay (if enabled)
+        // =====================================
+
+        if (showLatency)
+        {
+            float lineHeight = paintLatencyText.getTextSize() * 1.2f;
+            float y = height - STATE_GAP - (LatencyMonitor.STAGE_NAMES.length - 1) * lineHeight;
+            for (int i = 0; i < LatencyMonitor.STAGE_NAMES.length; ++i)
+            {
+                canvas.drawText(latencyMonitor.summary(i), STATE_GAP, y, paintLatencyText);
+                y += lineHeight;
+            }
+        }
+
+        if (drawRequestNanos != 0) // the first draw after a stroke, so the result is now on the screen
+        {
+            latencyMonitor.record(LatencyMonitor.DRAW, System.nanoTime() - drawRequestNanos);
+            drawRequestNanos = 0;
+        }
     } // end onDraw
 
+    // add a sample point to the gesture in progress
+    private void addSamplePoint(int x, int y)
+    {
+        gesture.add(new Point(x, y));
+        strokeAccumulator.add(x, y);
+    }
+
     private void paintGestureInk(Canvas c, ArrayList<Point> gesture)
     {
         for (int i = 1; i < gesture.size(); ++i)
@@ -477,6 +604,7 @@ public class GraffitiPanel extends View
     public void clear()
     {
         gesture.clear();
+        strokeAccumulator.reset();
         gestureSet.clear();
         invalidate(); // repaints
     }
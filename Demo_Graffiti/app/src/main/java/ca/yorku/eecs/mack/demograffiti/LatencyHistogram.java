@@ -0,0 +1,123 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram - a fixed-bucket, lock-free histogram of durations in nanoseconds <p>
+ *
+ * The buckets are spaced logarithmically: each power of two is split into eight sub-buckets, so a value is resolved to
+ * within 12.5%, whether it is 2 microseconds or 2 seconds. The bucket array is allocated once, so recording a value
+ * never allocates. <p>
+ *
+ * <code>record</code> is a single atomic increment, so values may be recorded on one thread (e.g., the UI thread)
+ * while the percentiles are read on another, without locking. A percentile is computed from a snapshot of the buckets
+ * and is reported as the upper bound of the bucket holding it.
+ */
+class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3; // 8 sub-buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong max;
+
+    LatencyHistogram()
+    {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a duration (in nanoseconds). Negative durations are recorded as 0.
+     */
+    void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos))
+            m = max.get();
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     */
+    long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the longest duration recorded (in nanoseconds).
+     */
+    long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the p-th percentile (0 &lt; p &le; 100) of the recorded durations (in nanoseconds), or 0 if there are
+     * none.
+     */
+    long getPercentile(double p)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear the histogram.
+     */
+    void reset()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+            counts.set(i, 0);
+        count.set(0);
+        max.set(0);
+    }
+
+    // the bucket for a (non-negative) value
+    private static int bucket(long v)
+    {
+        if (v < SUB_BUCKETS)
+            return (int)v; // small values have a bucket each
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int)(v >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    // the largest value falling in a bucket
+    private static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,85 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * LatencyMonitor - latency histograms for the stages of the text-entry path in a <code>GraffitiPanel</code> <p>
+ *
+ * Four stages are timed for each stroke (with <code>System.nanoTime</code>): <p>
+ *
+ * <ul> <li>CAPTURE - the time spent handling the touch events that make up the stroke (i.e., collecting the sample
+ * points), summed over the stroke <li>RECOGNITION - the call to the recognizer on finger lift <li>DISPATCH - the call to
+ * the activity's <code>onStroke</code> listener <li>DRAW - from the end of the finger-lift handling to the end of the
+ * first <code>onDraw</code> that follows it (i.e., until the result is on the screen) </ul> <p>
+ *
+ * Each stage has a <code>LatencyHistogram</code>, so recording is lock-free and never allocates. The percentiles may
+ * be shown on the panel (see <code>GraffitiPanel.setShowLatency</code>) or written as CSV (see <code>writeCsv</code>).
+ */
+class LatencyMonitor
+{
+    static final int CAPTURE = 0;
+    static final int RECOGNITION = 1;
+    static final int DISPATCH = 2;
+    static final int DRAW = 3;
+
+    static final String[] STAGE_NAMES = {"capture", "recognition", "dispatch", "draw"};
+
+    private final LatencyHistogram[] histograms;
+
+    LatencyMonitor()
+    {
+        histograms = new LatencyHistogram[STAGE_NAMES.length];
+        for (int i = 0; i < histograms.length; ++i)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Record the duration (in nanoseconds) of a stage (e.g., <code>RECOGNITION</code>).
+     */
+    void record(int stage, long nanos)
+    {
+        histograms[stage].record(nanos);
+    }
+
+    LatencyHistogram getHistogram(int stage)
+    {
+        return histograms[stage];
+    }
+
+    /**
+     * Returns a one-line summary of a stage, e.g., "recognition n=42 p50=8 p95=21 p99=40 us".
+     */
+    String summary(int stage)
+    {
+        LatencyHistogram h = histograms[stage];
+        return String.format(Locale.US, "%s n=%d p50=%d p95=%d p99=%d us", STAGE_NAMES[stage], h.getCount(),
+                h.getPercentile(50) / 1000, h.getPercentile(95) / 1000, h.getPercentile(99) / 1000);
+    }
+
+    /**
+     * Write the percentiles for each stage as CSV (one row per stage, times in microseconds).
+     */
+    void writeCsv(Writer w) throws IOException
+    {
+        w.write("stage,count,p50_us,p95_us,p99_us,max_us\n");
+        for (int i = 0; i < histograms.length; ++i)
+        {
+            LatencyHistogram h = histograms[i];
+            w.write(String.format(Locale.US, "%s,%d,%.1f,%.1f,%.1f,%.1f\n", STAGE_NAMES[i], h.getCount(),
+                    h.getPercentile(50) / 1e3, h.getPercentile(95) / 1e3, h.getPercentile(99) / 1e3,
+                    h.getMax() / 1e3));
+        }
+        w.flush();
+    }
+
+    /**
+     * Clear all the histograms.
+     */
+    void reset()
+    {
+        for (LatencyHistogram h : histograms)
+            h.reset();
+    }
+}
@@ -0,0 +1,208 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * PackedDictionary - a stroke dictionary held in parallel primitive arrays <p>
+ *
+ * Row <i>i</i> of the dictionary is spread across the arrays below. The quadrant and direction features of a row are
+ * packed into one <code>int</code> each (one byte per feature), and the four cumulative distance bounds of a row are
+ * adjacent in <code>ranges</code>. So, the matcher (<code>StrokeIndex</code>) touches a few contiguous words per row
+ * rather than calling a dozen getters on a <code>StrokeDef</code> object. <p>
+ *
+ * A <code>PackedDictionary</code> is built from an array of <code>StrokeDef</code>s (as for the built-in
+ * dictionaries), parsed from the 13-value text format described in the <code>Unistroke</code> API, or read from a
+ * precompiled binary form. The binary form is written by <code>write</code>, or from the command line: <p>
+ *
+ * <pre>
+ *     java ca.yorku.eecs.mack.demograffiti.PackedDictionary shorthand.txt shorthand.gdic
+ * </pre>
+ *
+ * A <code>PackedDictionary</code> is never modified after it is built, so it may be shared between threads.
+ */
+class PackedDictionary
+{
+    private static final int MAGIC = 0x47444943; // "GDIC"
+    private static final int VERSION = 1;
+
+    final int size; // number of rows
+    final String[] symbols; // recognized symbol for each row
+    final int[] quads; // quadFirst, quadSecond, quadPenultimate, quadLast (one byte each, quadFirst in the high byte)
+    final double[] ranges; // kxmin, kxmax, kymin, kymax for each row (4 values per row)
+    final int[] directions; // startx, starty, stopx, stopy (one byte each, startx in the high byte)
+
+    private PackedDictionary(int sizeArg)
+    {
+        size = sizeArg;
+        symbols = new String[size];
+        quads = new int[size];
+        ranges = new double[4 * size];
+        directions = new int[size];
+    }
+
+    /**
+     * Build a packed dictionary from an array of <code>StrokeDef</code>s.
+     */
+    PackedDictionary(StrokeDef[] d)
+    {
+        this(d.length);
+        for (int i = 0; i < size; ++i)
+            set(i, d[i].getDEFsymbol(), d[i].getDEFquadf(), d[i].getDEFquads(), d[i].getDEFquadsl(),
+                    d[i].getDEFquadl(), d[i].getDEFkxmin(), d[i].getDEFkxmax(), d[i].getDEFkymin(),
+                    d[i].getDEFkymax(), d[i].getDEFstartX(), d[i].getDEFstartY(), d[i].getDEFstopX(),
+                    d[i].getDEFstopY());
+    }
+
+    private void set(int i, String symbol, int quadFirst, int quadSecond, int quadPenultimate, int quadLast,
+                     double kxmin, double kxmax, double kymin, double kymax, int startx, int starty, int stopx,
+                     int stopy)
+    {
+        symbols[i] = symbol;
+        quads[i] = pack(quadFirst, quadSecond, quadPenultimate, quadLast);
+        ranges[4 * i] = kxmin;
+        ranges[4 * i + 1] = kxmax;
+        ranges[4 * i + 2] = kymin;
+        ranges[4 * i + 3] = kymax;
+        directions[i] = pack(startx, starty, stopx, stopy);
+    }
+
+    /**
+     * Parse a dictionary in the text format (13 values per row, delimited by spaces or commas; blank lines and lines
+     * beginning with "#" are ignored).
+     */
+    static PackedDictionary parse(Reader r) throws IOException
+    {
+        ArrayList<StrokeDef> rows = new ArrayList<StrokeDef>();
+        BufferedReader br = new BufferedReader(r);
+        String line;
+        int lineNumber = 0;
+        while ((line = br.readLine()) != null)
+        {
+            ++lineNumber;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+
+            String[] s = line.split("[\\s,]+");
+            if (s.length != 13)
+                throw new IOException("Dictionary line " + lineNumber + ": expected 13 values, found " + s.length);
+            try
+            {
+                rows.add(new StrokeDef(s[0], Integer.parseInt(s[1]), Integer.parseInt(s[2]), Integer.parseInt(s[3]),
+                        Integer.parseInt(s[4]), Double.parseDouble(s[5]), Double.parseDouble(s[6]),
+                        Double.parseDouble(s[7]), Double.parseDouble(s[8]), Integer.parseInt(s[9]),
+                        Integer.parseInt(s[10]), Integer.parseInt(s[11]), Integer.parseInt(s[12])));
+            } catch (NumberFormatException e)
+            {
+                throw new IOException("Dictionary line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new PackedDictionary(rows.toArray(new StrokeDef[rows.size()]));
+    }
+
+    /**
+     * Read a dictionary in the precompiled binary form (see <code>write</code>).
+     */
+    static PackedDictionary read(InputStream in) throws IOException
+    {
+        DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != MAGIC)
+            throw new IOException("Not a compiled stroke dictionary");
+        int version = dis.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported compiled stroke dictionary version: " + version);
+
+        PackedDictionary pd = new PackedDictionary(dis.readInt());
+        for (int i = 0; i < pd.size; ++i)
+        {
+            pd.symbols[i] = dis.readUTF();
+            pd.quads[i] = dis.readInt();
+            for (int j = 0; j < 4; ++j)
+                pd.ranges[4 * i + j] = dis.readDouble();
+            pd.directions[i] = dis.readInt();
+        }
+        return pd;
+    }
+
+    /**
+     * Write this dictionary in the precompiled binary form.
+     */
+    void write(OutputStream out) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(size);
+        for (int i = 0; i < size; ++i)
+        {
+            dos.writeUTF(symbols[i]);
+            dos.writeInt(quads[i]);
+            for (int j = 0; j < 4; ++j)
+                dos.writeDouble(ranges[4 * i + j]);
+            dos.writeInt(directions[i]);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Unpack this dictionary into <code>StrokeDef</code>s (e.g., for <code>Unistroke.activeDictionary</code>).
+     */
+    StrokeDef[] toStrokeDefs()
+    {
+        StrokeDef[] d = new StrokeDef[size];
+        for (int i = 0; i < size; ++i)
+            d[i] = new StrokeDef(symbols[i], unpack(quads[i], 0), unpack(quads[i], 1), unpack(quads[i], 2),
+                    unpack(quads[i], 3), ranges[4 * i], ranges[4 * i + 1], ranges[4 * i + 2], ranges[4 * i + 3],
+                    unpack(directions[i], 0), unpack(directions[i], 1), unpack(directions[i], 2),
+                    unpack(directions[i], 3));
+        return d;
+    }
+
+    // pack four small values (0-255) into an int, the first value in the high byte
+    static int pack(int a, int b, int c, int d)
+    {
+        return (a & 0xff) << 24 | (b & 0xff) << 16 | (c & 0xff) << 8 | (d & 0xff);
+    }
+
+    // unpack value i (0-3) from an int packed as above
+    static int unpack(int packed, int i)
+    {
+        return (packed >>> (24 - 8 * i)) & 0xff;
+    }
+
+    /**
+     * Compile a text dictionary into the binary form.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("usage: PackedDictionary <text dictionary> <compiled dictionary>");
+            return;
+        }
+        FileReader fr = new FileReader(args[0]);
+        PackedDictionary pd = parse(fr);
+        fr.close();
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+        pd.write(out);
+        out.close();
+
+        // read it back, as a check
+        InputStream in = new BufferedInputStream(new FileInputStream(args[1]));
+        System.out.println("Compiled " + read(in).size + " dictionary entries to " + args[1]);
+        in.close();
+    }
+}
@@ -0,0 +1,76 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+/**
+ * RecognitionContext - reusable scratch buffers for a <code>Unistroke</code> recognizer <p>
+ *
+ * Recognition works on several arrays the length of the stroke (the raw sample points, the normalized sample
+ * points, the cumulative distance along the stroke, and the resampled sample points). Allocating these afresh for
+ * every stroke creates garbage on every finger lift. Instead, each <code>Unistroke</code> object holds one
+ * <code>RecognitionContext</code> and the buffers herein are reused from stroke to stroke. A buffer only grows (to the
+ * next power of two) when a stroke arrives that is longer than any previous stroke. <p>
+ *
+ * A <code>RecognitionContext</code> is not thread safe. It belongs to exactly one recognizer.
+ */
+class RecognitionContext
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    float[] xs, ys; // raw sample points (used by the Point-based adapters)
+    float[] nx, ny; // normalized sample points
+    float[] nz; // cumulative (normalized) distance along the stroke, up to each sample point
+    float[] rx, ry; // resampled sample points (see StrokeResampler)
+
+    RecognitionContext()
+    {
+        xs = new float[INITIAL_CAPACITY];
+        ys = new float[INITIAL_CAPACITY];
+        nx = new float[INITIAL_CAPACITY];
+        ny = new float[INITIAL_CAPACITY];
+        nz = new float[INITIAL_CAPACITY];
+        rx = new float[0];
+        ry = new float[0];
+    }
+
+    /**
+     * Make sure the raw sample buffers can hold n points.
+     */
+    void ensureRawCapacity(int n)
+    {
+        if (xs.length < n)
+        {
+            xs = new float[grow(n)];
+            ys = new float[xs.length];
+        }
+    }
+
+    /**
+     * Make sure the normalized sample buffers can hold n points.
+     */
+    void ensureCapacity(int n)
+    {
+        if (nx.length < n)
+        {
+            nx = new float[grow(n)];
+            ny = new float[nx.length];
+            nz = new float[nx.length];
+        }
+    }
+
+    /**
+     * Make sure the resampled sample buffers can hold m points.
+     */
+    void ensureResampleCapacity(int m)
+    {
+        if (rx.length < m)
+        {
+            rx = new float[m];
+            ry = new float[m];
+        }
+    }
+
+    // the smallest power of two not less than n
+    private static int grow(int n)
+    {
+        return Math.max(INITIAL_CAPACITY, Integer.highestOneBit(n - 1) << 1);
+    }
+}
@@ -0,0 +1,113 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * RecognizerBenchmark - compare the recognition engines on the same recorded strokes <p>
+ *
+ * The strokes in a gesture log are split in two: the even-numbered strokes are the training set and the odd-numbered
+ * strokes are the test set. The training set provides the templates for a <code>TemplateRecognizer</code>. The test set
+ * is then recognized by each engine (<code>Unistroke</code> and <code>TemplateRecognizer</code>), and the tool reports
+ * the latency percentiles for a single <code>recognize</code> call and the accuracy for each engine. <p>
+ *
+ * The label for each stroke is the raw result logged on the device (i.e., by <code>Unistroke</code>), so the accuracy
+ * for <code>Unistroke</code> is 100% unless the recognizer or a dictionary has changed since the log was recorded.
+ * The accuracy for <code>TemplateRecognizer</code> is its agreement with <code>Unistroke</code>. Strokes that were not
+ * recognized on the device, and taps, are skipped. <p>
+ *
+ * Usage (with the app's classes on the class path):
+ *
+ * <pre>
+ *     java ca.yorku.eecs.mack.demograffiti.RecognizerBenchmark gestures.glog [passes]
+ * </pre>
+ *
+ * The test set is recognized <code>passes</code> times by each engine (default 5). The first pass warms up the JVM and
+ * is not included in the timing.
+ */
+class RecognizerBenchmark
+{
+    public static void main(String[] args) throws IOException
+    {
+        String fileName = args.length > 0 ? args[0] : null;
+        int passes = 5;
+        try
+        {
+            if (args.length > 1)
+                passes = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e)
+        {
+            passes = 0;
+        }
+        if (fileName == null || passes < 1)
+        {
+            System.out.println("usage: RecognizerBenchmark <gesture log> [passes] (passes >= 1)");
+            return;
+        }
+
+        // split the log into a training set and a test set
+        ArrayList<RecordedGesture> training = new ArrayList<RecordedGesture>();
+        ArrayList<RecordedGesture> test = new ArrayList<RecordedGesture>();
+        GestureLog.Reader reader = new GestureLog.Reader(new BufferedInputStream(new FileInputStream(fileName)));
+        while (reader.hasNext())
+        {
+            RecordedGesture g = reader.next();
+            if (g.expected.equals("=TAP") || g.expected.equals(Unistroke.UNRECOGNIZED_STROKE))
+                continue;
+            if ((training.size() + test.size()) % 2 == 0)
+                training.add(g);
+            else
+                test.add(g);
+        }
+        reader.close();
+
+        if (test.isEmpty())
+        {
+            System.out.println("Not enough strokes in " + fileName);
+            return;
+        }
+
+        TemplateRecognizer tr = new TemplateRecognizer();
+        int templates = tr.addTemplates(training.iterator());
+        System.out.printf("Templates: %d, test strokes: %d (x %d timed passes)\n", templates, test.size(),
+                passes > 1 ? passes - 1 : 1);
+
+        run("Unistroke", new Unistroke(), test, passes);
+        run("TemplateRecognizer", tr, test, passes);
+    }
+
+    // recognize the test set with one engine and print the latency and accuracy
+    private static void run(String name, StrokeRecognizer recognizer, ArrayList<RecordedGesture> test, int passes)
+    {
+        long[] latency = new long[test.size() * Math.max(1, passes - 1)];
+        int count = 0;
+        BatchRecognizer.Result result = null;
+
+        for (int pass = 0; pass < passes; ++pass)
+        {
+            boolean warmUp = pass == 0 && passes > 1;
+            BatchRecognizer.Result r = new BatchRecognizer.Result();
+            for (RecordedGesture g : test)
+            {
+                recognizer.setDictionary(g.dictionary != 0 ? g.dictionary : Unistroke.GRAFFITI);
+                long t0 = System.nanoTime();
+                String recognized = recognizer.recognize(g.xs, g.ys, g.n);
+                long t1 = System.nanoTime();
+                r.add(g.expected, recognized);
+                if (!warmUp)
+                    latency[count++] = t1 - t0;
+            }
+            result = r;
+        }
+
+        Arrays.sort(latency, 0, count);
+        System.out.printf("\n%s\n", name);
+        System.out.printf("Latency (us): p50=%.1f p90=%.1f p99=%.1f max=%.1f\n",
+                GestureReplay.percentile(latency, count, 50), GestureReplay.percentile(latency, count, 90),
+                GestureReplay.percentile(latency, count, 99), latency[count - 1] / 1e3);
+        System.out.printf("Accuracy: %.1f%%\n", 100.0 * result.getAccuracy());
+    }
+}
@@ -0,0 +1,33 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+/**
+ * RecordedGesture - a gesture saved for offline processing, along with the symbol it is expected to produce <p>
+ *
+ * The sample points are held in primitive arrays, ready for <code>Unistroke.recognize(float[], float[], int)</code>.
+ */
+class RecordedGesture
+{
+    String expected; // the symbol the gesture is expected to produce (e.g., "a", "=SW", "#")
+    float[] xs, ys; // sample points
+    int n; // number of sample points
+    int dictionary; // the dictionary active when the gesture was made (0 = unknown)
+    long timeStampFingerDown; // timestamp (ms) for finger down (0 = unknown)
+    long timeStampFingerUp; // timestamp (ms) for finger up (0 = unknown)
+
+    RecordedGesture(String expectedArg, float[] xsArg, float[] ysArg, int nArg)
+    {
+        this(expectedArg, xsArg, ysArg, nArg, 0, 0, 0);
+    }
+
+    RecordedGesture(String expectedArg, float[] xsArg, float[] ysArg, int nArg, int dictionaryArg,
+                    long timeStampFingerDownArg, long timeStampFingerUpArg)
+    {
+        expected = expectedArg;
+        xs = xsArg;
+        ys = ysArg;
+        n = nArg;
+        dictionary = dictionaryArg;
+        timeStampFingerDown = timeStampFingerDownArg;
+        timeStampFingerUp = timeStampFingerUpArg;
+    }
+}
@@ -0,0 +1,89 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+/**
+ * StrokeAccumulator - collects the sample points of a stroke while the stroke is in progress <p>
+ *
+ * The sample points are added one at a time as they arrive (e.g., on each <code>ACTION_MOVE</code>, including the
+ * historical samples batched in the <code>MotionEvent</code>). With each point, the accumulator updates the bounding
+ * box and the path length of the stroke. So, when the finger lifts, the bounding box is already known and the
+ * recognizer (see <code>Unistroke.recognize(StrokeAccumulator)</code>) can compute the remaining stroke features in a
+ * single pass over the points. <p>
+ *
+ * The sample buffers are reused from stroke to stroke, growing (to the next power of two) only when a stroke arrives
+ * that is longer than any previous stroke.
+ */
+class StrokeAccumulator
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    float[] xs, ys; // sample points (only the first n are valid)
+    int n; // number of sample points
+    float xMin, xMax, yMin, yMax; // bounding box
+    float pathLength; // cumulative (Euclidean) length of the stroke, in the units of the sample points
+
+    StrokeAccumulator()
+    {
+        xs = new float[INITIAL_CAPACITY];
+        ys = new float[INITIAL_CAPACITY];
+        reset();
+    }
+
+    /**
+     * Discard the current stroke (e.g., on <code>ACTION_DOWN</code>).
+     */
+    void reset()
+    {
+        n = 0;
+        xMin = Float.MAX_VALUE;
+        xMax = Float.MIN_VALUE; // NOTE: as in Unistroke (sample points are non-negative)
+        yMin = Float.MAX_VALUE;
+        yMax = Float.MIN_VALUE;
+        pathLength = 0f;
+    }
+
+    /**
+     * Add a sample point to the current stroke.
+     */
+    void add(float x, float y)
+    {
+        if (n == xs.length)
+        {
+            float[] newXs = new float[2 * xs.length];
+            float[] newYs = new float[2 * ys.length];
+            System.arraycopy(xs, 0, newXs, 0, n);
+            System.arraycopy(ys, 0, newYs, 0, n);
+            xs = newXs;
+            ys = newYs;
+        }
+
+        if (n > 0)
+        {
+            float dx = x - xs[n - 1];
+            float dy = y - ys[n - 1];
+            pathLength += (float)Math.sqrt(dx * dx + dy * dy);
+        }
+
+        xs[n] = x;
+        ys[n] = y;
+        ++n;
+
+        xMin = Math.min(x, xMin);
+        xMax = Math.max(x, xMax);
+        yMin = Math.min(y, yMin);
+        yMax = Math.max(y, yMax);
+    }
+
+    /**
+     * Add all the sample points in the specified arrays (e.g., a recorded stroke).
+     */
+    void addAll(float[] xArg, float[] yArg, int nArg)
+    {
+        for (int i = 0; i < nArg; ++i)
+            add(xArg[i], yArg[i]);
+    }
+
+    int size()
+    {
+        return n;
+    }
+}
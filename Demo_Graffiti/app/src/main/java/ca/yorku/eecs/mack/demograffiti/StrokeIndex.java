@@ -0,0 +1,148 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.util.ArrayList;
+
+/**
+ * StrokeIndex - a compiled index over the rows of a stroke dictionary (see <code>PackedDictionary</code>) <p>
+ *
+ * The index is keyed on the four quadrant features (<code>quadFirst, quadSecond, quadPenultimate, quadLast</code>).
+ * Each quadrant takes a value 0-3, so there are 4 x 4 x 4 x 4 = 256 keys. A dictionary row containing the "don't care"
+ * value (4) in a quadrant position is expanded when the index is built, and so is filed under every key it can match.
+ * At recognition time, the quadrant features of the stroke select a single bucket, and only the (few) rows in that
+ * bucket are checked against the remaining eight features. <p>
+ *
+ * Of the rows that match, the "best" match is the one whose cumulative distance features (<code>kx, ky</code>) lie
+ * closest to the centre of the row's <code>kxmin-kxmax</code> and <code>kymin-kymax</code> ranges. The distance is
+ * measured in units of half the range, so 0 is dead centre and 1 is on the edge. Ties go to the row appearing first in
+ * the dictionary.
+ */
+class StrokeIndex
+{
+    // this is the "don't care" constant used for recognition of some of the stroke features
+    static final int DONT_CARE = 4;
+
+    private static final int KEYS = 256;
+
+    final PackedDictionary dictionary;
+    private int[][] buckets; // for each key, the dictionary rows (in dictionary order) filed under that key
+
+    StrokeIndex(PackedDictionary dictionaryArg)
+    {
+        dictionary = dictionaryArg;
+
+        // gather the rows for each key (expanding the "don't care" quadrants)
+        ArrayList<ArrayList<Integer>> temp = new ArrayList<ArrayList<Integer>>(KEYS);
+        for (int i = 0; i < KEYS; ++i)
+            temp.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < dictionary.size; ++i)
+        {
+            int quads = dictionary.quads[i];
+            for (int q1 = 0; q1 < 4; ++q1)
+            {
+                if (!quadMatches(q1, PackedDictionary.unpack(quads, 0)))
+                    continue;
+                for (int q2 = 0; q2 < 4; ++q2)
+                {
+                    if (!quadMatches(q2, PackedDictionary.unpack(quads, 1)))
+                        continue;
+                    for (int q3 = 0; q3 < 4; ++q3)
+                    {
+                        if (!quadMatches(q3, PackedDictionary.unpack(quads, 2)))
+                            continue;
+                        for (int q4 = 0; q4 < 4; ++q4)
+                        {
+                            if (quadMatches(q4, PackedDictionary.unpack(quads, 3)))
+                                temp.get(key(q1, q2, q3, q4)).add(i);
+                        }
+                    }
+                }
+            }
+        }
+
+        // compact the buckets into arrays
+        buckets = new int[KEYS][];
+        for (int i = 0; i < KEYS; ++i)
+        {
+            ArrayList<Integer> rows = temp.get(i);
+            buckets[i] = new int[rows.size()];
+            for (int j = 0; j < rows.size(); ++j)
+                buckets[i][j] = rows.get(j);
+        }
+    }
+
+    /**
+     * Find the best match for a stroke with the specified features.
+     *
+     * @param matches if not null, receives the symbols for all the matching rows (in dictionary order)
+     * @return the symbol for the best-matching row, or <code>null</code> if there is no match
+     */
+    String match(int quadFirst, int quadSecond, int quadPenultimate, int quadLast, float kx, float ky, int startx,
+                 int starty, int stopx, int stopy, ArrayList<String> matches)
+    {
+        if (!isQuad(quadFirst) || !isQuad(quadSecond) || !isQuad(quadPenultimate) || !isQuad(quadLast))
+            return null;
+
+        int[] rows = buckets[key(quadFirst, quadSecond, quadPenultimate, quadLast)];
+        double[] ranges = dictionary.ranges;
+        int[] directions = dictionary.directions;
+        String best = null;
+        float bestScore = Float.MAX_VALUE;
+
+        for (int row : rows)
+        {
+            int r = 4 * row;
+            int dir = directions[row];
+            if (kx >= ranges[r] &&
+                    kx <= ranges[r + 1] &&
+                    ky >= ranges[r + 2] &&
+                    ky <= ranges[r + 3] &&
+                    directionMatches(startx, PackedDictionary.unpack(dir, 0)) &&
+                    directionMatches(starty, PackedDictionary.unpack(dir, 1)) &&
+                    directionMatches(stopx, PackedDictionary.unpack(dir, 2)) &&
+                    directionMatches(stopy, PackedDictionary.unpack(dir, 3)))
+            {
+                if (matches != null)
+                    matches.add(dictionary.symbols[row]);
+
+                float score = distanceToRange(kx, ranges[r], ranges[r + 1])
+                        + distanceToRange(ky, ranges[r + 2], ranges[r + 3]);
+                if (score < bestScore) // strictly less, so ties go to the earlier row
+                {
+                    bestScore = score;
+                    best = dictionary.symbols[row];
+                }
+            }
+        }
+        return best;
+    }
+
+    // distance of k from the centre of the range min-max, in units of half the range (0 = centre, 1 = edge)
+    private static float distanceToRange(float k, double min, double max)
+    {
+        double half = (max - min) / 2.0;
+        if (half <= 0.0)
+            return 0f;
+        return (float)(Math.abs(k - (min + half)) / half);
+    }
+
+    private static boolean directionMatches(int direction, int defined)
+    {
+        return defined == DONT_CARE || defined == direction;
+    }
+
+    private static boolean quadMatches(int q, int defined)
+    {
+        return defined == DONT_CARE || defined == q;
+    }
+
+    private static boolean isQuad(int q)
+    {
+        return q >= 0 && q < 4;
+    }
+
+    private static int key(int q1, int q2, int q3, int q4)
+    {
+        return (q1 << 6) | (q2 << 4) | (q3 << 2) | q4;
+    }
+}
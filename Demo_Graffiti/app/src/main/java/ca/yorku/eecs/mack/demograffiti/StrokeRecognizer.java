@@ -0,0 +1,41 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+/**
+ * StrokeRecognizer - the interface for a handwriting recognition engine <p>
+ *
+ * Two engines are provided. <code>Unistroke</code> computes a set of features for each stroke and looks for a match in
+ * a dictionary of feature rules. <code>TemplateRecognizer</code> compares the shape of each stroke against a set of
+ * recorded example strokes (templates). A <code>GraffitiPanel</code> may switch engines at any time (see
+ * <code>GraffitiPanel.setRecognizer</code>). <p>
+ *
+ * Both engines support dictionaries identified by an integer (e.g., <code>Unistroke.GRAFFITI</code> or
+ * <code>Unistroke.DIGITS</code>), so the application's mode shifts (e.g., NUM) work the same way with either engine.
+ */
+interface StrokeRecognizer
+{
+    /**
+     * Set or change the active dictionary (e.g., <code>Unistroke.DIGITS</code>).
+     */
+    void setDictionary(int d);
+
+    /**
+     * Returns the active dictionary.
+     */
+    int getDictionary();
+
+    /**
+     * Recognize a stroke.
+     *
+     * @param xs the <i>x</i> coordinates of the sample points
+     * @param ys the <i>y</i> coordinates of the sample points
+     * @param n  the number of sample points to process (the arrays may be longer)
+     * @return a string representation of the recognized stroke (<code>Unistroke.UNRECOGNIZED_STROKE</code> if the
+     * stroke is not recognized)
+     */
+    String recognize(float[] xs, float[] ys, int n);
+
+    /**
+     * Recognize a stroke collected by a <code>StrokeAccumulator</code>.
+     */
+    String recognize(StrokeAccumulator sa);
+}
@@ -0,0 +1,85 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+/**
+ * StrokeResampler - resample a stroke to a fixed number of equidistant sample points <p>
+ *
+ * A slow or jittery stroke can produce hundreds of sample points. Every pass over the stroke in the recognizer is
+ * linear in the number of sample points, so resampling the stroke to a fixed number of points (e.g., 32-64) caps the
+ * cost of recognition, regardless of the stroke's duration or the digitizer's sampling rate. <p>
+ *
+ * The new sample points are spaced evenly along the path of the stroke. The first and last sample points are kept
+ * exactly. The others fall on the line segments joining the original sample points, so the shape of the stroke is
+ * preserved (a sharp corner between two new sample points is cut slightly).
+ */
+class StrokeResampler
+{
+    /**
+     * Compute the (Euclidean) path length of a stroke.
+     */
+    static float pathLength(float[] xs, float[] ys, int n)
+    {
+        float length = 0f;
+        for (int i = 1; i < n; ++i)
+        {
+            float dx = xs[i] - xs[i - 1];
+            float dy = ys[i] - ys[i - 1];
+            length += (float)Math.sqrt(dx * dx + dy * dy);
+        }
+        return length;
+    }
+
+    /**
+     * Resample a stroke to m equidistant sample points.
+     *
+     * @param xs         the <i>x</i> coordinates of the sample points
+     * @param ys         the <i>y</i> coordinates of the sample points
+     * @param n          the number of sample points (n &ge; 2)
+     * @param pathLength the path length of the stroke (see <code>pathLength</code>)
+     * @param outXs      receives the <i>x</i> coordinates of the new sample points (length &ge; m)
+     * @param outYs      receives the <i>y</i> coordinates of the new sample points (length &ge; m)
+     * @param m          the number of new sample points (m &ge; 2)
+     */
+    static void resample(float[] xs, float[] ys, int n, float pathLength, float[] outXs, float[] outYs, int m)
+    {
+        float interval = pathLength / (m - 1); // the distance between new sample points
+        float distance = 0f; // the distance travelled since the last new sample point
+
+        float qx = xs[0]; // the current position along the path
+        float qy = ys[0];
+        outXs[0] = qx;
+        outYs[0] = qy;
+        int k = 1;
+        int i = 1;
+        while (i < n && k < m - 1)
+        {
+            float dx = xs[i] - qx;
+            float dy = ys[i] - qy;
+            float d = (float)Math.sqrt(dx * dx + dy * dy);
+            if (d > 0f && distance + d >= interval)
+            {
+                // the next new sample point falls on this segment
+                float t = (interval - distance) / d;
+                qx += t * dx;
+                qy += t * dy;
+                outXs[k] = qx;
+                outYs[k] = qy;
+                ++k;
+                distance = 0f;
+            } else
+            {
+                distance += d;
+                qx = xs[i];
+                qy = ys[i];
+                ++i;
+            }
+        }
+
+        // rounding may leave the path a little short of the last new sample point(s)
+        while (k < m)
+        {
+            outXs[k] = xs[n - 1];
+            outYs[k] = ys[n - 1];
+            ++k;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ca.yorku.eecs.mack.demograffiti;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * TemplateRecognizer - a handwriting recognizer that matches strokes against recorded templates <p>
+ *
+ * Where <code>Unistroke</code> uses hand-tuned feature rules, this engine learns from examples. Each template is a
+ * recorded stroke labeled with the symbol it represents. A template, and each stroke to recognize, is converted to a
+ * normalized point cloud: <p>
+ *
+ * <ol> <li>Resample to <code>POINTS</code> equidistant sample points (see <code>StrokeResampler</code>) <li>Translate
+ * so the centroid is at the origin <li>Scale uniformly so the larger side of the bounding box is 1 (the aspect ratio is
+ * kept, so straight lines are not stretched into boxes) </ol> <p>
+ *
+ * The distance between a stroke and a template is the sum of the squared distances between corresponding points. The
+ * closest template wins, provided its mean squared distance per point is below a rejection threshold. Otherwise the
+ * stroke is unrecognized. <p>
+ *
+ * The templates for each dictionary are stored back to back in one contiguous <code>float[]</code> (<i>x</i> and
+ * <i>y</i> interleaved). While comparing a stroke with a template, the running sum is checked against the best sum so
+ * far, and the template is abandoned as soon as it falls behind. Most templates are abandoned after a few points. <p>
+ *
+ * As with <code>Unistroke</code>, dictionaries are identified by an integer (e.g., <code>Unistroke.GRAFFITI</code>),
+ * so templates may be added separately for letters and for digits. Templates are typically loaded from a gesture log
+ * (see <code>addTemplates</code> and <code>GestureLog</code>). <p>
+ *
+ * A <code>TemplateRecognizer</code> is not thread safe.
+ */
+class TemplateRecognizer implements StrokeRecognizer
+{
+    /**
+     * The number of sample points in a normalized point cloud.
+     */
+    static final int POINTS = 32;
+
+    private static final float DEFAULT_REJECT_THRESHOLD = 0.02f; // mean squared distance per point
+
+    private HashMap<Integer, TemplateSet> templateSets; // dictionary -> templates (a plain map, so the class runs on a JVM)
+    private TemplateSet activeSet;
+    private int currentDictionary;
+    private float rejectThreshold;
+
+    // scratch buffers (reused from stroke to stroke)
+    private float[] rx, ry;
+    private float[] cloud;
+
+    TemplateRecognizer()
+    {
+        templateSets = new HashMap<Integer, TemplateSet>();
+        rejectThreshold = DEFAULT_REJECT_THRESHOLD;
+        rx = new float[POINTS];
+        ry = new float[POINTS];
+        cloud = new float[2 * POINTS];
+        setDictionary(Unistroke.GRAFFITI);
+    }
+
+    @Override
+    public void setDictionary(int d)
+    {
+        currentDictionary = d;
+        activeSet = templateSets.get(d);
+    }
+
+    @Override
+    public int getDictionary()
+    {
+        return currentDictionary;
+    }
+
+    /**
+     * Set the rejection threshold: the largest mean squared distance per point (in units of the normalized bounding
+     * box) for a stroke to be recognized as its closest template.
+     */
+    void setRejectThreshold(float rejectThresholdArg)
+    {
+        rejectThreshold = rejectThresholdArg;
+    }
+
+    /**
+     * Add a template to the specified dictionary.
+     *
+     * @return true if the template was added (a stroke with fewer than two distinct sample points is ignored)
+     */
+    boolean addTemplate(int dictionary, String symbol, float[] xs, float[] ys, int n)
+    {
+        if (!normalize(xs, ys, n, StrokeResampler.pathLength(xs, ys, n)))
+            return false;
+
+        TemplateSet ts = templateSets.get(dictionary);
+        if (ts == null)
+        {
+            ts = new TemplateSet();
+            templateSets.put(dictionary, ts);
+            if (dictionary == currentDictionary)
+                activeSet = ts;
+        }
+        ts.add(symbol, cloud);
+        return true;
+    }
+
+    /**
+     * Add templates from a set of recorded gestures (e.g., read with a <code>GestureLog.Reader</code>). Each gesture is
+     * added to the dictionary recorded with it (or GRAFFITI, if none) with its expected symbol as the label.
+     * Unrecognized gestures and taps are skipped.
+     *
+     * @return the number of templates added
+     */
+    int addTemplates(Iterator<RecordedGesture> gestures)
+    {
+        int count = 0;
+        while (gestures.hasNext())
+        {
+            RecordedGesture g = gestures.next();
+            if (g.expected.equals(Unistroke.UNRECOGNIZED_STROKE) || g.expected.equals("=TAP"))
+                continue;
+            if (addTemplate(g.dictionary != 0 ? g.dictionary : Unistroke.GRAFFITI, g.expected, g.xs, g.ys, g.n))
+                ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of templates in the active dictionary.
+     */
+    int getTemplateCount()
+    {
+        return activeSet == null ? 0 : activeSet.count;
+    }
+
+    @Override
+    public String recognize(float[] xs, float[] ys, int n)
+    {
+        return match(normalize(xs, ys, n, StrokeResampler.pathLength(xs, ys, n)));
+    }
+
+    @Override
+    public String recognize(StrokeAccumulator sa)
+    {
+        return match(normalize(sa.xs, sa.ys, sa.n, sa.pathLength));
+    }
+
+    // find the closest template to the point cloud in the scratch buffer
+    private String match(boolean normalized)
+    {
+        if (!normalized || activeSet == null || activeSet.count == 0)
+            return Unistroke.UNRECOGNIZED_STROKE;
+
+        float[] t = activeSet.clouds;
+        float[] c = cloud;
+        int stride = 2 * POINTS;
+        float best = rejectThreshold * POINTS; // a template must beat this to be recognized
+        int bestTemplate = -1;
+
+        for (int i = 0; i < activeSet.count; ++i)
+        {
+            int base = i * stride;
+            float sum = 0f;
+            int j = 0;
+            while (j < stride)
+            {
+                float dx = c[j] - t[base + j];
+                float dy = c[j + 1] - t[base + j + 1];
+                sum += dx * dx + dy * dy;
+                if (sum >= best)
+                    break; // early abandon: this template can no longer win
+                j += 2;
+            }
+            if (j == stride) // not abandoned, so this is the best so far
+            {
+                best = sum;
+                bestTemplate = i;
+            }
+        }
+        return bestTemplate >= 0 ? activeSet.symbols[bestTemplate] : Unistroke.UNRECOGNIZED_STROKE;
+    }
+
+    // resample, translate, and scale a stroke into the scratch point cloud (returns false for a degenerate stroke)
+    private boolean normalize(float[] xs, float[] ys, int n, float pathLength)
+    {
+        if (n < 2 || pathLength <= 0f)
+            return false;
+
+        StrokeResampler.resample(xs, ys, n, pathLength, rx, ry, POINTS);
+
+        float xMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE;
+        float yMin = Float.MAX_VALUE, yMax = -Float.MAX_VALUE;
+        float cx = 0f, cy = 0f;
+        for (int i = 0; i < POINTS; ++i)
+        {
+            xMin = Math.min(rx[i], xMin);
+            xMax = Math.max(rx[i], xMax);
+            yMin = Math.min(ry[i], yMin);
+            yMax = Math.max(ry[i], yMax);
+            cx += rx[i];
+            cy += ry[i];
+        }
+        cx /= POINTS;
+        cy /= POINTS;
+        float scale = Math.max(xMax - xMin, yMax - yMin);
+
+        for (int i = 0; i < POINTS; ++i)
+        {
+            cloud[2 * i] = (rx[i] - cx) / scale;
+            cloud[2 * i + 1] = (ry[i] - cy) / scale;
+        }
+        return true;
+    }
+
+    // the templates for one dictionary
+    private static class TemplateSet
+    {
+        float[] clouds = new float[16 * 2 * POINTS]; // point clouds, back to back
+        String[] symbols = new String[16];
+        int count;
+
+        void add(String symbol, float[] cloud)
+        {
+            if (count == symbols.length)
+            {
+                clouds = Arrays.copyOf(clouds, 2 * clouds.length);
+                symbols = Arrays.copyOf(symbols, 2 * symbols.length);
+            }
+            System.arraycopy(cloud, 0, clouds, count * 2 * POINTS, 2 * POINTS);
+            symbols[count] = symbol;
+            ++count;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package ca.yorku.eecs.mack.demograffiti;
 
 import android.graphics.Point;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 
 /**
@@ -30,6 +33,9 @@ import java.util.ArrayList;
  * between the built-in and customDictionary dictionaries, is performed through the fields and instance methods of the
  * <code>Unistroke</code> class. <p>
  *
+ * A <code>Unistroke</code> object is not thread safe, but there is no mutable static state, so separate
+ * <code>Unistroke</code> objects may be used concurrently on separate threads (see <code>BatchRecognizer</code>). <p>
+ *
  * The <code>Unistroke</code> class includes three built-in dictionaries (<code>GRAFFITI, UNISTROKES, DIGITS</code>) and
  * support for one customDictionary dictionary. <p>
  *
@@ -161,7 +167,7 @@ import java.util.ArrayList;
  * @author (c) Scott MacKenzie, 2001-2018
  */
 
-public class Unistroke
+public class Unistroke implements StrokeRecognizer
 {
     public static final String UNRECOGNIZED_STROKE = "#";
 
@@ -213,11 +219,23 @@ public class Unistroke
      * @see #setDictionary
      */
     public static final int DIGITS = 8;
+
+    /**
+     * A constant identifying the custom stroke dictionary.<p>
+     *
+     * Use as an argument to the <code>setDictionary()</code> method, after loading the dictionary with
+     * <code>loadDictionary()</code> or <code>loadCompiledDictionary()</code>.<p>
+     *
+     * @see #setDictionary
+     * @see #loadDictionary
+     */
+    public static final int CUSTOM = 9;
     private static final int POS = 1;
     private static final int NEG = 0;
 
-    // if the dictionary is used to find a match, this ArrayList holds all the matches
-    public static ArrayList<String> dictionaryMatches;
+    // if the dictionary is used to find a match, this ArrayList holds all the matches (in dictionary order)
+    // NOTE: This is per recognizer (not static), so recognizers on different threads do not interfere
+    public ArrayList<String> dictionaryMatches = new ArrayList<String>();
 
     // =========================================================================================
     // NOTE: The ten stroke features, in order, are...
@@ -236,7 +254,7 @@ public class Unistroke
     // ==========================
     // graffiti stroke dictionary
     // ==========================
-    private static StrokeDef[] graffitiDictionary =
+    private static final StrokeDef[] graffitiDictionary =
             {
                     new StrokeDef("a", 2, 3, 0, 1, 0.9, 1.2, 1.5, 2.0, 4, 1, 4, 0),
                     new StrokeDef("b", 3, 2, 1, 2, 2.3, 4.0, 2.5, 3.5, 4, 0, 0, 4), // "B" starting at the top-left
@@ -290,7 +308,7 @@ public class Unistroke
                     new StrokeDef("z", 3, 0, 2, 1, 2.2, 3.5, 0.9, 2.0, 1, 4, 1, 4)
             };
 
-    private static StrokeDef[] unistrokesDictionary =
+    private static final StrokeDef[] unistrokesDictionary =
             {
                     new StrokeDef("a", 1, 4, 4, 0, 0.0, 0.0, .98, 1.0, 4, 4, 4, 4),
                     new StrokeDef("a", 2, 4, 4, 0, 0.0, 0.0, .98, 1.0, 4, 4, 4, 4),
@@ -336,7 +354,7 @@ public class Unistroke
             };
 
     // digits stroke dictionary
-    private static StrokeDef[] digitsDictionary =
+    private static final StrokeDef[] digitsDictionary =
             {
                     new StrokeDef("0", 3, 2, 1, 0, 1.5, 2.5, 1.5, 2.5, 0, 0, 0, 1),
                     new StrokeDef("0", 3, 2, 0, 3, 1.5, 2.5, 1.5, 2.5, 0, 4, 0, 4),
@@ -418,9 +436,32 @@ public class Unistroke
      */
     public StrokeDef[] activeDictionary;
 
+    // The compiled (packed and indexed) forms of the built-in dictionaries. Each is built the first time its dictionary
+    // is used and then shared by all Unistroke objects. The JVM initializes each holder class lazily and thread-safely.
+    private static class GraffitiIndexHolder
+    {
+        static final StrokeIndex INDEX = new StrokeIndex(new PackedDictionary(graffitiDictionary));
+    }
+
+    private static class UnistrokesIndexHolder
+    {
+        static final StrokeIndex INDEX = new StrokeIndex(new PackedDictionary(unistrokesDictionary));
+    }
+
+    private static class DigitsIndexHolder
+    {
+        static final StrokeIndex INDEX = new StrokeIndex(new PackedDictionary(digitsDictionary));
+    }
+
+    private StrokeIndex activeIndex;
+    private StrokeDef[] indexedDictionary; // the dictionary from which activeIndex was built
+    private StrokeIndex customIndex; // the custom dictionary (null if none loaded)
+    private StrokeDef[] customDictionary;
+    private RecognitionContext context; // scratch buffers, reused from stroke to stroke
     private int currentDictionary;
     private String undefinedStroke;
     private float aspectRatio;
+    private int resampleCount; // 0 = no resampling
 
     /**
      * Construct a Unistroke object.<p>
@@ -436,6 +477,7 @@ public class Unistroke
         aspectRatio = 0.2f;
 
         undefinedStroke = UNRECOGNIZED_STROKE;
+        context = new RecognitionContext();
         setDictionary(GRAFFITI); // set default dictionary to graffiti
     }
 
@@ -453,16 +495,78 @@ public class Unistroke
      *          <ul> <li> <code>Unistroke.GRAFFITI</code> - built-in Graffiti dictionary (default) <li>
      *          <code>Unistroke.UNISTROKES</code> - built-in Unistrokes dictionary <li> <code>Unistroke .DIGITS</code> -
      *          build-in digits dictionary <li> <code>Unistroke.CUSTOM</code> - user-provided custom dictionary </ul>
+     *          <p> <code>Unistroke.CUSTOM</code> is ignored (the active dictionary is unchanged) until a custom
+     *          dictionary has been loaded (see <code>loadDictionary</code>).
      */
+    @Override
     public void setDictionary(int d)
     {
+        if (d == CUSTOM && customIndex == null)
+            return; // no custom dictionary yet, so strokes are still matched against the active one
         currentDictionary = d;
         if (d == GRAFFITI)
+        {
             activeDictionary = graffitiDictionary;      // graffiti stroke dictionary
-        else if (d == UNISTROKES)
+            activeIndex = GraffitiIndexHolder.INDEX;
+        } else if (d == UNISTROKES)
+        {
             activeDictionary = unistrokesDictionary;      // unistrokes stroke dictionary
-        else if (d == DIGITS)
+            activeIndex = UnistrokesIndexHolder.INDEX;
+        } else if (d == DIGITS)
+        {
             activeDictionary = digitsDictionary;      // digits stroke dictionary
+            activeIndex = DigitsIndexHolder.INDEX;
+        } else if (d == CUSTOM)
+        {
+            activeDictionary = customDictionary;      // custom stroke dictionary
+            activeIndex = customIndex;
+        }
+        indexedDictionary = activeDictionary;
+    }
+
+    /**
+     * Load a custom dictionary in the text format (see above). <p>
+     *
+     * The dictionary is parsed and compiled once, here. Thereafter, it is selected (or re-selected) with
+     * <code>setDictionary(Unistroke.CUSTOM)</code> at no cost. If the custom dictionary is already the active
+     * dictionary, the newly loaded dictionary replaces it immediately.
+     *
+     * @param r a reader providing the dictionary (thirteen values per row)
+     * @throws IOException if the dictionary cannot be read or a row is malformed
+     */
+    public void loadDictionary(Reader r) throws IOException
+    {
+        setCustomDictionary(PackedDictionary.parse(r));
+    }
+
+    /**
+     * Load a custom dictionary in the precompiled binary form (see <code>PackedDictionary</code>). <p>
+     *
+     * This is the fastest way to load a large dictionary, since no text is parsed.
+     *
+     * @param in a stream providing the compiled dictionary
+     * @throws IOException if the dictionary cannot be read
+     */
+    public void loadCompiledDictionary(InputStream in) throws IOException
+    {
+        setCustomDictionary(PackedDictionary.read(in));
+    }
+
+    private void setCustomDictionary(PackedDictionary pd)
+    {
+        customIndex = new StrokeIndex(pd);
+        customDictionary = pd.toStrokeDefs();
+        if (currentDictionary == CUSTOM)
+            setDictionary(CUSTOM);
+    }
+
+    /**
+     * Returns the currently active dictionary (e.g., <code>Unistroke.GRAFFITI</code>).
+     */
+    @Override
+    public int getDictionary()
+    {
+        return currentDictionary;
     }
 
     /**
@@ -474,17 +578,16 @@ public class Unistroke
      */
     String recognize(Point p[], int length)
     {
-        // make arrays
-        int[] xx = new int[length];
-        int[] yy = new int[length];
+        // copy into the reusable sample buffers
+        context.ensureRawCapacity(length);
         for (int i = 0; i < length; ++i)
         {
-            xx[i] = p[i].x;
-            yy[i] = p[i].y;
+            context.xs[i] = p[i].x;
+            context.ys[i] = p[i].y;
         }
 
         // do the recognition and return result
-        return toCharacter(xx, yy, length);
+        return recognize(context.xs, context.ys, length);
     }
 
     /**
@@ -492,13 +595,114 @@ public class Unistroke
      */
     String recognize(ArrayList<Point> gesture)
     {
-        return recognize(gesture.toArray(new Point[gesture.size()]), gesture.size());
+        int length = gesture.size();
+        context.ensureRawCapacity(length);
+        for (int i = 0; i < length; ++i) // indexed loop (no Iterator)
+        {
+            Point p = gesture.get(i);
+            context.xs[i] = p.x;
+            context.ys[i] = p.y;
+        }
+        return recognize(context.xs, context.ys, length);
+    }
+
+    /**
+     * Perform handwriting recognition (primitive array version). <p>
+     *
+     * This is the core entry point. The other <code>recognize</code> methods are adapters that copy their sample
+     * points into reusable buffers and call this method. No objects are allocated per stroke: the working arrays are
+     * held in this recognizer's <code>RecognitionContext</code> and the matches are written into the (cleared)
+     * <code>dictionaryMatches</code> list. <p>
+     *
+     * @param xs the <i>x</i> coordinates of the sample points
+     * @param ys the <i>y</i> coordinates of the sample points
+     * @param n  the number of sample points to process (the arrays may be longer)
+     * @return a string representation of the recognized stroke<p>
+     */
+    @Override
+    public String recognize(float[] xs, float[] ys, int n)
+    {
+        if (resampleCount > 0 && n > resampleCount)
+            return recognizeResampled(xs, ys, n, StrokeResampler.pathLength(xs, ys, n));
+
+        // find the bounding box of the sample points
+        float xMin = Float.MAX_VALUE;
+        float xMax = Float.MIN_VALUE;
+        float yMin = Float.MAX_VALUE;
+        float yMax = Float.MIN_VALUE;
+        for (int j = 0; j < n; ++j) // NOTE: the arrays may be longer than n
+        {
+            xMin = Math.min(xs[j], xMin);
+            xMax = Math.max(xs[j], xMax);
+            yMin = Math.min(ys[j], yMin);
+            yMax = Math.max(ys[j], yMax);
+        }
+        return toCharacter(xs, ys, n, xMin, xMax, yMin, yMax);
+    }
+
+    /**
+     * Perform handwriting recognition (<code>StrokeAccumulator</code> version). <p>
+     *
+     * The accumulator has already computed the bounding box of the stroke while the stroke was in progress, so the
+     * work remaining here is a single pass over the sample points.
+     */
+    @Override
+    public String recognize(StrokeAccumulator sa)
+    {
+        if (resampleCount > 0 && sa.n > resampleCount)
+            return recognizeResampled(sa.xs, sa.ys, sa.n, sa.pathLength);
+        return toCharacter(sa.xs, sa.ys, sa.n, sa.xMin, sa.xMax, sa.yMin, sa.yMax);
+    }
+
+    /**
+     * Resample each stroke to a fixed number of equidistant sample points before recognition. <p>
+     *
+     * This caps the cost of recognition for long or slow strokes, or strokes from a digitizer with a high sampling
+     * rate (see <code>StrokeResampler</code>). Strokes with no more than <code>m</code> sample points are not
+     * resampled. Values between 32 and 64 work well. <p>
+     *
+     * Resampling is not exact: it cuts corners, so a stroke that sits near a range boundary may be recognized
+     * differently. On noise-free strokes, about 3-6% of strokes change result at 32-64 points. Use
+     * <code>GestureReplay</code> with a resample count to measure the agreement rate on a recorded log. <p>
+     *
+     * @param m the number of sample points (0 = no resampling, the default)
+     */
+    public void setResampleCount(int m)
+    {
+        resampleCount = m >= 2 ? m : 0;
+        if (resampleCount > 0)
+            context.ensureResampleCapacity(resampleCount);
+    }
+
+    // resample the stroke into the context's buffers, then recognize
+    private String recognizeResampled(float[] xs, float[] ys, int n, float pathLength)
+    {
+        if (pathLength <= 0f) // all sample points at the same location (nothing to resample)
+            return undefinedStroke;
+
+        int m = resampleCount;
+        float[] rx = context.rx;
+        float[] ry = context.ry;
+        StrokeResampler.resample(xs, ys, n, pathLength, rx, ry, m);
+
+        float xMin = Float.MAX_VALUE;
+        float xMax = Float.MIN_VALUE;
+        float yMin = Float.MAX_VALUE;
+        float yMax = Float.MIN_VALUE;
+        for (int j = 0; j < m; ++j)
+        {
+            xMin = Math.min(rx[j], xMin);
+            xMax = Math.max(rx[j], xMax);
+            yMin = Math.min(ry[j], yMin);
+            yMax = Math.max(ry[j], yMax);
+        }
+        return toCharacter(rx, ry, m, xMin, xMax, yMin, yMax);
     }
 
     //========================================================
     // All the work is done here!
     //========================================================
-    private String toCharacter(int[] x, int[] y, int n)
+    private String toCharacter(float[] x, float[] y, int n, float xMin, float xMax, float yMin, float yMax)
     {
         float kx = 0.0f;
         float ky = 0.0f;
@@ -509,61 +713,33 @@ public class Unistroke
         int stopy;
         String stroke = ""; // the result will be put here
 
-        //------------------------------------------------------
-        // 1. Normalize points to fit in a unit bounding box
-        //------------------------------------------------------
+        if (n < 2)
+            return undefinedStroke;
 
-        float[] nx = new float[n];
-        float[] ny = new float[n];
-
-        // find min and max for the x coordinates in the sample point array
-        float xMin = Float.MAX_VALUE;
-        float xMax = Float.MIN_VALUE;
-        for (int xSample : x)
-        {
-            xMin = Math.min(xSample, xMin);
-            xMax = Math.max(xSample, xMax);
-        }
         float xSpread = xMax - xMin;
-
-        // repeat for y coordinates
-        float yMin = Float.MAX_VALUE;
-        float yMax = Float.MIN_VALUE;
-        for (int ySample : y)
-        {
-            yMin = Math.min(ySample, yMin);
-            yMax = Math.max(ySample, yMax);
-        }
         float ySpread = yMax - yMin;
 
-        // Normalize points to fit in a "unit" bounding box
-        for (int j = 0; j < n; ++j)
-        {
-            if ((xMax - xMin) != 0.0)
-                nx[j] = x[j] / xSpread - xMin / xSpread;
-            else
-                nx[j] = 0.5f;
-
-            if ((yMax - yMin) != 0.0)
-                ny[j] = y[j] / ySpread - yMin / ySpread;
-            else
-                ny[j] = 0.5f;
-        }
-
         // ---------------------------------
-        // 2. Look for straight-line strokes
+        // 1. Look for straight-line strokes
         // ---------------------------------
+        // NOTE: This only needs the bounding box and the first and last sample points (normalized to fit in a unit
+        // bounding box, as below)
+
+        float nxFirst = xSpread != 0.0 ? x[0] / xSpread - xMin / xSpread : 0.5f;
+        float nyFirst = ySpread != 0.0 ? y[0] / ySpread - yMin / ySpread : 0.5f;
+        float nxLast = xSpread != 0.0 ? x[n - 1] / xSpread - xMin / xSpread : 0.5f;
+        float nyLast = ySpread != 0.0 ? y[n - 1] / ySpread - yMin / ySpread : 0.5f;
 
         //---------------------------------------------
-        // 2a. Check for vertical or horizontal strokes
+        // 1a. Check for vertical or horizontal strokes
         //---------------------------------------------
-        if (xSpread < aspectRatio * ySpread && ny[0] > ny[n - 1]) // north
+        if (xSpread < aspectRatio * ySpread && nyFirst > nyLast) // north
             stroke = "=N";
-        else if (ySpread < aspectRatio * xSpread && nx[0] < nx[n - 1]) // east
+        else if (ySpread < aspectRatio * xSpread && nxFirst < nxLast) // east
             stroke = "=E";
-        else if (ySpread < aspectRatio * xSpread && nx[0] > nx[n - 1]) // west
+        else if (ySpread < aspectRatio * xSpread && nxFirst > nxLast) // west
             stroke = "=W";
-        else if (xSpread < aspectRatio * ySpread && ny[0] < ny[n - 1]) // south
+        else if (xSpread < aspectRatio * ySpread && nyFirst < nyLast) // south
         {
             if (currentDictionary == GRAFFITI)
                 stroke = "i";
@@ -576,76 +752,84 @@ public class Unistroke
         if (stroke.length() > 0) // we're done, return now (with recognized stroke)
             return stroke;
 
-        // --------------------------------------------
-        // 2b. Check for diagonal straight-line strokes
-        // --------------------------------------------
-        float adjustedAspectRatio = 1.4f * aspectRatio;  // to accommodate the diagonal (it's a trig thing)
+        //------------------------------------------------------------------------
+        // 2. One pass over the sample points to...
+        //    - normalize the points to fit in a unit bounding box
+        //    - check for diagonal straight-line strokes
+        //    - calculate the cumulative length of the stroke along x and y axes
+        //    - determine the 1st, 2nd, 2nd last, & last quadrants
+        //------------------------------------------------------------------------
+        // where...           -------
+        // 0 = upper-right   | 3 | 0 |
+        // 1 = lower-right   |-------|
+        // 2 = lower-left    | 2 | 1 |
+        // 3 = upper-left     -------
+        //
+        context.ensureCapacity(n);
+        float[] nx = context.nx;
+        float[] ny = context.ny;
+        float[] nz = context.nz; // cumulative distance along the stroke, up to each sample point
 
+        float adjustedAspectRatio = 1.4f * aspectRatio;  // to accommodate the diagonal (it's a trig thing)
         boolean equalDiagonal = true;    // x and y both increasing or both decreasing along array
         boolean oppositeDiagonal = true; // x and y moving in opposite directions along stroke
-        for (int i = 0; i < n; ++i)
+
+        int quadFirst = -1;
+        int quadSecond = -1;
+        int quadPenultimate = -1;
+        int quadLast = -1; // quadrant of the current run of sample points (the last run, at the end of the loop)
+
+        for (int j = 0; j < n; ++j)
         {
-            if (nx[i] < ny[i] - adjustedAspectRatio || nx[i] > ny[i] + adjustedAspectRatio)
+            nx[j] = xSpread != 0.0 ? x[j] / xSpread - xMin / xSpread : 0.5f;
+            ny[j] = ySpread != 0.0 ? y[j] / ySpread - yMin / ySpread : 0.5f;
+
+            if (nx[j] < ny[j] - adjustedAspectRatio || nx[j] > ny[j] + adjustedAspectRatio)
                 equalDiagonal = false;
-            if (1 - nx[i] < ny[i] - adjustedAspectRatio || 1 - nx[i] > ny[i] + adjustedAspectRatio)
+            if (1 - nx[j] < ny[j] - adjustedAspectRatio || 1 - nx[j] > ny[j] + adjustedAspectRatio)
                 oppositeDiagonal = false;
-            if (!equalDiagonal && !oppositeDiagonal)
-                break; // no need to check any further
+
+            if (j > 0)
+            {
+                kx += Math.abs(nx[j] - nx[j - 1]);
+                ky += Math.abs(ny[j] - ny[j - 1]);
+                kz += (float)Math.sqrt((nx[j] - nx[j - 1]) * (nx[j] - nx[j - 1])
+                        + (ny[j] - ny[j - 1]) * (ny[j] - ny[j - 1]));
+            }
+            nz[j] = kz;
+
+            int quad = findQuad(nx[j], ny[j]);
+            if (j == 0)
+                quadFirst = quad;
+            else if (quad != quadLast) // the stroke moved into a new quadrant
+            {
+                if (quadSecond == -1)
+                    quadSecond = quad;
+                quadPenultimate = quadLast;
+            }
+            quadLast = quad;
         }
 
-        if (equalDiagonal && nx[0] < nx[n - 1])  // x is decreasing
+        // ------------------------------------------
+        // 3. Check for diagonal straight-line strokes
+        // ------------------------------------------
+        if (equalDiagonal && nxFirst < nxLast)  // x is decreasing
             stroke = "=SE";
-        else if (oppositeDiagonal && nx[0] < nx[n - 1]) // x is increasing
+        else if (oppositeDiagonal && nxFirst < nxLast) // x is increasing
             stroke = "=NE";
-        else if (oppositeDiagonal && nx[0] > nx[n - 1]) // x is decreasing
+        else if (oppositeDiagonal && nxFirst > nxLast) // x is decreasing
             stroke = "=SW";
-        else if (equalDiagonal && nx[0] > nx[n - 1]) // x is increasing
+        else if (equalDiagonal && nxFirst > nxLast) // x is increasing
             stroke = "=NW";
 
         if (stroke.length() > 0) // we're done, return now (with recognized stroke)
             return stroke;
 
-        // ------------------------------
-        // 3. Compute ten stroke features
-        // ------------------------------
-
-        //-------------------------------------------------------------
-        // 3a. Calculate cumulative length of stroke along x and y axes
-        //-------------------------------------------------------------
-        for (int j = 1; j < n; ++j)
-        {
-            kx += Math.abs(nx[j] - nx[j - 1]);
-            ky += Math.abs(ny[j] - ny[j - 1]);
-            kz += (float)Math.sqrt((nx[j] - nx[j - 1]) * (nx[j] - nx[j - 1])
-                    + (ny[j] - ny[j - 1]) * (ny[j] - ny[j - 1]));
-        }
-
-        //---------------------------------------------------
-        // 3b. Determine 1st, 2nd, 2nd last, & last quadrants
-        //---------------------------------------------------
-        // where...           -------
-        // 0 = upper-right   | 3 | 0 |
-        // 1 = lower-right   |-------|
-        // 2 = lower-left    | 2 | 1 |
-        // 3 = upper-left     -------
-        //
-        int quadFirst = findQuad(nx[0], ny[0]);
-        int quadLast = findQuad(nx[n - 1], ny[n - 1]);
-
-        int quadSecond;
-        int j = 0;
-        while (j < n && findQuad(nx[j], ny[j]) == quadFirst)
-            ++j;
-        quadSecond = findQuad(nx[j], ny[j]);
-
-        int quadPenultimate;
-        j = n - 1;
-        while (j >= 0 && findQuad(nx[j], ny[j]) == quadLast)
-            --j;
-        quadPenultimate = findQuad(nx[j], ny[j]);
+        if (quadSecond == -1) // the stroke never left its first quadrant
+            return undefinedStroke;
 
         //-----------------------------------------------------------
-        // 3c. Determine starting and terminating direction of stroke
+        // 4. Determine starting and terminating direction of stroke
         //-----------------------------------------------------------
         // Note: Starting direction is based on a comparison between the first sample point and the sample
         // point corresponding to approximately 10% of the cumulative distance along the stroke.
@@ -653,19 +837,11 @@ public class Unistroke
         // point corresponding to about 90% of the cumulative distance along the stroke.
         // E.g., if startx = 1, movement is to the right
         //       if starty = 1, movement is down
+        //
+        // Since the cumulative distances are non-decreasing, these sample points are found by binary search.
 
-        int idxNearStart = -1;
-        int idxNearEnd = -1;
-        float zTemp = 0; // cumulative distance along the stroke
-        for (j = 1; j < n; ++j)
-        {
-            zTemp += (float)Math.sqrt((nx[j] - nx[j - 1]) * (nx[j] - nx[j - 1]) + (ny[j] - ny[j - 1]) * (ny[j] - ny[j
-                    - 1]));
-            if (idxNearStart == -1 && zTemp >= (kz * 0.10))
-                idxNearStart = j;
-            if (idxNearEnd == -1 && zTemp >= (kz * 0.90))
-                idxNearEnd = j;
-        }
+        int idxNearStart = firstAtOrBeyond(nz, n, kz * 0.10);
+        int idxNearEnd = firstAtOrBeyond(nz, n, kz * 0.90);
 
         startx = nx[idxNearStart] - nx[0] > 0 ? POS : NEG; // POS = right, NEG = left
         starty = ny[idxNearStart] - ny[0] < 0 ? POS : NEG; // POS = down, NEG = up
@@ -673,42 +849,41 @@ public class Unistroke
         stopy = ny[n - 1] - ny[idxNearEnd] < 0 ? POS : NEG;
 
         //-------------------------------------------------------------
-        // 4. Use stroke features to look for a match in the dictionary
+        // 5. Use stroke features to look for a match in the dictionary
         //-------------------------------------------------------------
-        StrokeDef[] d = activeDictionary; // just make a copy for convenience
-        dictionaryMatches = new ArrayList<String>(); // store all the matches here
-
-        // NOTE: This routine finds the "first match" rather than the "best match".  Finding the best match makes
-        // more sense, so this is something for the "to do" list.
-
-        // this is the "don't care" constant used for recognition of some of the stroke features
-        final int DONT_CARE = 4;
-
-        for (j = 0; j < d.length; j++)
+        // NOTE: The index holds, for each combination of the four quadrant features, the (few) dictionary entries
+        // that can match. Of these, the "best" match is returned (see StrokeIndex).
+        if (indexedDictionary != activeDictionary) // activeDictionary is public, so it may have been replaced
         {
-            if ((quadFirst == d[j].getDEFquadf() || d[j].getDEFquadf() == DONT_CARE) &&
-                    (quadSecond == d[j].getDEFquads() || d[j].getDEFquads() == DONT_CARE) &&
-                    (quadPenultimate == d[j].getDEFquadsl() || d[j].getDEFquadsl() == DONT_CARE) &&
-                    (quadLast == d[j].getDEFquadl() || d[j].getDEFquadl() == DONT_CARE) &&
-                    kx >= d[j].getDEFkxmin() &&
-                    kx <= d[j].getDEFkxmax() &&
-                    ky >= d[j].getDEFkymin() &&
-                    ky <= d[j].getDEFkymax() &&
-                    (startx == d[j].getDEFstartX() || d[j].getDEFstartX() == DONT_CARE) &&
-                    (starty == d[j].getDEFstartY() || d[j].getDEFstartY() == DONT_CARE) &&
-                    (stopx == d[j].getDEFstopX() || d[j].getDEFstopX() == DONT_CARE) &&
-                    (stopy == d[j].getDEFstopY() || d[j].getDEFstopY() == DONT_CARE))
-            {
-                dictionaryMatches.add(d[j].getDEFsymbol());
-            }
+            activeIndex = new StrokeIndex(new PackedDictionary(activeDictionary));
+            indexedDictionary = activeDictionary;
         }
 
-        // Take the first match (TO DO: find the "best" match)
-        stroke = dictionaryMatches.size() > 0 ? dictionaryMatches.get(0) : undefinedStroke;
+        dictionaryMatches.clear(); // store all the matches here (the list is reused)
+        String bestMatch = activeIndex.match(quadFirst, quadSecond, quadPenultimate, quadLast, kx, ky, startx, starty,
+                stopx, stopy, dictionaryMatches);
+
+        stroke = bestMatch != null ? bestMatch : undefinedStroke;
 
         return stroke; // done!
     }
 
+    // the index of the first sample point (from 1 to n - 1) at or beyond the specified cumulative distance
+    private static int firstAtOrBeyond(float[] nz, int n, double distance)
+    {
+        int lo = 1;
+        int hi = n - 1;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (nz[mid] >= distance)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
     private int findQuad(float x, float y)
     {
         if (x >= 0.5 && y <= 0.5) return 0; // upper right
@@ -717,4 +892,4 @@ public class Unistroke
         if (x < 0.5 && y <= 0.5) return 3; // upper left
         return -1; // should never get here!
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -18,7 +18,7 @@ import java.util.ArrayList;
 public class DirectoryAdapter extends BaseAdapter
 {
     private final ArrayList<DirectoryInfo> directoryInfo;
-    private final ImageDownloader imageDownloader = new ImageDownloader();
+    private final ImageDownloader imageDownloader = new ImageDownloader(true); // (thumbnails; see ThumbnailStore)
     private int columnWidth;
     private final Context context;
 
@@ -96,6 +96,9 @@ public class DirectoryContentsActivity extends Activity implements AdapterView.O
 
         // attach a click listener to the GridView (to respond to finger taps)
         gridView.setOnItemClickListener(this);
+
+        // load the images just beyond the screen as the grid scrolls (see ScrollPrefetcher)
+        gridView.setOnScrollListener(new ScrollPrefetcher(imageAdapter));
     }
 
 	/*
@@ -9,11 +9,13 @@ import android.widget.ImageView;
 
 import java.io.File;
 
-public class ImageAdapter extends BaseAdapter
+public class ImageAdapter extends BaseAdapter implements ScrollPrefetcher.Target
 {
+    private final static int THUMBNAIL_WIDTH = 250; // (the image is down sampled to this width)
+
     String[] filenames;
     File directory;
-    ImageDownloader imageDownloader = new ImageDownloader();
+    ImageDownloader imageDownloader = new ImageDownloader(true); // (thumbnails; see ThumbnailStore)
     int columnWidth;
 
     private final Context context;
@@ -55,10 +57,21 @@ public class ImageAdapter extends BaseAdapter
 
         // download the image and associate it with the ImageView
         String path = directory + File.separator + filenames[position];
-        imageDownloader.download(path, imageView, 250);
+        imageDownloader.download(path, imageView, THUMBNAIL_WIDTH);
         return imageView;
     }
 
+    // load the image for a position that is about to scroll into view (see ScrollPrefetcher)
+    public void prefetch(int position)
+    {
+        imageDownloader.prefetch(directory + File.separator + filenames[position], THUMBNAIL_WIDTH);
+    }
+
+    public void cancelPrefetches()
+    {
+        imageDownloader.cancelPrefetches();
+    }
+
     // give the ImageAdapter the filenames array and the directory
     public void setFilenames(String[] filenamesArg, File directoryArg)
     {
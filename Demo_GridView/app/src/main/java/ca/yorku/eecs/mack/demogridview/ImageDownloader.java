@@ -1,30 +1,60 @@
 package ca.yorku.eecs.mack.demogridview;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.os.Handler;
+import android.media.ExifInterface;
 import android.util.Log;
 import android.widget.ImageView;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.lang.ref.SoftReference;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
 
 /**
  * This helper class downloads images and binds them with the provided ImageView.
  * <p>
- * A local cache of downloaded images is maintained internally to improve performance.
+ * A local cache of downloaded images is maintained internally to improve performance. A request for an image that
+ * is already being downloaded (e.g., for another view) joins that download, rather than decoding the image again.
+ * <p>
+ * The images are loaded on the threads of the ImageLoader, newest request first.
+ * <p>
+ * A downloader for thumbnails (see ImageDownloader(boolean)) also keeps its images in the thumbnail store (see
+ * ThumbnailStore), so an image is decoded from its original file only the first time it is shown (or after the file
+ * changes). A thumbnail embedded in the file (in its EXIF data) is used instead, if it is at least
+ * MIN_EXIF_THUMBNAIL_FRACTION of the width. Otherwise the image is decoded (down sampled), scaled to the width, and
+ * compressed (JPEG_QUALITY) for the store.
  */
 public class ImageDownloader 
 {		
+    static final float MIN_EXIF_THUMBNAIL_FRACTION = 0.5f; // of the width, for the embedded thumbnail to be used
+    static final int JPEG_QUALITY = 85; // for the thumbnails in the store
+
+    private final boolean thumbnails; // true if the images are kept in the thumbnail store
+    private Context context; // (the application context, for the thumbnail store)
+
+    public ImageDownloader()
+    {
+        this(false);
+    }
+
+    /**
+     * A downloader that keeps its images in the thumbnail store (if thumbnailsArg is true), for the cells of a grid,
+     * or not, for full-size images.
+     */
+    ImageDownloader(boolean thumbnailsArg)
+    {
+        thumbnails = thumbnailsArg;
+    }
+
     /**
      * Download the specified image from the path (directory + filename) and binds it to the provided ImageView. The
      * binding is immediate if the image is found in the cache and will be done asynchronously
@@ -39,8 +69,13 @@ public class ImageDownloader
     	String path = pathArg;
     	int width = widthArg;
     	
-        resetPurgeTimer();
-        Bitmap bitmap = getBitmapFromCache(path);
+        if (memoryCache == null)
+        {
+            memoryCache = BitmapMemoryCache.getInstance(imageView.getContext());
+            context = imageView.getContext().getApplicationContext();
+        }
+        memoryCache.resetPurgeTimer();
+        Bitmap bitmap = getBitmapFromCache(inFlightKey(path, width));
 
         if (bitmap == null) 
         {
@@ -66,16 +101,58 @@ public class ImageDownloader
 
         if (cancelPotentialDownload(path, imageView)) 
         {
-            BitmapDownloaderTask task = new BitmapDownloaderTask(imageView, width);
+            // join the download in progress for this image and width, if any
+            String key = inFlightKey(path, width);
+            BitmapDownloaderTask task = inFlight.get(key);
+            if (task != null && task.isPrefetch() && !task.isStarted())
+            {
+                // (a prefetch that has not started is behind all the other downloads, so start afresh)
+                task.cancelPrefetch();
+                task = null;
+            }
+            boolean joined = task != null;
+            if (joined)
+                task.addImageView(imageView);
+            else
+            {
+                task = new BitmapDownloaderTask(imageView, path, width);
+                inFlight.put(key, task);
+            }
             DownloadedDrawable downloadedDrawable = new DownloadedDrawable(task);
             imageView.setImageDrawable(downloadedDrawable);
-            task.execute(path);
+            if (!joined)
+                ImageLoader.getInstance().submit(task);
         }
     }
 
     /**
-     * Returns true if the current download has been canceled or if there was no download in
-     * progress on this image view.
+     * Load the specified image into the cache ahead of need, behind all the other downloads (see ScrollPrefetcher).
+     * Nothing is done if the image is in the cache or is already being downloaded.
+     */
+    void prefetch(String path, int width)
+    {
+        String key = inFlightKey(path, width);
+        if (path == null || memoryCache == null || memoryCache.contains(key) || inFlight.containsKey(key))
+            return;
+        BitmapDownloaderTask task = new BitmapDownloaderTask(null, path, width);
+        inFlight.put(key, task);
+        prefetches.add(task);
+        ImageLoader.getInstance().prefetch(task);
+    }
+
+    /**
+     * Cancel the prefetches that no view has joined (e.g., when a fling ends).
+     */
+    void cancelPrefetches()
+    {
+        for (BitmapDownloaderTask task : prefetches)
+            task.detach(null); // (cancels the task, unless a view is waiting for it)
+        prefetches.clear();
+    }
+
+    /**
+     * Returns true if the current download has been canceled (or the image view has been detached from it, if other
+     * views are waiting for the same image) or if there was no download in progress on this image view.
      * Returns false if the download in progress deals with the same url. The download is not
      * stopped in that case.
      */
@@ -88,7 +165,7 @@ public class ImageDownloader
             String bitmapPath = bitmapDownloaderTask.path;
             if ((bitmapPath == null) || (!bitmapPath.equals(pathArg))) 
             {
-                bitmapDownloaderTask.cancel(true);
+                bitmapDownloaderTask.detach(imageView);
             } else 
             {
                 // The same URL is already being downloaded.
@@ -117,34 +194,119 @@ public class ImageDownloader
         return null;
     }
 
+    // the key of a download in inFlight and of its bitmap in the cache (the same file decoded for a different width is
+    // a different image)
+    private static String inFlightKey(String path, int width)
+    {
+        return width + ":" + path;
+    }
+
     /**
-     * The actual AsyncTask that will asynchronously download the image.
+     * What the read stage found for the decode stage: the bytes of a thumbnail (from the thumbnail store, or embedded
+     * in the file), or else the options with which to decode the file.
      */
-    class BitmapDownloaderTask extends AsyncTask<String, Void, Bitmap> 
+    static class Source
     {
-        private String path;
-        private final WeakReference<ImageView> imageViewReference;
+        final byte[] thumbnail;
+        final BitmapFactory.Options options;
+
+        Source(byte[] thumbnailArg, BitmapFactory.Options optionsArg)
+        {
+            thumbnail = thumbnailArg;
+            options = optionsArg;
+        }
+    }
+
+    /**
+     * The actual request that will asynchronously download the image (see ImageLoader). For a thumbnail, the
+     * thumbnail store is tried first. Otherwise the image size is read, to choose the scale, and then the image is
+     * decoded at that scale.
+     * <p>
+     * The task binds the image to every view that is still waiting for it (see forceDownload).
+     */
+    class BitmapDownloaderTask extends ImageLoader.Request<Source> 
+    {
+        private final String path;
+        private final ArrayList<WeakReference<ImageView>> imageViewReferences;
         
         private final int viewWidth;
+        private long lastModified; // of the file, when it was read (the thumbnail is stored with it)
 
-        public BitmapDownloaderTask(ImageView imageView, int displayWidthArg) 
+        public BitmapDownloaderTask(ImageView imageView, String pathArg, int displayWidthArg) 
         {
-            imageViewReference = new WeakReference<ImageView>(imageView);
+            imageViewReferences = new ArrayList<WeakReference<ImageView>>();
+            if (imageView != null) // (null for a prefetch)
+                imageViewReferences.add(new WeakReference<ImageView>(imageView));
+            path = pathArg;
             viewWidth = displayWidthArg;
         }
 
+        void addImageView(ImageView imageView)
+        {
+            imageViewReferences.add(new WeakReference<ImageView>(imageView));
+        }
+
         /**
-         * Actual download method.  Image is scaled to fit available view width.
+         * The image view is being bound to another image. Cancel the download, unless another view is still waiting
+         * for it.
          */
-        @Override
-        protected Bitmap doInBackground(String... params) 
+        void detach(ImageView imageView)
+        {
+            boolean waiting = false;
+            Iterator<WeakReference<ImageView>> it = imageViewReferences.iterator();
+            while (it.hasNext())
+            {
+                ImageView v = it.next().get();
+                if (v == null || v == imageView || getBitmapDownloaderTask(v) != this)
+                    it.remove();
+                else
+                    waiting = true;
+            }
+            if (!waiting)
+            {
+                cancel();
+                removeFromInFlight();
+            }
+        }
+
+        private void removeFromInFlight()
         {
-            path = params[0];           
-            return decodeFile(new File(path));
+            String key = inFlightKey(path, viewWidth);
+            if (inFlight.get(key) == this)
+                inFlight.remove(key);
         }
-        
-        private Bitmap decodeFile(File f)
+
+        // cancel a prefetch that has not started, and drop it from the prefetches of the downloader that made it (not
+        // necessarily this one, since inFlight is shared by all the downloaders)
+        void cancelPrefetch()
         {
+            cancel();
+            prefetches.remove(this); // (the owner's list)
+        }
+
+        /**
+         * Read the thumbnail from the thumbnail store or the file, if there is one. Otherwise, read the image size and
+         * choose the scale, so the image fits the available view width. Returns the source for decode (or null if
+         * the file can't be read).
+         */
+        @Override
+        Source read()
+        {
+            lastModified = new File(path).lastModified();
+            ThumbnailStore store = thumbnails ? ThumbnailStore.getInstance(context) : null;
+            if (store != null)
+            {
+                byte[] thumbnail = store.get(path, viewWidth, lastModified);
+                if (thumbnail == null)
+                {
+                    thumbnail = readExifThumbnail(path, viewWidth);
+                    if (thumbnail != null)
+                        store.put(path, viewWidth, lastModified, thumbnail);
+                }
+                if (thumbnail != null)
+                    return new Source(thumbnail, null);
+            }
+
         	// scaling method adapted from...
         	// http://stackoverflow.com/questions/8132296/handle-resolution-of-different-size-images-in-listview
         	// See as well...
@@ -154,7 +316,7 @@ public class ImageDownloader
                 // decode image size (without allocating memory to store the bitmap)
                 BitmapFactory.Options o = new BitmapFactory.Options();
                 o.inJustDecodeBounds = true;
-                BitmapFactory.decodeStream(new FileInputStream(f), null, o);
+                decodeFile(path, o);
                 
                 // determine scale value so image will fit in available display width
                 int scale = 1;
@@ -167,11 +329,10 @@ public class ImageDownloader
                     scale *= 2;
                 }                
                
-                // decode image, scaled to fit display width (allocates memory to store the bitmap)
                 BitmapFactory.Options o2 = new BitmapFactory.Options();
                 //o2.inSampleSize = scale;
                 o2.inSampleSize = scale / 2; // a bit better quality (for zooming in)
-                return BitmapFactory.decodeStream(new FileInputStream(f), null, o2);
+                return new Source(null, o2);
             } catch (FileNotFoundException e) 
             {
             	Log.i("MYDEBUG", "FileNotFoundException: e=" + e.toString());
@@ -180,19 +341,48 @@ public class ImageDownloader
         }
 
         /**
-         * Once the image is downloaded, associate it to the imageView
+         * Decode image, scaled to fit display width (allocates memory to store the bitmap). A thumbnail made from the
+         * file is added to the thumbnail store.
          */
         @Override
-        protected void onPostExecute(Bitmap bitmap) 
+        Bitmap decode(Source source)
         {
-            if (isCancelled()) 
+            if (source.thumbnail != null)
+                return BitmapFactory.decodeByteArray(source.thumbnail, 0, source.thumbnail.length);
+            Bitmap bitmap = null;
+            try 
+            {
+                bitmap = decodeFile(path, source.options);
+            } catch (FileNotFoundException e) 
+            {
+            	Log.i("MYDEBUG", "FileNotFoundException: e=" + e.toString());
+            }
+
+            ThumbnailStore store = thumbnails && bitmap != null ? ThumbnailStore.getInstance(context) : null;
+            if (store != null)
             {
-                bitmap = null;
+                // keep the thumbnail (at the view width) for next time
+                if (bitmap.getWidth() > viewWidth)
+                    bitmap = Bitmap.createScaledBitmap(bitmap, viewWidth, Math.max(1, bitmap.getHeight() * viewWidth
+                            / bitmap.getWidth()), true);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out))
+                    store.put(path, viewWidth, lastModified, out.toByteArray());
             }
+            return bitmap;
+        }
 
-            addBitmapToCache(path, bitmap);
+        /**
+         * Once the image is downloaded, associate it to the imageViews
+         */
+        @Override
+        void onLoaded(Bitmap bitmap) 
+        {
+            removeFromInFlight();
+            prefetches.remove(this);
+            addBitmapToCache(inFlightKey(path, viewWidth), bitmap);
 
-            if (imageViewReference != null) 
+            for (WeakReference<ImageView> imageViewReference : imageViewReferences)
             {
                 ImageView imageView = imageViewReference.get();
                 BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
@@ -206,6 +396,46 @@ public class ImageDownloader
         }
     }
 
+    // the thumbnail embedded in the EXIF data of a JPEG, if there is one at least MIN_EXIF_THUMBNAIL_FRACTION of the
+    // width (null if not)
+    private static byte[] readExifThumbnail(String path, int width)
+    {
+        byte[] thumbnail;
+        try
+        {
+            ExifInterface exif = new ExifInterface(path);
+            thumbnail = exif.hasThumbnail() ? exif.getThumbnail() : null;
+        } catch (IOException e)
+        {
+            return null; // (not a JPEG, or no EXIF data)
+        }
+        if (thumbnail == null)
+            return null;
+        BitmapFactory.Options o = new BitmapFactory.Options();
+        o.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, o);
+        return o.outWidth >= width * MIN_EXIF_THUMBNAIL_FRACTION ? thumbnail : null;
+    }
+
+    // decode a file with the given options, closing the file afterward
+    private static Bitmap decodeFile(String path, BitmapFactory.Options o) throws FileNotFoundException
+    {
+        FileInputStream in = new FileInputStream(path);
+        try
+        {
+            return BitmapFactory.decodeStream(in, null, o);
+        } finally
+        {
+            try
+            {
+                in.close();
+            } catch (IOException e)
+            {
+                Log.i("MYDEBUG", "Can't close the image file, e=" + e);
+            }
+        }
+    }
+
     /**
      * A fake Drawable that will be attached to the imageView while the download is in progress.
      *
@@ -232,107 +462,41 @@ public class ImageDownloader
     /*
      * Cache-related fields and methods.
      *
-     * We use a hard and a soft cache. A soft reference cache is too aggressively cleared by the
-     * Garbage Collector.
+     * The bitmaps are kept in a memory cache with a budget in bytes (see BitmapMemoryCache). The
+     * cache is shared by all the downloaders in the process, and it is purged after a period in
+     * which none of them has used it (see BitmapMemoryCache).
      */
    
-    private static final int HARD_CACHE_CAPACITY = 10;
-    private static final int DELAY_BEFORE_PURGE = 10 * 1000; // in milliseconds
+    // the memory cache (one per process, with a budget in bytes; see BitmapMemoryCache)
+    private BitmapMemoryCache memoryCache;
 
-    // Hard cache, with a fixed maximum capacity and a life duration
-    private final HashMap<String, Bitmap> sHardBitmapCache = new LinkedHashMap<String, Bitmap>(HARD_CACHE_CAPACITY / 2, 0.75f, true) 
-    {        
-		private static final long serialVersionUID = 1L; // fix compiler warning
+    // the downloads in progress, by path and width, in all the downloaders in the process (UI thread only)
+    private static final HashMap<String, BitmapDownloaderTask> inFlight = new HashMap<String, BitmapDownloaderTask>();
 
-		@Override
-        protected boolean removeEldestEntry(LinkedHashMap.Entry<String, Bitmap> eldest) 
-        {
-            if (size() > HARD_CACHE_CAPACITY) 
-            {
-                // Entries push-out of hard reference cache are transferred to soft reference cache
-                sSoftBitmapCache.put(eldest.getKey(), new SoftReference<Bitmap>(eldest.getValue()));
-                return true;
-            } else
-                return false;
-        }
-    };
+    // the prefetches made by this downloader that have not finished (UI thread only)
+    private final ArrayList<BitmapDownloaderTask> prefetches = new ArrayList<BitmapDownloaderTask>();
 
-    // Soft cache for bitmaps kicked out of hard cache
-    private final static ConcurrentHashMap<String, SoftReference<Bitmap>> sSoftBitmapCache =
-        new ConcurrentHashMap<String, SoftReference<Bitmap>>(HARD_CACHE_CAPACITY / 2);
-
-    private final Handler purgeHandler = new Handler();
-
-    private final Runnable purger = new Runnable() 
+    //Add the passed bitmap to the cache (the key is the path and width; see inFlightKey).
+    private void addBitmapToCache(String key, Bitmap bitmap) 
     {
-        public void run() 
-        {
-            clearCache();
-        }
-    };
-
-    //Add the passed bitmap to the cache.
-    private void addBitmapToCache(String path, Bitmap bitmap) 
-    {
-        if (bitmap != null) 
-        {
-            synchronized (sHardBitmapCache) 
-            {
-                sHardBitmapCache.put(path, bitmap);
-            }
-        }
+        if (bitmap != null)
+            memoryCache.put(key, bitmap);
     }
 
-    // return the bitmap from the cache specified by the passed path
-    private Bitmap getBitmapFromCache(String path) 
+    // return the bitmap from the cache specified by the passed key
+    private Bitmap getBitmapFromCache(String key) 
     {
-        // First try the hard reference cache
-        synchronized (sHardBitmapCache) 
-        {
-            final Bitmap bitmap = sHardBitmapCache.get(path);
-            if (bitmap != null) 
-            {
-                // Bitmap found in hard cache
-                // Move element to first position, so that it is removed last
-                sHardBitmapCache.remove(path);
-                sHardBitmapCache.put(path, bitmap);
-                return bitmap;
-            }
-        }
-
-        // Then try the soft reference cache
-        SoftReference<Bitmap> bitmapReference = sSoftBitmapCache.get(path);
-        if (bitmapReference != null) 
-        {
-            final Bitmap bitmap = bitmapReference.get();
-            if (bitmap != null) 
-            {
-                // Bitmap found in soft cache
-                return bitmap;
-            } else 
-            {
-                // Soft reference has been Garbage Collected
-                sSoftBitmapCache.remove(path);
-            }
-        }
-        return null;
+        return memoryCache.get(key);
     }
  
     /*
-     Clear the image cache that is used internally to improve performance. Note that for memory
-     * efficiency reasons, the cache is automatically cleared after a certain inactivity delay.
+     Clear the image cache that is used internally to improve performance. Note that the cache is
+     * shared by all the downloaders in the process, and that it is cleared automatically after a
+     * certain inactivity delay (see BitmapMemoryCache).
      */
     public void clearCache() 
     {
-        sHardBitmapCache.clear();
-        sSoftBitmapCache.clear();
-    }
-
-
-    // Allow a new delay before the automatic cache clear is done.
-    private void resetPurgeTimer() 
-    {
-        purgeHandler.removeCallbacks(purger);
-        purgeHandler.postDelayed(purger, DELAY_BEFORE_PURGE);
+        if (memoryCache != null)
+            memoryCache.clear();
     }
 }
@@ -0,0 +1,448 @@
+package ca.yorku.eecs.mack.demogridview;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A store of thumbnails (small JPEGs) on disk, so an image is decoded from its original file once, rather than each
+ * time its cell is shown (or the app is started).
+ * <p>
+ * The thumbnails are kept in one file in the app's cache directory, after a header (magic, version), one record after
+ * another:
+ *
+ * <pre>
+ *     magic (int), key length (short), data length (int), CRC32 of the data (int), key (UTF-8), data (a JPEG)
+ * </pre>
+ *
+ * The key is the path of the original image, the width of the thumbnail, and the time the original was last modified
+ * (see keyOf), so an image that has changed misses, and its new thumbnail supersedes the old one. Records are only
+ * appended. The file is read through a memory map (see FileChannel.map), so a lookup is a copy from memory, without a
+ * read call. When the store is opened, the records are scanned to rebuild the index (key -> record). A truncated
+ * record (from a crash during a write), or one whose key is not a key (see isKey), ends the scan, and the file is cut
+ * there. A record whose data does not match its CRC is dropped when it is read.
+ * <p>
+ * When a new record would push the file over the budget, or when most of the file is superseded records, the file is
+ * compacted: the newest records that fit in COMPACT_FRACTION of the budget are copied to a new file, which replaces
+ * the old one (so the oldest thumbnails are dropped).
+ * <p>
+ * There is one store per process (see getInstance). All methods are synchronized.
+ */
+class ThumbnailStore
+{
+    final static String MYDEBUG = "MYDEBUG"; // for Log.i messages
+    static final String FILE_NAME = "thumbnails"; // in the app's cache directory
+    static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+    static final float COMPACT_FRACTION = 0.75f; // of the budget, kept by a compaction
+    static final long MIN_DEAD_BYTES = 1024L * 1024L; // superseded bytes, before they are worth a compaction
+
+    private static final int FILE_MAGIC = 0x54484d53; // "THMS"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_MAGIC = 0x54484d42; // "THMB"
+    private static final int RECORD_HEADER_SIZE = 14;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static ThumbnailStore instance;
+    private static boolean openFailed;
+
+    private final File file;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Record> index; // key -> record, in file order
+    private final HashMap<String, String> newest; // path and width -> key of the newest record
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer map; // (remapped when a record beyond it is read)
+    private long size; // of the file
+    private long liveBytes; // in the records in the index
+    private int hitCount, missCount, putCount, compactCount;
+
+    private ThumbnailStore(File fileArg, long maxBytesArg)
+    {
+        file = fileArg;
+        maxBytes = maxBytesArg;
+        index = new LinkedHashMap<String, Record>();
+        newest = new HashMap<String, String>();
+    }
+
+    /**
+     * Returns the store for this process, or null if the store can't be opened. The store is opened on the first call
+     * (which scans the file, so call this from a background thread), with a budget of DEFAULT_MAX_BYTES.
+     */
+    static synchronized ThumbnailStore getInstance(Context context)
+    {
+        if (instance == null && !openFailed)
+        {
+            try
+            {
+                instance = open(new File(context.getCacheDir(), FILE_NAME), DEFAULT_MAX_BYTES);
+            } catch (IOException e)
+            {
+                Log.i(MYDEBUG, "Can't open the thumbnail store, e=" + e);
+                openFailed = true; // (don't try again for every image)
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Open the store in the specified file (creating the file, if necessary).
+     */
+    static ThumbnailStore open(File file, long maxBytes) throws IOException
+    {
+        ThumbnailStore store = new ThumbnailStore(file, maxBytes);
+        synchronized (store)
+        {
+            store.openFile();
+            store.readRecords();
+            if (store.needsCompaction(0))
+                store.compact();
+        }
+        return store;
+    }
+
+    /**
+     * Returns the key of a thumbnail: the path of the image, the width of the thumbnail, and the time the image was
+     * last modified (see File.lastModified).
+     */
+    static String keyOf(String path, int width, long lastModified)
+    {
+        return path + "|" + width + "|" + lastModified;
+    }
+
+    /**
+     * Returns the bytes of the thumbnail for an image, or null if there is none for this width and modification time.
+     */
+    synchronized byte[] get(String path, int width, long lastModified)
+    {
+        String key = keyOf(path, width, lastModified);
+        Record r = channel == null ? null : index.get(key);
+        if (r == null)
+        {
+            ++missCount;
+            return null;
+        }
+
+        byte[] data = new byte[r.dataLength];
+        try
+        {
+            ensureMapped(r.offset + r.size);
+            ByteBuffer b = map.duplicate();
+            b.position((int)(r.offset + r.size - r.dataLength));
+            b.get(data);
+        } catch (IOException e)
+        {
+            Log.i(MYDEBUG, "Can't read the thumbnail store, e=" + e);
+            ++missCount;
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int)crc.getValue() != r.crc)
+        {
+            remove(key); // (a torn write)
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return data;
+    }
+
+    /**
+     * Add the bytes of the thumbnail for an image (superseding any thumbnail for an earlier version of the image at
+     * this width). Errors (e.g., a full disk) are logged, and the thumbnail is not stored.
+     */
+    synchronized void put(String path, int width, long lastModified, byte[] data)
+    {
+        String key = keyOf(path, width, lastModified);
+        byte[] keyBytes = key.getBytes(UTF8);
+        int recordSize = RECORD_HEADER_SIZE + keyBytes.length + data.length;
+        // (a record fits in what a compaction frees)
+        if (channel == null || keyBytes.length > 0xffff || recordSize > maxBytes * (1f - COMPACT_FRACTION))
+            return;
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(RECORD_MAGIC).putShort((short)keyBytes.length).putInt(data.length).putInt((int)crc.getValue());
+        record.put(keyBytes).put(data);
+        record.flip();
+        try
+        {
+            if (needsCompaction(recordSize))
+                compact();
+            writeFully(channel, record, size);
+        } catch (IOException e)
+        {
+            Log.i(MYDEBUG, "Can't write to the thumbnail store, e=" + e);
+            return; // (a partial record is overwritten by the next put, or cut when the store is opened)
+        }
+        add(key, new Record(size, recordSize, data.length, (int)crc.getValue()));
+        size += recordSize;
+        ++putCount;
+    }
+
+    /**
+     * Close the file. The store is not usable afterward (lookups miss, and puts are dropped).
+     */
+    synchronized void close()
+    {
+        if (channel == null)
+            return;
+        try
+        {
+            raf.close();
+        } catch (IOException e)
+        {
+            Log.i(MYDEBUG, "Can't close the thumbnail store, e=" + e);
+        }
+        raf = null;
+        channel = null;
+        map = null;
+    }
+
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+    synchronized long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    synchronized int getHitCount()
+    {
+        return hitCount;
+    }
+
+    synchronized int getMissCount()
+    {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        int lookups = hitCount + missCount;
+        return String.format(Locale.US, "ThumbnailStore[entries=%d, bytes=%d/%d (live=%d), hits=%d, misses=%d, "
+                + "hitRate=%d%%, puts=%d, compactions=%d]", index.size(), size, maxBytes, liveBytes, hitCount,
+                missCount, lookups == 0 ? 0 : 100 * hitCount / lookups, putCount, compactCount);
+    }
+
+    private void openFile() throws IOException
+    {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        map = null;
+    }
+
+    // rebuild the index from the records in the file (a missing or foreign file gives an empty store)
+    private void readRecords() throws IOException
+    {
+        long length = channel.size();
+        if (length < FILE_HEADER_SIZE || length > Integer.MAX_VALUE)
+        {
+            reset();
+            return;
+        }
+        ensureMapped(length);
+        if (map.getInt(0) != FILE_MAGIC || map.getInt(4) != VERSION)
+        {
+            reset();
+            return;
+        }
+
+        long position = FILE_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= length)
+        {
+            int p = (int)position;
+            if (map.getInt(p) != RECORD_MAGIC)
+                break;
+            int keyLength = map.getShort(p + 4) & 0xffff;
+            int dataLength = map.getInt(p + 6);
+            long end = position + RECORD_HEADER_SIZE + keyLength + dataLength;
+            if (dataLength < 0 || end > length)
+                break; // a truncated record (from a crash during a write); keep the records before it
+            byte[] keyBytes = new byte[keyLength];
+            ByteBuffer b = map.duplicate();
+            b.position(p + RECORD_HEADER_SIZE);
+            b.get(keyBytes);
+            String key = new String(keyBytes, UTF8);
+            if (!isKey(key))
+                break; // a garbled record (the CRC covers only the data); keep the records before it
+            int crc = map.getInt(p + 10);
+            add(key, new Record(position, (int)(end - position), dataLength, crc));
+            position = end;
+        }
+        if (position < length)
+        {
+            map = null;
+            channel.truncate(position);
+        }
+        size = position;
+    }
+
+    // returns true if a string has the form of a key (see keyOf): a path, then a width and a time, separated by '|'
+    private static boolean isKey(String key)
+    {
+        int j = key.lastIndexOf('|');
+        int i = j > 0 ? key.lastIndexOf('|', j - 1) : -1;
+        if (i <= 0)
+            return false;
+        try
+        {
+            Integer.parseInt(key.substring(i + 1, j));
+            Long.parseLong(key.substring(j + 1));
+        } catch (NumberFormatException e)
+        {
+            return false;
+        }
+        return true;
+    }
+
+    // empty the file, and give it a header
+    private void reset() throws IOException
+    {
+        map = null;
+        channel.truncate(0);
+        writeHeader(channel);
+        size = FILE_HEADER_SIZE;
+        index.clear();
+        newest.clear();
+        liveBytes = 0;
+    }
+
+    private boolean needsCompaction(int recordSize)
+    {
+        long deadBytes = size - FILE_HEADER_SIZE - liveBytes;
+        return size + recordSize > maxBytes || (deadBytes > liveBytes && deadBytes >= MIN_DEAD_BYTES);
+    }
+
+    // copy the newest records that fit in COMPACT_FRACTION of the budget to a new file, which replaces the old one
+    private void compact() throws IOException
+    {
+        ArrayList<Map.Entry<String, Record>> records = new ArrayList<Map.Entry<String, Record>>(index.entrySet());
+        long budget = (long)(maxBytes * COMPACT_FRACTION) - FILE_HEADER_SIZE;
+        int first = records.size();
+        long kept = 0;
+        while (first > 0 && kept + records.get(first - 1).getValue().size <= budget)
+            kept += records.get(--first).getValue().size;
+
+        ensureMapped(size);
+        File tmp = new File(file.getPath() + ".tmp");
+        LinkedHashMap<String, Record> compacted = new LinkedHashMap<String, Record>();
+        long position = FILE_HEADER_SIZE;
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try
+        {
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+            writeHeader(outChannel);
+            for (int i = first; i < records.size(); ++i)
+            {
+                Record r = records.get(i).getValue();
+                ByteBuffer b = map.duplicate();
+                b.limit((int)(r.offset + r.size));
+                b.position((int)r.offset);
+                writeFully(outChannel, b, position);
+                compacted.put(records.get(i).getKey(), new Record(position, r.size, r.dataLength, r.crc));
+                position += r.size;
+            }
+            outChannel.force(true); // (the records are on the disk before the file gets its real name)
+        } finally
+        {
+            out.close();
+        }
+
+        raf.close();
+        if (!tmp.renameTo(file))
+        {
+            tmp.delete();
+            openFile(); // (the old file, as it was)
+            throw new IOException("Can't rename " + tmp);
+        }
+        openFile();
+        index.clear();
+        newest.clear();
+        liveBytes = 0;
+        for (Map.Entry<String, Record> e : compacted.entrySet())
+            add(e.getKey(), e.getValue());
+        size = position;
+        ++compactCount;
+    }
+
+    // add a record to the index, dropping any record it supersedes
+    private void add(String key, Record record)
+    {
+        remove(key);
+        String superseded = newest.put(key.substring(0, key.lastIndexOf('|')), key);
+        if (superseded != null)
+            remove(superseded);
+        index.put(key, record);
+        liveBytes += record.size;
+    }
+
+    // drop a record from the index (its bytes stay in the file until the next compaction)
+    private void remove(String key)
+    {
+        Record r = index.remove(key);
+        if (r == null)
+            return;
+        liveBytes -= r.size;
+        String slot = key.substring(0, key.lastIndexOf('|'));
+        if (key.equals(newest.get(slot)))
+            newest.remove(slot);
+    }
+
+    // map the file, if the current map does not reach the specified offset
+    private void ensureMapped(long end) throws IOException
+    {
+        if (map == null || map.capacity() < end)
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(end, size));
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(channel, header, 0);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b, long position) throws IOException
+    {
+        while (b.hasRemaining())
+            position += channel.write(b, position);
+    }
+
+    // where a record is in the file
+    private static class Record
+    {
+        final long offset;
+        final int size; // of the whole record
+        final int dataLength; // (the data is at the end of the record)
+        final int crc;
+
+        Record(long offsetArg, int sizeArg, int dataLengthArg, int crcArg)
+        {
+            offset = offsetArg;
+            size = sizeArg;
+            dataLength = dataLengthArg;
+            crc = crcArg;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ca.yorku.cse.mack.demoh4touch;
 
+import java.io.File;
+
 import ca.yorku.cse.mack.demoh4touch.H4Keyboard.H4Listener;
 import android.app.Activity;
 import android.content.Context;
@@ -26,6 +28,7 @@ public class DemoH4TouchActivity extends Activity implements OnClickListener, H4
 {
 	private final long PULSE_DURATION = 10;
 	private final int MARGIN_LEFT = 5;  // left margin (should match value in main.xml)
+	private final String KEYSTROKE_LOG = "keystrokes.h4ks"; // see KeystrokeLog
 	
 	private H4Keyboard h4k;
 	private EditText transcribedTextField;
@@ -36,6 +39,7 @@ public class DemoH4TouchActivity extends Activity implements OnClickListener, H4
 	private String transcribedText;
 	private CheckBox hideLettersCheckBox;
 	private Button clearButton, exitButton;
+	private KeystrokeRecorder keystrokeRecorder;
 	
     @Override
     public void onCreate(Bundle savedInstanceState) 
@@ -59,6 +63,13 @@ public class DemoH4TouchActivity extends Activity implements OnClickListener, H4
 		float scalingFactor = dm.density;
 		int width = dm.widthPixels - (int)(2f * MARGIN_LEFT * scalingFactor);
 		h4k.setKeyboardSize(width, dm.heightPixels, scalingFactor);	
+
+		// record the keystrokes (replay the log off the device with KeystrokeReplay)
+		File logDirectory = getExternalFilesDir(null);
+		if (logDirectory == null)
+			logDirectory = getFilesDir();
+		keystrokeRecorder = new KeystrokeRecorder(new File(logDirectory, KEYSTROKE_LOG));
+		h4k.setKeystrokeRecorder(keystrokeRecorder);
 		
 		hideLettersCheckBox = (CheckBox)findViewById(R.id.hideletterscheckbox);
 		clearButton = (Button)findViewById(R.id.clearbutton);
@@ -82,21 +93,36 @@ public class DemoH4TouchActivity extends Activity implements OnClickListener, H4
 		vibrotactileFeedback = true;
 		auditoryFeedback = false; // not used in demo setup
     }
+
+	@Override
+	public void onPause()
+	{
+		keystrokeRecorder.flush(); // so little is lost if the app is killed while in the background
+		super.onPause();
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		h4k.setKeystrokeRecorder(null);
+		keystrokeRecorder.close();
+		super.onDestroy();
+	}
     
     public void onH4Code(H4Keyboard.H4Event h4e)
     {
     	String symbol = h4e.symbol;     	
     	
-    	if (!symbol.equals(H4Keyboard.ENTER))
+    	if (!symbol.equals(H4Codes.ENTER))
     	{
 			// first, update the transcribed text field, as appropriate, and output the appropriate feedback
-			if (symbol.equals(H4Keyboard.SPACE))
+			if (symbol.equals(H4Codes.SPACE))
 			{
 				transcribedText += " "; 
 		    	if (vibrotactileFeedback) vib.vibrate(PULSE_DURATION);
 		    	if (auditoryFeedback) tick.start();
 			}
-			else if (symbol.equals(H4Keyboard.BACKSPACE))
+			else if (symbol.equals(H4Codes.BACKSPACE))
 			{
 				if (transcribedText.length() >= 1)
 				{
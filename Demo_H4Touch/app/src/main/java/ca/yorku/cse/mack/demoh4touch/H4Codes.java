@@ -0,0 +1,58 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+/**
+ * H4Codes -- the H4 code tables (the letter and symbol code trees) and the command symbols in them.
+ * <p>
+ *
+ * The tables are kept apart from <code>H4Keyboard</code> (an Android <code>View</code>), so that the classes that use
+ * them without a user interface (<code>H4Decoder</code>, <code>KeystrokeReplay</code>, and
+ * <code>HuffmanCodeGenerator</code>) run on a plain JVM.
+ */
+class H4Codes
+{
+	// ==================
+	// Huffman Code Trees
+	// ==================
+
+	final static String SPACE = "[Space]";
+	final static String BACKSPACE = "[Bksp]";
+	final static String ENTER = "[Entr]";
+	final static String SHIFT = "[Shft]";
+	final static String CAPS_LOCK = "[CapsLock]";
+	final static String SYMBOL = "[Symbol]";
+	final static String SYMBOL_LOCK = "[SymLock]";
+	final static String TAB = "[Tab]";
+
+	final static String[][] LETTER_CODES = { { SPACE, "33" }, { BACKSPACE, "00" }, { ENTER, "01" }, { SHIFT, "02" },
+			{ CAPS_LOCK, "030" }, { ".", "031" }, { ",", "032" }, { SYMBOL, "033" }, { "e", "11" }, { "t", "22" },
+			{ "a", "23" }, { "o", "20" }, { "i", "13" }, { "n", "12" }, { "s", "31" }, { "h", "10" }, { "r", "322" },
+			{ "l", "300" }, { "d", "321" }, { "c", "303" }, { "u", "302" }, { "f", "301" }, { "m", "323" },
+			{ "w", "213" }, { "y", "212" }, { "p", "211" }, { "g", "210" }, { "b", "3203" }, { "v", "3202" },
+			{ "k", "3201" }, { "x", "32003" }, { "j", "32002" }, { "q", "32001" }, { "z", "32000" } };
+
+	// NOTE: symbol codes implicitly begin with "033" (see above)
+	// NOTE: BACKSPACE is repeated here (as a matter of convenience to simplify corrections if in
+	// symbol lock mode)
+	final static String[][] SYMBOL_CODES = { { SYMBOL_LOCK, "12" }, { "?", "11" }, { "%", "10" }, { "-", "03" },
+			{ "@", "02" }, { ";", "01" }, { BACKSPACE, "00" }, { ":", "333" }, { "!", "332" }, { "1", "331" },
+			{ "2", "330" }, { "3", "323" }, { "4", "322" }, { "5", "321" }, { "6", "320" }, { "7", "313" },
+			{ "8", "312" }, { "9", "311" }, { "0", "310" }, { "=", "303" }, { "+", "302" }, { "<", "301" },
+			{ ">", "300" }, { "/", "233" }, { "|", "232" }, { "\\", "231" }, { "_", "230" }, { "\"", "223" },
+			{ TAB, "222" }, { "#", "221" }, { "$", "220" }, { "^", "212" }, { "&", "211" }, { "*", "210" },
+			{ "(", "203" }, { ")", "202" }, { "[", "201" }, { "]", "200" }, { "{", "133" }, { "}", "132" },
+			{ "'", "131" }, { "~", "130" } };
+	// end Huffman code trees
+
+	// NOTE: The code tree is easily extended. For example, the code for the dollar sign above ("$"
+	// = 220)
+	// could be replaced with...
+	// { "$", "2200" },
+	// { "\u20ac", "2201" },
+	// { "\u00a3", "2202" },
+	// { "\u00a5", "2203" },
+	// The latter three symbols are for the Euro, Pound, and Yuan, respectively.
+
+	// the code trees above, compiled for lookup (one array index per keystroke; see HuffmanTrie)
+	final static HuffmanTrie LETTER_TRIE = new HuffmanTrie(LETTER_CODES);
+	final static HuffmanTrie SYMBOL_TRIE = new HuffmanTrie(SYMBOL_CODES);
+}
@@ -0,0 +1,116 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+/**
+ * H4Decoder -- the H4 state machine: turns a sequence of key presses (0-3) into symbols.
+ * <p>
+ *
+ * The decoder holds the stem (the node in the active code tree for the keys entered so far) and the mode keys (SHIFT,
+ * CAPS_LOCK, SYMBOL, SYMBOL_LOCK). It has no user interface, so the same code runs in an <code>H4Keyboard</code>
+ * (which feeds it touch events) and off-device (e.g., in <code>KeystrokeReplay</code>, which feeds it a recorded
+ * session).
+ */
+class H4Decoder
+{
+	boolean capOn, capLockOn, symOn, symLockOn;
+	HuffmanTrie trie; // the active code tree (LETTER_TRIE or SYMBOL_TRIE)
+	int node; // the node in the code tree for the keys entered so far (the stem)
+
+	H4Decoder()
+	{
+		reset();
+	}
+
+	/**
+	 * Return to the initial state (no stem, no mode keys on, letter codes).
+	 */
+	void reset()
+	{
+		capOn = false;
+		capLockOn = false;
+		symOn = false;
+		symLockOn = false;
+		trie = H4Codes.LETTER_TRIE;
+		node = HuffmanTrie.ROOT;
+	}
+
+	/**
+	 * Process a key press.
+	 *
+	 * @param key
+	 *            the key (0, 1, 2, 3), or -1 if the touch was outside the keys
+	 * @return the symbol entered (e.g., "t", "T", or "[Space]"), or null if the key did not complete a code, or if the
+	 *         code was a mode shift (SHIFT, CAPS_LOCK, SYMBOL, SYMBOL_LOCK)
+	 */
+	String key(int key)
+	{
+		int next = trie.next(node, key); // add the key to the stem
+
+		// if the stem is invalid, don't accept the key code
+		if (next == -1)
+			return null; // the stem is unchanged
+
+		// not a prefix code (just a partial code)
+		if (!trie.isLeaf(next))
+		{
+			node = next;
+			return null;
+		}
+
+		// a prefix code, so process the huffman code
+		String symbol = trie.getSymbol(next);
+		if (symbol.equals(H4Codes.SHIFT))
+		{
+			capOn = true;
+			symbol = null;
+		} else if (symbol.equals(H4Codes.CAPS_LOCK))
+		{
+			capLockOn = !capLockOn;
+			symbol = null;
+		} else if (symbol.equals(H4Codes.SYMBOL))
+		{
+			symOn = true;
+			trie = H4Codes.SYMBOL_TRIE;
+			symbol = null;
+		} else if (symbol.equals(H4Codes.SYMBOL_LOCK))
+		{
+			symOn = false; // just in case last code was SYMBOL_MODE
+			symLockOn = !symLockOn;
+			if (symLockOn)
+				trie = H4Codes.SYMBOL_TRIE;
+			else
+				trie = H4Codes.LETTER_TRIE;
+			symbol = null;
+		} else
+		{
+			if (capOn || capLockOn)
+			{
+				// don't convert commands to uppercase (e.g., "[space]"; see HuffmanTrie)
+				symbol = trie.getShiftedSymbol(next);
+				capOn = false;
+			}
+			if (symOn)
+			{
+				symOn = false;
+				trie = H4Codes.LETTER_TRIE;
+			}
+		}
+		node = HuffmanTrie.ROOT;
+		return symbol;
+	}
+
+	/**
+	 * Returns the stem (the partial code entered so far), e.g., "32".
+	 */
+	String getStem()
+	{
+		return trie.getStem(node);
+	}
+
+	/**
+	 * Returns the labels for the four keys (see <code>HuffmanTrie.getLabels</code>).
+	 */
+	String[] getLabels()
+	{
+		return trie.getLabels(node, capOn || capLockOn);
+	}
+}
@@ -1,6 +1,5 @@
 package ca.yorku.cse.mack.demoh4touch;
 
-import java.util.Locale;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -32,49 +31,8 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 	final float KEY_TEXT_SIZE = 24f;
 	final float SCALE_FACTOR = 10000;
 
-	// ==================
-	// Huffman Code Trees
-	// ==================
-
-	final static String SPACE = "[Space]";
-	final static String BACKSPACE = "[Bksp]";
-	final static String ENTER = "[Entr]";
-	final static String SHIFT = "[Shft]";
-	final static String CAPS_LOCK = "[CapsLock]";
-	final static String SYMBOL = "[Symbol]";
-	final static String SYMBOL_LOCK = "[SymLock]";
-	final static String TAB = "[Tab]";
-
-	final static String[][] LETTER_CODES = { { SPACE, "33" }, { BACKSPACE, "00" }, { ENTER, "01" }, { SHIFT, "02" },
-			{ CAPS_LOCK, "030" }, { ".", "031" }, { ",", "032" }, { SYMBOL, "033" }, { "e", "11" }, { "t", "22" },
-			{ "a", "23" }, { "o", "20" }, { "i", "13" }, { "n", "12" }, { "s", "31" }, { "h", "10" }, { "r", "322" },
-			{ "l", "300" }, { "d", "321" }, { "c", "303" }, { "u", "302" }, { "f", "301" }, { "m", "323" },
-			{ "w", "213" }, { "y", "212" }, { "p", "211" }, { "g", "210" }, { "b", "3203" }, { "v", "3202" },
-			{ "k", "3201" }, { "x", "32003" }, { "j", "32002" }, { "q", "32001" }, { "z", "32000" } };
-
-	// NOTE: symbol codes implicitly begin with "033" (see above)
-	// NOTE: BACKSPACE is repeated here (as a matter of convenience to simplify corrections if in
-	// symbol lock mode)
-	final static String[][] SYMBOL_CODES = { { SYMBOL_LOCK, "12" }, { "?", "11" }, { "%", "10" }, { "-", "03" },
-			{ "@", "02" }, { ";", "01" }, { BACKSPACE, "00" }, { ":", "333" }, { "!", "332" }, { "1", "331" },
-			{ "2", "330" }, { "3", "323" }, { "4", "322" }, { "5", "321" }, { "6", "320" }, { "7", "313" },
-			{ "8", "312" }, { "9", "311" }, { "0", "310" }, { "=", "303" }, { "+", "302" }, { "<", "301" },
-			{ ">", "300" }, { "/", "233" }, { "|", "232" }, { "\\", "231" }, { "_", "230" }, { "\"", "223" },
-			{ TAB, "222" }, { "#", "221" }, { "$", "220" }, { "^", "212" }, { "&", "211" }, { "*", "210" },
-			{ "(", "203" }, { ")", "202" }, { "[", "201" }, { "]", "200" }, { "{", "133" }, { "}", "132" },
-			{ "'", "131" }, { "~", "130" } };
-	// end Huffman code trees
-
-	// NOTE: The code tree is easily extended. For example, the code for the dollar sign above ("$"
-	// = 220)
-	// could be replaced with...
-	// { "$", "2200" },
-	// { "\u20ac", "2201" },
-	// { "\u00a3", "2202" },
-	// { "\u00a5", "2203" },
-	// The latter three symbols are for the Euro, Pound, and Yuan, respectively.
-
-	boolean capOn, capLockOn, symOn, symLockOn;
+	// the Huffman code trees are in H4Codes (they have no user interface, so H4Decoder runs off-device too)
+
 	//boolean vibrotactileFeedback, auditoryFeedback;
 	String[] keyNoText = { "", "", "", "" };
 
@@ -96,15 +54,21 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 	float yOffset = STEM_CODE_TEXT_SIZE;
 	float thickLineSize = DEFAULT_THICK_LINE_SIZE;
 
-	StringBuilder huffmanStem;
-	String[][] codes;
+	H4Decoder decoder; // the stem, the mode keys, and the active code tree (see H4Decoder)
 	boolean showHuffmanCodes;
 
 	float pixelDensity;
 	Bitmap featheredTouchPoint;
+
+	// the static layer of the keyboard (key outlines, cross, and key text), drawn once for each size and set of
+	// labels (see renderKeyLayer), so a frame is just a bitmap copy plus the stem and the touch point
+	Bitmap keyLayer;
+	Canvas keyLayerCanvas;
+	boolean keyLayerValid;
 	float xTouch, yTouch, offset;
 
 	H4Listener h4Listener;
+	KeystrokeRecorder recorder; // null unless keystrokes are recorded (see setKeystrokeRecorder)
 
 	public H4Keyboard(Context context, AttributeSet attrs, int defStyle)
 	{
@@ -130,6 +94,17 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 		h4Listener = h4ListenerArg;
 	}
 
+	/*
+	 * Record each keystroke (the key, the touch point, the time, and the symbol entered, if any). Use
+	 * null to stop recording.
+	 */
+	public void setKeystrokeRecorder(KeystrokeRecorder recorderArg)
+	{
+		recorder = recorderArg;
+		if (recorder != null)
+			recorder.recordReset(); // a replay starts from the keyboard's current (initial) state
+	}
+
 	/*
 	 * Set the size of the keyboard according to the display width and height. This is coded as a
 	 * method since the size must be set initially (from onCreate) and (potentially) when the device
@@ -155,7 +130,7 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 
 		configureKeys(keyboardWidth, keyboardHeight, keyStyle);
 
-		updateHuffmanKeys(huffmanStem.toString());
+		updateHuffmanKeys();
 	}
 
 	private void initialize(Context c)
@@ -163,7 +138,7 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 		pixelDensity = c.getResources().getDisplayMetrics().density;
 
 		// this.setOnTouchListener(this);
-		huffmanStem = new StringBuilder();
+		decoder = new H4Decoder();
 		keyStyle = SQUARE;
 		// keyStyle = TRIANGLE;
 		showHuffmanCodes = true;
@@ -200,13 +175,10 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 	public void resetState()
 	{
 		configureKeys(width, height, keyStyle);
-		capOn = false;
-		capLockOn = false;
-		symOn = false;
-		symLockOn = false;
-		codes = LETTER_CODES;
-		huffmanStem.setLength(0);
-		updateHuffmanKeys(huffmanStem.toString());
+		decoder.reset();
+		if (recorder != null)
+			recorder.recordReset();
+		updateHuffmanKeys();
 		invalidate();
 	}
 
@@ -309,6 +281,7 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 		// keyTextPaint.setTextSize(height * width / SCALE_FACTOR);
 		keyTextPaint.setTextSize(KEY_TEXT_SIZE * scalingFactor);
 		stemCodePaint.setTextSize(STEM_CODE_TEXT_SIZE * scalingFactor);
+		keyLayerValid = false;
 	}
 
 	@Override
@@ -323,83 +296,63 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 			yTouch = me.getY();
 			h4Listener.onH4Keystroke(); // callback to count keystrokes
 			int n = getKey(me.getX(), me.getY()); // get key number (0, 1, 2, 3)
-			huffmanStem.append(String.format("%d", n)); // add the key string to the stem
-
-			// if the stem is invalid, don't accept the key code
-			if (!valid(huffmanStem.toString()))
-			{
-				huffmanStem.deleteCharAt(huffmanStem.length() - 1);
-			} else if (isPrefix(huffmanStem.toString())) // if prefix, process the huffman code
-			{
-				String symbol = getHuffmanSymbol(huffmanStem.toString());
-
-				if (symbol != null && symbol.equals(H4Keyboard.SHIFT))
-				{
-					capOn = true;
-				} else if (symbol != null && symbol.equals(H4Keyboard.CAPS_LOCK))
-				{
-					capLockOn = !capLockOn;
-				} else if (symbol != null && symbol.equals(H4Keyboard.SYMBOL))
-				{
-					symOn = true;
-					codes = H4Keyboard.SYMBOL_CODES;
-				} else if (symbol != null && symbol.equals(H4Keyboard.SYMBOL_LOCK))
-				{
-					symOn = false; // just in case last code was SYMBOL_MODE
-					symLockOn = !symLockOn;
-					if (symLockOn)
-						codes = H4Keyboard.SYMBOL_CODES;
-					else
-						codes = H4Keyboard.LETTER_CODES;
-				} else
-				{
-					if (symOn)
-					{
-						symOn = false;
-						codes = H4Keyboard.LETTER_CODES;
-					}
-					if (capOn || capLockOn)
-					{
-						if (symbol.charAt(0) != '[') // don't convert commands to uppercase (e.g.,
-														// "[space]")
-							symbol = symbol.toUpperCase(Locale.US);
-						capOn = false;
-					}
-
-					h4Listener.onH4Code(new H4Event(symbol, System.currentTimeMillis()));
-				}
-				huffmanStem.setLength(0);
-				updateHuffmanKeys(huffmanStem.toString());
-			} else
-			// not a prefix code (just a partial code)
-			{
-				// symbol = "";
-				updateHuffmanKeys(huffmanStem.toString());
-			}
+			String symbol = decoder.key(n); // null for a partial code, a mode shift, or an invalid key
+			if (recorder != null)
+				recorder.record(System.nanoTime(), n, xTouch, yTouch, symbol);
+			if (symbol != null)
+				h4Listener.onH4Code(new H4Event(symbol, System.currentTimeMillis()));
+			updateHuffmanKeys();
 		}
 		return true;
 	}
 
 	protected void onDraw(Canvas c)
 	{
-		for (int i = 0; i < 4; ++i)
-		{
-			c.drawPath(h4key[i].p, keyLinePaint);
-			drawText(c, keyTextPaint, h4key[i].text, h4key[i].xText, h4key[i].yText, h4key[i].textWidth);
-		}
-
-		c.drawLine(cross1[0].x, cross1[0].y, cross1[1].x, cross1[1].y, keyThickLinePaint);
-		c.drawLine(cross2[0].x, cross2[0].y, cross2[1].x, cross2[1].y, keyThickLinePaint);
+		if (!keyLayerValid)
+			renderKeyLayer();
+		if (keyLayer != null)
+			c.drawBitmap(keyLayer, 0f, 0f, null);
 
 		if (keyStyle == SQUARE)
-			c.drawText(huffmanStem.toString(), xOffset, yOffset, stemCodePaint);
+			c.drawText(decoder.getStem(), xOffset, yOffset, stemCodePaint);
 		else
-			c.drawText(huffmanStem.toString(), xExtraOffset, yOffset, stemCodePaint);
+			c.drawText(decoder.getStem(), xExtraOffset, yOffset, stemCodePaint);
 
 		if (activeKey >= 0)
 			c.drawBitmap(featheredTouchPoint, xTouch - offset, yTouch - offset, null);
 	}
 
+	/*
+	 * Draw the static layer of the keyboard into the keyLayer bitmap. This is done only when the
+	 * keys are reconfigured (e.g., a new size) or the key text changes, not on every frame. (A
+	 * touch down and up, for example, redraws the keyboard twice, but the key text changes at most
+	 * once.)
+	 */
+	private void renderKeyLayer()
+	{
+		if (width <= 0 || height <= 0)
+			return;
+		if (keyLayer == null || keyLayer.getWidth() != width || keyLayer.getHeight() != height)
+		{
+			if (keyLayer != null)
+				keyLayer.recycle();
+			keyLayer = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+			keyLayerCanvas = new Canvas(keyLayer);
+		} else
+			keyLayer.eraseColor(0x00000000); // transparent
+
+		for (int i = 0; i < 4; ++i)
+		{
+			keyLayerCanvas.drawPath(h4key[i].p, keyLinePaint);
+			drawText(keyLayerCanvas, keyTextPaint, h4key[i].text, h4key[i].xText, h4key[i].yText,
+					h4key[i].textWidth);
+		}
+
+		keyLayerCanvas.drawLine(cross1[0].x, cross1[0].y, cross1[1].x, cross1[1].y, keyThickLinePaint);
+		keyLayerCanvas.drawLine(cross2[0].x, cross2[0].y, cross2[1].x, cross2[1].y, keyThickLinePaint);
+		keyLayerValid = true;
+	}
+
 	private void drawText(Canvas c, Paint p, String text, float x, float y, float width)
 	{
 		// does the text fit in the available 'width'?
@@ -452,69 +405,29 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 
 	public void clearKey()
 	{
+		if (activeKey == -1)
+			return; // nothing to erase (the touch point is shown only on a key)
 		activeKey = -1;
 		invalidate();
 	}
 
-	private String getHuffmanSymbol(String stem)
-	{
-		for (int i = 0; i < codes.length; ++i)
-		{
-			if (codes[i][1].equals(stem))
-				return codes[i][0];
-		}
-		return null;
-	}
-
-	private boolean isPrefix(String stem)
-	{
-		for (int i = 0; i < codes.length; ++i)
-		{
-			if (codes[i][1].equals(stem))
-				return true;
-		}
-		return false;
-	}
-
-	private boolean valid(String stem)
-	{
-		for (int i = 0; i < codes.length; ++i)
-		{
-			if (codes[i][1].indexOf(stem) == 0)
-				return true;
-		}
-		return false;
-	}
-
-	private String getSymbolsForKey(int key, String stemArg)
+	private void updateHuffmanKeys()
 	{
-		String stem = stemArg + key;
-		String s = "";
-		for (int i = 0; i < codes.length; ++i)
-		{
-			if (codes[i][1].indexOf(stem) == 0)
-				s += codes[i][0] + " ";
-		}
-		if (capOn || capLockOn)
-			return s.toUpperCase(Locale.US).trim();
-		else
-			return s.trim();
-	}
+		String stem = decoder.getStem();
 
-	private void updateHuffmanKeys(String stem)
-	{
 		/**
 		 * Apologies for the complicated boolean. The effect is to show the h4 key text for the
 		 * 0-branch (commands and symbols), even if "Show Huffman Codes" is unchecked. The idea is
 		 * that even experienced users are likely to need the h4 key text when entering some of the
 		 * more esoteric symbols or commands.
 		 */
-		if (showHuffmanCodes || ((stem.length() > 0 && (stem.charAt(0) == '0'))) || symOn)
+		if (showHuffmanCodes || ((stem.length() > 0 && (stem.charAt(0) == '0'))) || decoder.symOn)
 		{
-			setTextForKeys(getSymbolsForKey(0, stem), getSymbolsForKey(1, stem), getSymbolsForKey(2, stem),
-					getSymbolsForKey(3, stem));
+			// the labels are precomputed for every node (see HuffmanTrie)
+			String[] labels = decoder.getLabels();
+			setTextForKeys(labels[0], labels[1], labels[2], labels[3]);
 		} else
-			setTextForKeys("", "", "", "");
+			setTextForKeys(keyNoText[0], keyNoText[1], keyNoText[2], keyNoText[3]);
 	}
 
 	/*
@@ -542,6 +455,10 @@ public class H4Keyboard extends View // implements View.OnTouchListener
 
 	public void setTextForKeys(String s0, String s1, String s2, String s3)
 	{
+		// the key layer is redrawn only if the text changed (e.g., not for an invalid key)
+		if (!s0.equals(h4key[0].text) || !s1.equals(h4key[1].text) || !s2.equals(h4key[2].text)
+				|| !s3.equals(h4key[3].text))
+			keyLayerValid = false;
 		h4key[0].text = s0;
 		h4key[1].text = s1;
 		h4key[2].text = s2;
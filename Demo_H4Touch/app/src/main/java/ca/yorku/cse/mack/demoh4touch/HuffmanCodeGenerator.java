@@ -0,0 +1,512 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HuffmanCodeGenerator -- generate a letter code table for <code>H4Keyboard</code> from the character frequencies in a
+ * corpus.
+ * <p>
+ *
+ * The code is a 4-ary Huffman code (one digit per key), so the letters used most often get the shortest codes and the
+ * expected number of keystrokes per character (KSPC) is as small as possible. Branch 0 of the root is reserved for the
+ * commands and punctuation in <code>RESERVED_CODES</code> (BACKSPACE, ENTER, SHIFT, CAPS_LOCK, ".", ",", SYMBOL), as in
+ * <code>H4Codes.LETTER_CODES</code>, so these keep their codes in every layout. (The SYMBOL branch leads to
+ * <code>H4Codes.SYMBOL_CODES</code>, which are not generated.) The other three branches hold SPACE and the letters
+ * in the corpus. Uppercase letters are counted as their lowercase forms (they are entered with SHIFT or CAPS_LOCK),
+ * and any run of white space is counted as one SPACE. Other characters (digits, other punctuation) are ignored, as are
+ * letters too rare to be worth a code (by default, those less than 0.001% of the letters, e.g., the odd foreign word).
+ * <p>
+ *
+ * The Huffman tree is built with the reserved branch as a node of infinite weight, so it is the last node merged and
+ * is a child of the root; the tree is then optimal among those with the reserved branch at the root. Within each node,
+ * the heaviest child gets key 3, the next key 2, and so on.
+ * <p>
+ *
+ * The corpus is read in large blocks of bytes (UTF-8), and each block is decoded and counted on a pool of worker
+ * threads while the next block is read, with a small, fixed set of buffers (so a corpus of any size can be counted in
+ * a constant amount of memory). Each worker counts into its own array, and the arrays are added at the end. A run of
+ * white space that crosses the boundary between two blocks is counted in both, so the total is corrected for each such
+ * boundary (and the counts do not depend on the block size or the number of threads).
+ * <p>
+ *
+ * For each corpus, the generated code table is printed (in the form of <code>H4Codes.LETTER_CODES</code>) along
+ * with the expected KSPC of each generated layout, and of <code>H4Codes.LETTER_CODES</code>, on each corpus. (Here,
+ * KSPC counts the keystrokes for the SHIFT code before an uppercase letter.) Usage:
+ *
+ * <pre>
+ *     PROMPT>java HuffmanCodeGenerator corpus... [-m minimum] [-o codes.txt] [-t threads]
+ *
+ *     where -m = the minimum frequency (%) of a letter, among the letters, to get a code, 0 to 100 (default: 0.001)
+ *           -o = also write the code tables to a file
+ *           -t = the number of worker threads, at least 1 (default: one per core)
+ * </pre>
+ */
+public class HuffmanCodeGenerator
+{
+	private final static int BLOCK_SIZE = 1 << 22; // bytes read from the corpus at a time
+	private final static int ALPHABET = 1 << 16;
+	private final static int RESERVED_KEY = 0;
+	private final static double DEFAULT_MINIMUM = 0.001; // %
+
+	/**
+	 * The codes on the reserved branch (the same in every layout).
+	 */
+	final static String[][] RESERVED_CODES = { { H4Codes.BACKSPACE, "00" }, { H4Codes.ENTER, "01" },
+			{ H4Codes.SHIFT, "02" }, { H4Codes.CAPS_LOCK, "030" }, { ".", "031" }, { ",", "032" },
+			{ H4Codes.SYMBOL, "033" } };
+
+	/**
+	 * Count the characters in a UTF-8 corpus. The counts are indexed by character, except that each run of white space
+	 * is counted as one space. (Characters outside the Basic Multilingual Plane are ignored.)
+	 *
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	static long[] countCharacters(InputStream in, int threads) throws IOException, InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(2 * threads);
+		for (int i = 0; i < 2 * threads; ++i)
+			free.add(new byte[BLOCK_SIZE]);
+		final List<long[]> allCounts = Collections.synchronizedList(new ArrayList<long[]>());
+		final ThreadLocal<long[]> counts = new ThreadLocal<long[]>()
+		{
+			@Override
+			protected long[] initialValue()
+			{
+				long[] c = new long[ALPHABET];
+				allCounts.add(c);
+				return c;
+			}
+		};
+
+		final List<BlockEdges> edges = new ArrayList<BlockEdges>(); // in the order of the blocks (reader thread only)
+		byte[] carry = new byte[3]; // the start of a character split across two blocks
+		int carryLength = 0;
+		try
+		{
+			while (true)
+			{
+				final byte[] block = free.take(); // wait for a worker to finish with a buffer
+				System.arraycopy(carry, 0, block, 0, carryLength);
+				int length = carryLength;
+				int count;
+				while (length < block.length && (count = in.read(block, length, block.length - length)) != -1)
+					length += count;
+				if (length == 0)
+					break;
+
+				// end the block at a character boundary (keep the start of a split character for the next block)
+				final int end = length == block.length ? characterBoundary(block, length) : length;
+				carryLength = length - end;
+				System.arraycopy(block, end, carry, 0, carryLength);
+
+				final BlockEdges blockEdges = new BlockEdges();
+				edges.add(blockEdges);
+				pool.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						countBlock(block, end, counts.get(), blockEdges);
+						free.add(block);
+					}
+				});
+				if (length < block.length)
+					break; // the end of the corpus
+			}
+		} finally
+		{
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+
+		long[] total = new long[ALPHABET];
+		for (long[] c : allCounts)
+			for (int i = 0; i < ALPHABET; ++i)
+				total[i] += c[i];
+
+		// a run of white space across a block boundary was counted (as one SPACE) in the blocks on both sides
+		boolean previousEndsWithSpace = false;
+		for (BlockEdges e : edges)
+		{
+			if (e.empty)
+				continue; // (a block with no characters counted does not end a run)
+			if (previousEndsWithSpace && e.startsWithSpace)
+				--total[' '];
+			previousEndsWithSpace = e.endsWithSpace;
+		}
+		return total;
+	}
+
+	// the length of the block up to the last complete UTF-8 character
+	private static int characterBoundary(byte[] b, int length)
+	{
+		for (int i = length - 1; i >= Math.max(0, length - 3); --i)
+		{
+			int lead = b[i] & 0xff;
+			if ((lead & 0xc0) == 0x80)
+				continue; // a continuation byte
+			int size = lead < 0x80 ? 1 : lead >= 0xf0 ? 4 : lead >= 0xe0 ? 3 : 2;
+			return i + size <= length ? length : i;
+		}
+		return length;
+	}
+
+	// whether a block begins and ends with white space (set by countBlock, read after the pool has finished)
+	private static class BlockEdges
+	{
+		boolean empty = true; // no characters counted
+		boolean startsWithSpace, endsWithSpace;
+	}
+
+	// decode a block of UTF-8 and count the characters
+	private static void countBlock(byte[] b, int length, long[] counts, BlockEdges edges)
+	{
+		boolean space = false; // was the last character white space?
+		int i = 0;
+		while (i < length)
+		{
+			int lead = b[i] & 0xff;
+			int c;
+			if (lead < 0x80)
+			{
+				c = lead;
+				++i;
+			} else if (lead >= 0xc0 && lead < 0xe0 && i + 1 < length)
+			{
+				c = ((lead & 0x1f) << 6) | (b[i + 1] & 0x3f);
+				i += 2;
+			} else if (lead >= 0xe0 && lead < 0xf0 && i + 2 < length)
+			{
+				c = ((lead & 0x0f) << 12) | ((b[i + 1] & 0x3f) << 6) | (b[i + 2] & 0x3f);
+				i += 3;
+			} else
+			{
+				++i; // a 4-byte character, or a stray continuation byte
+				continue;
+			}
+
+			if (Character.isWhitespace(c))
+			{
+				if (!space)
+					++counts[' '];
+				space = true;
+			} else
+			{
+				++counts[c];
+				space = false;
+			}
+			if (edges.empty)
+			{
+				edges.empty = false;
+				edges.startsWithSpace = space;
+			}
+		}
+		edges.endsWithSpace = space;
+	}
+
+	/**
+	 * Generate a letter code table from character counts (see <code>countCharacters</code>).
+	 *
+	 * @param minimum
+	 *            the minimum frequency (%) of a letter, among the letters, to get a code
+	 * @return an array of {symbol, code} pairs: the reserved codes, followed by SPACE and the letters, in order of
+	 *         decreasing frequency
+	 */
+	static String[][] generate(long[] counts, double minimum)
+	{
+		// the weight of each symbol (SPACE, and the letters in lowercase)
+		long[] weights = new long[ALPHABET];
+		long letters = 0;
+		for (int c = 0; c < ALPHABET; ++c)
+			if (counts[c] > 0 && Character.isLetter(c))
+			{
+				weights[Character.toLowerCase(c)] += counts[c];
+				letters += counts[c];
+			}
+		for (int c = 0; c < ALPHABET; ++c)
+			if (weights[c] < minimum / 100.0 * letters)
+				weights[c] = 0;
+
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(new Node(H4Codes.SPACE, counts[' '], 0));
+		for (int c = 0; c < ALPHABET; ++c)
+			if (weights[c] > 0)
+				nodes.add(new Node(String.valueOf((char)c), weights[c], nodes.size()));
+		Node reserved = new Node(null, Long.MAX_VALUE, nodes.size());
+		nodes.add(reserved);
+
+		// pad with empty nodes, so every merge (including the last) has four nodes
+		while ((nodes.size() - 1) % (HuffmanTrie.KEYS - 1) != 0)
+			nodes.add(new Node(null, 0, nodes.size()));
+
+		PriorityQueue<Node> queue = new PriorityQueue<Node>(nodes.size(), new Comparator<Node>()
+		{
+			@Override
+			public int compare(Node n1, Node n2)
+			{
+				if (n1.weight != n2.weight)
+					return n1.weight < n2.weight ? -1 : 1;
+				return n1.order - n2.order; // (so the result does not depend on the queue's internals)
+			}
+		});
+		queue.addAll(nodes);
+		int order = nodes.size();
+		while (queue.size() > 1)
+		{
+			Node parent = new Node(null, 0, order++);
+			parent.children = new Node[HuffmanTrie.KEYS];
+			for (int i = 0; i < HuffmanTrie.KEYS; ++i)
+			{
+				parent.children[i] = queue.poll();
+				parent.weight = parent.weight + parent.children[i].weight < 0 ? Long.MAX_VALUE : parent.weight
+						+ parent.children[i].weight; // (the reserved node has infinite weight)
+			}
+			queue.add(parent);
+		}
+
+		ArrayList<String[]> codes = new ArrayList<String[]>();
+		assignCodes(queue.poll(), "", reserved, codes);
+		Collections.sort(codes, new Comparator<String[]>()
+		{
+			@Override
+			public int compare(String[] s1, String[] s2)
+			{
+				return s1[1].length() - s2[1].length(); // shortest (most frequent) first; the sort is stable
+			}
+		});
+		ArrayList<String[]> table = new ArrayList<String[]>(Arrays.asList(RESERVED_CODES));
+		table.addAll(codes);
+		return table.toArray(new String[table.size()][]);
+	}
+
+	// give the children of a node their keys (the reserved node key 0, the others by decreasing weight from key 3)
+	private static void assignCodes(Node node, String code, Node reserved, List<String[]> codes)
+	{
+		if (node.children == null)
+		{
+			if (node.symbol != null)
+				codes.add(new String[] { node.symbol, code });
+			return;
+		}
+		// the children came out of the queue lightest first
+		boolean skipReservedKey = hasReserved(node, reserved);
+		int key = HuffmanTrie.KEYS - 1;
+		for (int i = HuffmanTrie.KEYS - 1; i >= 0; --i)
+		{
+			Node child = node.children[i];
+			if (child == reserved)
+				continue;
+			if (key == RESERVED_KEY && skipReservedKey)
+				--key;
+			assignCodes(child, code + key, reserved, codes);
+			--key;
+		}
+	}
+
+	private static boolean hasReserved(Node node, Node reserved)
+	{
+		for (Node child : node.children)
+			if (child == reserved)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the expected keystrokes per character for a letter code table on character counts (see
+	 * <code>countCharacters</code>). Characters without a code are not included.
+	 */
+	static double getKSPC(String[][] codes, long[] counts)
+	{
+		HuffmanTrie trie = new HuffmanTrie(codes); // (checks that the codes are prefix free)
+		String shiftCode = null;
+		int[] lengths = new int[ALPHABET]; // the code length for each character (0 = no code)
+		for (int i = 0; i < trie.codes.length; ++i)
+		{
+			String symbol = trie.codes[i][0];
+			String code = trie.codes[i][1];
+			if (symbol.equals(H4Codes.SHIFT))
+				shiftCode = code;
+			else if (symbol.equals(H4Codes.SPACE))
+				lengths[' '] = code.length();
+			else if (symbol.length() == 1)
+				lengths[symbol.charAt(0)] = code.length();
+		}
+
+		long keystrokes = 0, characters = 0;
+		for (int c = 0; c < ALPHABET; ++c)
+		{
+			if (counts[c] == 0)
+				continue;
+			int lower = Character.toLowerCase(c);
+			if (lengths[c] > 0)
+				keystrokes += counts[c] * lengths[c];
+			else if (lower != c && lengths[lower] > 0 && shiftCode != null)
+				keystrokes += counts[c] * (shiftCode.length() + lengths[lower]);
+			else
+				continue;
+			characters += counts[c];
+		}
+		return characters == 0 ? 0.0 : (double)keystrokes / characters;
+	}
+
+	/**
+	 * Format a code table as Java source, in the form of <code>H4Codes.LETTER_CODES</code>.
+	 */
+	static String toJava(String[][] codes, String name)
+	{
+		StringBuilder sb = new StringBuilder();
+		StringBuilder line = new StringBuilder("\tfinal static String[][] " + name + " = {");
+		for (int i = 0; i < codes.length; ++i)
+		{
+			String item = " { " + symbolToJava(codes[i][0]) + ", \"" + codes[i][1] + "\" }"
+					+ (i < codes.length - 1 ? "," : " };");
+			if (line.length() + item.length() > 116)
+			{
+				sb.append(line).append('\n');
+				line = new StringBuilder("\t\t\t" + item.substring(1));
+			} else
+				line.append(item);
+		}
+		return sb.append(line).append('\n').toString();
+	}
+
+	// the Java expression for a symbol (the name of a command, or a string literal)
+	private static String symbolToJava(String symbol)
+	{
+		String[][] commands = { { H4Codes.SPACE, "SPACE" }, { H4Codes.BACKSPACE, "BACKSPACE" },
+				{ H4Codes.ENTER, "ENTER" }, { H4Codes.SHIFT, "SHIFT" }, { H4Codes.CAPS_LOCK, "CAPS_LOCK" },
+				{ H4Codes.SYMBOL, "SYMBOL" } };
+		for (String[] command : commands)
+			if (command[0].equals(symbol))
+				return command[1];
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < symbol.length(); ++i)
+		{
+			char c = symbol.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20 || c > 0x7e)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static class Node
+	{
+		String symbol; // null for an inner node, the reserved node, or padding
+		long weight;
+		int order; // the order of creation (to break ties)
+		Node[] children;
+
+		Node(String symbolArg, long weightArg, int orderArg)
+		{
+			symbol = symbolArg;
+			weight = weightArg;
+			order = orderArg;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		ArrayList<String> corpora = new ArrayList<String>();
+		String outFile = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double minimum = DEFAULT_MINIMUM;
+		for (int i = 0; i < args.length; ++i)
+		{
+			if (args[i].equals("-m") && i + 1 < args.length)
+			{
+				try
+				{
+					minimum = Double.parseDouble(args[++i]);
+				} catch (NumberFormatException e)
+				{
+					minimum = Double.NaN;
+				}
+			} else if (args[i].equals("-o") && i + 1 < args.length)
+				outFile = args[++i];
+			else if (args[i].equals("-t") && i + 1 < args.length)
+			{
+				try
+				{
+					threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e)
+				{
+					threads = 0;
+				}
+			} else
+				corpora.add(args[i]);
+		}
+		if (corpora.isEmpty() || threads < 1 || !(minimum >= 0.0 && minimum <= 100.0))
+		{
+			System.out.println("usage: java HuffmanCodeGenerator corpus... [-m minimum] [-o codes.txt] [-t threads]");
+			System.exit(0);
+		}
+
+		int n = corpora.size();
+		long[][] counts = new long[n][];
+		String[][][] layouts = new String[n][][];
+		PrintWriter out = outFile != null ? new PrintWriter(new FileWriter(outFile)) : null;
+		for (int i = 0; i < n; ++i)
+		{
+			String corpus = corpora.get(i);
+			long t0 = System.nanoTime();
+			InputStream in = new FileInputStream(corpus);
+			try
+			{
+				counts[i] = countCharacters(in, threads);
+			} finally
+			{
+				in.close();
+			}
+			long t1 = System.nanoTime();
+			layouts[i] = generate(counts[i], minimum);
+
+			double megabytes = new File(corpus).length() / 1e6;
+			System.out.printf(Locale.US, "// %s (%.1f MB counted in %.2f s, %.0f MB/s, %d threads)\n", corpus,
+					megabytes, (t1 - t0) / 1e9, megabytes / ((t1 - t0) / 1e9), threads);
+			String java = toJava(layouts[i], "LETTER_CODES");
+			System.out.print(java);
+			if (out != null)
+				out.print("// " + corpus + "\n" + java + "\n");
+		}
+		if (out != null)
+			out.close();
+
+		// the expected KSPC of each layout on each corpus
+		System.out.println();
+		System.out.print("KSPC");
+		for (int j = 0; j < n; ++j)
+			System.out.print("\t" + corpora.get(j));
+		System.out.println();
+		for (int i = -1; i < n; ++i)
+		{
+			String[][] layout = i == -1 ? H4Codes.LETTER_CODES : layouts[i];
+			System.out.print(i == -1 ? "H4Codes.LETTER_CODES" : "generated from " + corpora.get(i));
+			for (int j = 0; j < n; ++j)
+				System.out.printf(Locale.US, "\t%.4f", getKSPC(layout, counts[j]));
+			System.out.println();
+		}
+	}
+}
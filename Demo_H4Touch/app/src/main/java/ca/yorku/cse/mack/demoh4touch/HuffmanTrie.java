@@ -0,0 +1,194 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * HuffmanTrie -- a Huffman code table (e.g., <code>H4Codes.LETTER_CODES</code>) compiled into a 4-ary trie.
+ * <p>
+ *
+ * Each node in the trie is a partial code (a "stem"). A node has one child for each of the four keys (0-3). The
+ * leaves hold the symbols. Entering a code is a walk from the root, one key at a time: <code>next(node, key)</code>
+ * returns the child for the key (or -1 if no code begins that way), and <code>isLeaf</code> tells whether the code is
+ * complete. Each step is a single array index, so a keystroke costs the same no matter how large the code table grows.
+ * <p>
+ *
+ * The nodes are stored in flat arrays and identified by an <code>int</code>. The symbol (and its uppercase form) for
+ * each leaf and the stem for each node are computed when the trie is built, so walking the trie never allocates.
+ * <p>
+ *
+ * The key labels for each node are also computed when the trie is built. The label for a key lists the symbols
+ * reachable by pressing the key next (e.g., "r d m b v k x j q z" for key 2 at stem "3"). Updating the keyboard after a
+ * keystroke is then just a matter of fetching the labels for the new node (see <code>getLabels</code>).
+ */
+class HuffmanTrie
+{
+	/**
+	 * The root node (the empty stem).
+	 */
+	final static int ROOT = 0;
+
+	final static int KEYS = 4;
+
+	final String[][] codes; // the code table (symbol, code) the trie was built from
+
+	private int[] children; // KEYS entries per node (-1 = no child)
+	private String[] symbols; // the symbol at each leaf (null for an inner node)
+	private String[] shiftedSymbols; // as above, but uppercase (commands, e.g., "[Space]", are unchanged)
+	private String[] stems; // the (partial) code for each node
+	private String[][] labels; // the KEYS key labels for each node
+	private String[][] shiftedLabels; // as above, but uppercase
+	private int size;
+
+	/**
+	 * Build a trie from a code table.
+	 *
+	 * @param codesArg
+	 *            an array of {symbol, code} pairs, where each code is a string of the digits 0-3
+	 * @throws IllegalArgumentException
+	 *             if a code contains a character other than 0-3, or if the codes are not prefix free
+	 */
+	HuffmanTrie(String[][] codesArg)
+	{
+		codes = codesArg;
+		children = new int[16 * KEYS];
+		symbols = new String[16];
+		shiftedSymbols = new String[16];
+		stems = new String[16];
+		addNode("");
+
+		for (int i = 0; i < codes.length; ++i)
+		{
+			String symbol = codes[i][0];
+			String code = codes[i][1];
+			if (code.length() == 0)
+				throw new IllegalArgumentException("Empty code for " + symbol);
+
+			int node = ROOT;
+			for (int j = 0; j < code.length(); ++j)
+			{
+				int key = code.charAt(j) - '0';
+				if (key < 0 || key >= KEYS)
+					throw new IllegalArgumentException("Bad code for " + symbol + ": " + code);
+				if (symbols[node] != null)
+					throw new IllegalArgumentException("Code for " + symbols[node] + " is a prefix of " + code);
+				if (children[node * KEYS + key] == -1)
+				{
+					int child = addNode(code.substring(0, j + 1));
+					children[node * KEYS + key] = child;
+				}
+				node = children[node * KEYS + key];
+			}
+
+			if (symbols[node] != null || hasChildren(node))
+				throw new IllegalArgumentException("Code for " + symbol + " is not prefix free: " + code);
+			symbols[node] = symbol;
+			shiftedSymbols[node] = symbol.charAt(0) == '[' ? symbol : symbol.toUpperCase(Locale.US);
+		}
+
+		// the key labels for each node (the symbols below each child, in code table order)
+		labels = new String[size][];
+		shiftedLabels = new String[size][];
+		for (int node = 0; node < size; ++node)
+		{
+			labels[node] = new String[KEYS];
+			shiftedLabels[node] = new String[KEYS];
+			for (int key = 0; key < KEYS; ++key)
+			{
+				String stem = stems[node] + key;
+				StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < codes.length; ++i)
+				{
+					if (codes[i][1].startsWith(stem))
+						sb.append(codes[i][0]).append(' ');
+				}
+				labels[node][key] = sb.toString().trim();
+				shiftedLabels[node][key] = labels[node][key].toUpperCase(Locale.US);
+			}
+		}
+	}
+
+	/**
+	 * Returns the child of a node for a key, or -1 if no code begins with the node's stem followed by the key.
+	 */
+	int next(int node, int key)
+	{
+		if (key < 0 || key >= KEYS)
+			return -1;
+		return children[node * KEYS + key];
+	}
+
+	/**
+	 * Returns true if the node is a complete code.
+	 */
+	boolean isLeaf(int node)
+	{
+		return symbols[node] != null;
+	}
+
+	/**
+	 * Returns the symbol for a leaf (or null for an inner node).
+	 */
+	String getSymbol(int node)
+	{
+		return symbols[node];
+	}
+
+	/**
+	 * Returns the uppercase symbol for a leaf (or null for an inner node). Commands (e.g., "[Space]") are not
+	 * converted.
+	 */
+	String getShiftedSymbol(int node)
+	{
+		return shiftedSymbols[node];
+	}
+
+	/**
+	 * Returns the (partial) code for a node, e.g., "32" (the root is "").
+	 */
+	String getStem(int node)
+	{
+		return stems[node];
+	}
+
+	/**
+	 * Returns the labels for the four keys at a node (the array is shared, so it must not be modified).
+	 *
+	 * @param shifted
+	 *            if true, the labels are in uppercase (as shown when SHIFT or CAPS_LOCK is on)
+	 */
+	String[] getLabels(int node, boolean shifted)
+	{
+		return shifted ? shiftedLabels[node] : labels[node];
+	}
+
+	/**
+	 * Returns the number of nodes in the trie.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	private int addNode(String stem)
+	{
+		if (size == stems.length)
+		{
+			children = Arrays.copyOf(children, 2 * children.length);
+			symbols = Arrays.copyOf(symbols, 2 * symbols.length);
+			shiftedSymbols = Arrays.copyOf(shiftedSymbols, 2 * shiftedSymbols.length);
+			stems = Arrays.copyOf(stems, 2 * stems.length);
+		}
+		Arrays.fill(children, size * KEYS, (size + 1) * KEYS, -1);
+		stems[size] = stem;
+		return size++;
+	}
+
+	private boolean hasChildren(int node)
+	{
+		for (int key = 0; key < KEYS; ++key)
+			if (children[node * KEYS + key] != -1)
+				return true;
+		return false;
+	}
+}
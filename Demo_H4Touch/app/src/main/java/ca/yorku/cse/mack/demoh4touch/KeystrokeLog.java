@@ -0,0 +1,292 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * KeystrokeLog -- a compact binary format for logging the keystrokes on an <code>H4Keyboard</code>.
+ * <p>
+ *
+ * A keystroke log begins with a five-byte header (the characters "H4KS" followed by a version byte). The header is
+ * followed by one record per keystroke. All integers are written as variable-length integers (7 bits per byte,
+ * least-significant group first, high bit set on all but the last byte). Signed values are first zigzag-encoded, so
+ * small negative values are also short. The fields in a record are...
+ * <p>
+ *
+ * <pre>
+ *     type       - one byte: bits 0-2 are the key + 2 (0 = reset, 1 = outside the keys, 2-5 = keys 0-3),
+ *                  bit 3 is set if a symbol follows, bit 4 is set if the time is absolute (see below)
+ *     time       - nanoseconds, as a (signed) difference from the previous record's time, or the time itself
+ *     x, y       - the touch point, in pixels (signed; not present for a reset)
+ *     symbol     - the symbol entered, if any (length, followed by UTF-8 bytes)
+ * </pre>
+ *
+ * A reset record marks the return of the keyboard to its initial state (e.g., when the text is cleared), so a replay
+ * knows to reset its decoder. A typical keystroke is about 10 bytes.
+ * <p>
+ *
+ * A log may hold several sessions, since the app appends to it each time it runs. The first record written by each
+ * <code>Writer</code> has an absolute time (System.nanoTime is only comparable within one run, so there is no
+ * previous time to take a difference from), and the rest are differences within that session. (The keyboard also
+ * records a reset when it is connected to a recorder, so each session begins in the initial state.)
+ * <p>
+ *
+ * A log that was cut short (e.g., the app was killed in the middle of a write) is read up to the last complete
+ * record.
+ */
+class KeystrokeLog
+{
+	/**
+	 * The key for a reset record (see above).
+	 */
+	final static int RESET = -2;
+
+	private final static byte[] MAGIC = { 'H', '4', 'K', 'S' };
+	private final static int VERSION = 2;
+	private final static int HAS_SYMBOL = 0x08;
+	private final static int ABSOLUTE_TIME = 0x10;
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Returns true if the specified file is a keystroke log in the current version (i.e., a log that can be appended
+	 * to). A missing file, or one in an older version, should be replaced by a new log.
+	 */
+	static boolean isCurrentLog(File file)
+	{
+		if (!file.isFile())
+			return false;
+		try
+		{
+			InputStream in = new FileInputStream(file);
+			try
+			{
+				for (byte m : MAGIC)
+					if (in.read() != m)
+						return false;
+				return in.read() == VERSION;
+			} finally
+			{
+				in.close();
+			}
+		} catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Keystroke -- one record in a keystroke log.
+	 */
+	static class Keystroke
+	{
+		long time; // nanoseconds (System.nanoTime)
+		int key; // 0-3, -1 (outside the keys), or RESET
+		int x, y;
+		String symbol; // the symbol entered (null if the keystroke did not complete a code)
+
+		Keystroke(long timeArg, int keyArg, int xArg, int yArg, String symbolArg)
+		{
+			time = timeArg;
+			key = keyArg;
+			x = xArg;
+			y = yArg;
+			symbol = symbolArg;
+		}
+	}
+
+	/**
+	 * Writer -- writes a keystroke log to an output stream (not thread safe).
+	 */
+	static class Writer
+	{
+		private OutputStream out;
+		private long previousTime;
+		private boolean sessionStarted; // false until the first record (which has an absolute time)
+
+		/**
+		 * @param outArg
+		 *            the stream to write to (should be buffered)
+		 * @param writeHeader
+		 *            true to write the header (i.e., at the beginning of a new log)
+		 */
+		Writer(OutputStream outArg, boolean writeHeader) throws IOException
+		{
+			out = outArg;
+			if (writeHeader)
+			{
+				out.write(MAGIC);
+				out.write(VERSION);
+			}
+		}
+
+		void write(long time, int key, float x, float y, String symbol) throws IOException
+		{
+			boolean absolute = !sessionStarted;
+			out.write((key + 2) | (symbol != null ? HAS_SYMBOL : 0) | (absolute ? ABSOLUTE_TIME : 0));
+			writeSigned(absolute ? time : time - previousTime);
+			previousTime = time;
+			sessionStarted = true;
+			if (key != RESET)
+			{
+				writeSigned(Math.round(x));
+				writeSigned(Math.round(y));
+			}
+			if (symbol != null)
+			{
+				byte[] b = symbol.getBytes(UTF8);
+				writeUnsigned(b.length);
+				out.write(b);
+			}
+		}
+
+		void flush() throws IOException
+		{
+			out.flush();
+		}
+
+		void close() throws IOException
+		{
+			out.close();
+		}
+
+		private void writeSigned(long v) throws IOException
+		{
+			writeUnsigned((v << 1) ^ (v >> 63)); // zigzag
+		}
+
+		private void writeUnsigned(long v) throws IOException
+		{
+			while ((v & ~0x7fL) != 0)
+			{
+				out.write((int)((v & 0x7f) | 0x80));
+				v >>>= 7;
+			}
+			out.write((int)v);
+		}
+	}
+
+	/**
+	 * Reader -- reads a keystroke log from an input stream, one <code>Keystroke</code> at a time.
+	 */
+	static class Reader implements Iterator<Keystroke>
+	{
+		private InputStream in;
+		private long previousTime;
+		private Keystroke next;
+
+		/**
+		 * @param inArg
+		 *            the stream to read from (should be buffered)
+		 */
+		Reader(InputStream inArg) throws IOException
+		{
+			in = inArg;
+			for (byte m : MAGIC)
+				if (in.read() != m)
+					throw new IOException("Not a keystroke log");
+			int version = in.read();
+			if (version != VERSION)
+				throw new IOException("Unsupported keystroke log version: " + version);
+			next = readRecord();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+
+		@Override
+		public Keystroke next()
+		{
+			if (next == null)
+				throw new NoSuchElementException();
+			Keystroke k = next;
+			next = readRecord();
+			return k;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		void close() throws IOException
+		{
+			in.close();
+		}
+
+		// returns null at the end of the log (or at a truncated record)
+		private Keystroke readRecord()
+		{
+			try
+			{
+				int type = in.read();
+				if (type == -1)
+					return null; // clean end of log
+				int key = (type & 0x07) - 2;
+				long t = unzigzag(readUnsigned());
+				long time = (type & ABSOLUTE_TIME) != 0 ? t : previousTime + t;
+				previousTime = time;
+				int x = 0, y = 0;
+				if (key != RESET)
+				{
+					x = (int)unzigzag(readUnsigned());
+					y = (int)unzigzag(readUnsigned());
+				}
+				String symbol = null;
+				if ((type & HAS_SYMBOL) != 0)
+				{
+					byte[] b = new byte[(int)readUnsigned()];
+					readFully(b);
+					symbol = new String(b, UTF8);
+				}
+				return new Keystroke(time, key, x, y, symbol);
+			} catch (IOException e)
+			{
+				return null; // truncated record
+			}
+		}
+
+		private long readUnsigned() throws IOException
+		{
+			long v = 0;
+			int shift = 0;
+			while (true)
+			{
+				int b = in.read();
+				if (b == -1)
+					throw new EOFException();
+				v |= (long)(b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return v;
+				shift += 7;
+			}
+		}
+
+		private void readFully(byte[] b) throws IOException
+		{
+			int offset = 0;
+			while (offset < b.length)
+			{
+				int count = in.read(b, offset, b.length - offset);
+				if (count == -1)
+					throw new EOFException();
+				offset += count;
+			}
+		}
+
+		private static long unzigzag(long v)
+		{
+			return (v >>> 1) ^ -(v & 1);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * KeystrokeRecorder -- records the keystrokes on an <code>H4Keyboard</code> to a keystroke log file.
+ * <p>
+ *
+ * The recorder is attached to an <code>H4Keyboard</code> (see <code>setKeystrokeRecorder</code>). For each key press,
+ * the keyboard passes the key, the touch point, the time (<code>System.nanoTime</code>), and the symbol entered (if
+ * any) to <code>record</code>. The values are stored in a ring buffer that is allocated when the recorder is created,
+ * so recording a keystroke on the UI thread never allocates and never waits on the disk. (The symbols are the strings
+ * held in the code trees, so they are not copied either.)
+ * <p>
+ *
+ * The ring buffer is drained on a single background thread, which encodes the keystrokes (see
+ * <code>KeystrokeLog</code>) and appends them to the file. A drain is requested every <code>DRAIN_INTERVAL</code>
+ * keystrokes, and on <code>flush</code> and <code>close</code>. The UI thread is the only writer of the buffer and the
+ * background thread the only reader, so the two need no lock, just the two volatile counters. If the disk falls so far
+ * behind that the buffer fills, further keystrokes are dropped (and counted) rather than blocking the UI thread.
+ * (At typing speed, the buffer holds a couple of minutes of keystrokes, so this should not happen in practice. A
+ * replay of a log with a gap reports mismatches after the gap.)
+ * <p>
+ *
+ * A log may be replayed off the device with <code>KeystrokeReplay</code>.
+ */
+public class KeystrokeRecorder
+{
+	private final static String MYDEBUG = "MYDEBUG"; // for Log.i messages
+	private final static int CAPACITY = 1024; // must be a power of two
+	private final static int DRAIN_INTERVAL = 64;
+
+	// the ring buffer (slot i holds keystroke number i % CAPACITY)
+	private final long[] times = new long[CAPACITY];
+	private final int[] keys = new int[CAPACITY];
+	private final float[] xs = new float[CAPACITY];
+	private final float[] ys = new float[CAPACITY];
+	private final String[] symbols = new String[CAPACITY];
+
+	private volatile long head; // the number of keystrokes recorded (written by the UI thread only)
+	private volatile long tail; // the number of keystrokes written (written by the background thread only)
+	private long drainRequested; // the value of head at the last drain request (UI thread only)
+	private volatile int dropped;
+
+	private ExecutorService executor;
+	private KeystrokeLog.Writer writer;
+	private Runnable drainTask;
+
+	/**
+	 * Construct a recorder that appends to the specified file (creating it, if necessary).
+	 */
+	public KeystrokeRecorder(final File file)
+	{
+		executor = Executors.newSingleThreadExecutor();
+		drainTask = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				drain();
+			}
+		};
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					// a missing log, or one in an older version, is replaced by a new log
+					boolean newLog = !KeystrokeLog.isCurrentLog(file);
+					writer = new KeystrokeLog.Writer(new BufferedOutputStream(new FileOutputStream(file, !newLog)),
+							newLog);
+				} catch (IOException e)
+				{
+					Log.i(MYDEBUG, "Can't open keystroke log: " + e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Record a keystroke (UI thread only).
+	 *
+	 * @param time
+	 *            the time of the keystroke (System.nanoTime)
+	 * @param key
+	 *            the key (0-3), or -1 if the touch was outside the keys
+	 * @param symbol
+	 *            the symbol entered, or null if the keystroke did not complete a code
+	 */
+	public void record(long time, int key, float x, float y, String symbol)
+	{
+		long h = head;
+		if (h - tail == CAPACITY)
+		{
+			++dropped; // the buffer is full
+			return;
+		}
+		int i = (int)(h & (CAPACITY - 1));
+		times[i] = time;
+		keys[i] = key;
+		xs[i] = x;
+		ys[i] = y;
+		symbols[i] = symbol;
+		head = h + 1; // publish the slot (a volatile write, so the slot is visible to the background thread)
+
+		if (h + 1 - drainRequested >= DRAIN_INTERVAL)
+			requestDrain();
+	}
+
+	/**
+	 * Record a return of the keyboard to its initial state (UI thread only).
+	 */
+	public void recordReset()
+	{
+		record(System.nanoTime(), KeystrokeLog.RESET, 0f, 0f, null);
+	}
+
+	/**
+	 * Write the keystrokes recorded so far (in the background). Call this, e.g., from an Activity's onPause.
+	 */
+	public void flush()
+	{
+		requestDrain();
+	}
+
+	/**
+	 * Write any pending keystrokes, close the log, and stop the background thread.
+	 */
+	public void close()
+	{
+		requestDrain();
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (dropped > 0)
+					Log.i(MYDEBUG, "Keystroke log: " + dropped + " keystrokes dropped (buffer full)");
+				if (writer == null)
+					return;
+				try
+				{
+					writer.close();
+				} catch (IOException e)
+				{
+					Log.i(MYDEBUG, "Can't close keystroke log: " + e);
+				}
+				writer = null;
+			}
+		});
+		executor.shutdown();
+	}
+
+	private void requestDrain()
+	{
+		drainRequested = head;
+		executor.execute(drainTask);
+	}
+
+	// write the keystrokes between tail and head (background thread only)
+	private void drain()
+	{
+		long t = tail;
+		long h = head;
+		try
+		{
+			for (; t < h; ++t)
+			{
+				int i = (int)(t & (CAPACITY - 1));
+				if (writer != null)
+					writer.write(times[i], keys[i], xs[i], ys[i], symbols[i]);
+				symbols[i] = null;
+			}
+			if (writer != null)
+				writer.flush();
+		} catch (IOException e)
+		{
+			Log.i(MYDEBUG, "Can't write keystroke log: " + e);
+			t = h; // skip the rest (rather than trying them again)
+		}
+		tail = t; // release the slots
+	}
+}
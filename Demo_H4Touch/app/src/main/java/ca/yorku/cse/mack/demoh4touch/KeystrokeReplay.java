@@ -0,0 +1,177 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * KeystrokeReplay -- replays a keystroke log through the H4 state machine, off the device.
+ * <p>
+ *
+ * Each keystroke in the log (see <code>KeystrokeRecorder</code>) is fed to an <code>H4Decoder</code>, just as the
+ * <code>H4Keyboard</code> does on the device, and the symbol the decoder produces is checked against the symbol
+ * logged. A mismatch means the state machine (or a code table) no longer behaves as it did when the log was recorded,
+ * so a log of a real session doubles as a regression test.
+ * <p>
+ *
+ * The replay reports
+ * <p>
+ *
+ * <ul>
+ * <li>the processing time per keystroke (the decoder step plus fetching the stem and the key labels, i.e., the work
+ * done for a key press on the UI thread, less the drawing), from the last of the passes
+ * <li>the entry rate (words per minute) and keystrokes per character (KSPC), from the timestamps in the log
+ * </ul>
+ * <p>
+ *
+ * For the entry rate, the log is split into sessions at each reset (e.g., when the text is cleared). The text for a
+ * session is built from the symbols as <code>DemoH4TouchActivity</code> builds it (SPACE adds a space, BACKSPACE
+ * removes a character, ENTER is ignored). The time for a session is from the first keystroke to the last. A "word" is
+ * five characters, and the first character of each session is not counted (its time is not known).
+ * <p>
+ *
+ * Invocation (with the app's classes on the class path; <code>android.jar</code> is not needed, since the decoder and
+ * the code tables, in <code>H4Codes</code>, have no user interface):
+ * <p>
+ *
+ * <pre>
+ *     PROMPT>java KeystrokeReplay log [passes]
+ * </pre>
+ *
+ * The log is replayed <code>passes</code> times (at least 1; default 5). The exit status is 1 if any symbol did not
+ * match.
+ */
+public class KeystrokeReplay
+{
+	public static void main(String[] args) throws IOException
+	{
+		int passes = 5;
+		try
+		{
+			if (args.length > 1)
+				passes = Integer.parseInt(args[1]);
+		} catch (NumberFormatException e)
+		{
+			passes = 0;
+		}
+		if (args.length < 1 || passes < 1)
+		{
+			System.out.println("usage: java KeystrokeReplay log [passes] (passes >= 1)");
+			System.exit(0);
+		}
+
+		ArrayList<KeystrokeLog.Keystroke> log = new ArrayList<KeystrokeLog.Keystroke>();
+		KeystrokeLog.Reader reader = new KeystrokeLog.Reader(new BufferedInputStream(new FileInputStream(args[0])));
+		while (reader.hasNext())
+			log.add(reader.next());
+		reader.close();
+		KeystrokeLog.Keystroke[] keystrokes = log.toArray(new KeystrokeLog.Keystroke[log.size()]);
+
+		// replay (the early passes warm up the JIT; the times are from the last pass)
+		long[] nanos = new long[keystrokes.length];
+		int n = 0, mismatches = 0;
+		for (int pass = 0; pass < passes; ++pass)
+		{
+			H4Decoder decoder = new H4Decoder();
+			n = 0;
+			mismatches = 0;
+			for (KeystrokeLog.Keystroke k : keystrokes)
+			{
+				if (k.key == KeystrokeLog.RESET)
+				{
+					decoder.reset();
+					continue;
+				}
+				long t0 = System.nanoTime();
+				String symbol = decoder.key(k.key);
+				decoder.getStem();
+				decoder.getLabels();
+				nanos[n++] = System.nanoTime() - t0;
+
+				if (symbol == null ? k.symbol != null : !symbol.equals(k.symbol))
+				{
+					if (pass == 0 && mismatches < 10)
+						System.out.println("MISMATCH at keystroke " + n + ": logged " + k.symbol + ", replayed "
+								+ symbol);
+					++mismatches;
+				}
+			}
+		}
+
+		System.out.println("Keystrokes: " + n + " (" + keystrokes.length + " records)");
+		System.out.println("Mismatches: " + mismatches);
+		if (n > 0)
+		{
+			long[] sorted = Arrays.copyOf(nanos, n);
+			Arrays.sort(sorted);
+			System.out.printf("Processing time per keystroke (ns): p50=%d p90=%d p99=%d max=%d\n",
+					percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[n - 1]);
+		}
+		printEntryRate(keystrokes);
+		if (mismatches > 0)
+			System.exit(1);
+	}
+
+	// the entry rate and KSPC, over the sessions in the log
+	private static void printEntryRate(KeystrokeLog.Keystroke[] keystrokes)
+	{
+		int sessions = 0;
+		long totalKeystrokes = 0, totalCharacters = 0, totalNanos = 0;
+		StringBuilder text = new StringBuilder();
+		int count = 0;
+		long first = 0, last = 0;
+		for (int i = 0; i <= keystrokes.length; ++i)
+		{
+			KeystrokeLog.Keystroke k = i < keystrokes.length ? keystrokes[i] : null;
+			if (k == null || k.key == KeystrokeLog.RESET)
+			{
+				// end of a session (only sessions with some text and a measurable time are counted)
+				if (text.length() > 1 && last > first)
+				{
+					++sessions;
+					totalKeystrokes += count;
+					totalCharacters += text.length();
+					totalNanos += last - first;
+				}
+				text.setLength(0);
+				count = 0;
+				continue;
+			}
+
+			if (count == 0)
+				first = k.time;
+			last = k.time;
+			++count;
+			if (k.symbol == null || k.symbol.equals(H4Codes.ENTER))
+				continue;
+			if (k.symbol.equals(H4Codes.SPACE))
+				text.append(' ');
+			else if (k.symbol.equals(H4Codes.BACKSPACE))
+			{
+				if (text.length() > 0)
+					text.setLength(text.length() - 1);
+			} else
+				text.append(k.symbol);
+		}
+
+		if (sessions == 0)
+		{
+			System.out.println("Entry rate: no sessions with text");
+			return;
+		}
+		double seconds = totalNanos / 1e9;
+		double wpm = (totalCharacters - sessions) / seconds * 60.0 / 5.0;
+		double kspc = (double)totalKeystrokes / totalCharacters;
+		System.out.printf("Sessions: %d, characters: %d, time: %.1f s\n", sessions, totalCharacters, seconds);
+		System.out.printf("Entry rate: %.2f wpm, KSPC: %.4f\n", wpm, kspc);
+	}
+
+	// the p-th percentile of a sorted array
+	private static long percentile(long[] sorted, double p)
+	{
+		int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+}
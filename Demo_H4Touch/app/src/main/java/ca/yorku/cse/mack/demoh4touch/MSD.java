@@ -1,5 +1,9 @@
 package ca.yorku.cse.mack.demoh4touch;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
 /**
  * MSD -- Minimum String Distance -- a class to generate various statistics related to the lexical distance between two
  * strings. Includes a main method as a demonstration.
@@ -71,7 +75,10 @@ package ca.yorku.cse.mack.demoh4touch;
 public class MSD
 {
 	private final String s1, s2;
-	private int[][] d;
+	private final int msd;
+	private int[][] d; // the full MSD matrix (built only when needed; see getMatrix)
+	private boolean alignmentsCounted;
+	private double alignmentCount, alignmentSizeTotal; // see countAlignments
 
 	/**
 	 * Create an MSD object.
@@ -85,7 +92,93 @@ public class MSD
 	{
 		s1 = s1Arg;
 		s2 = s2Arg;
-		buildMatrix();
+		msd = distance(s1, s2);
+	}
+
+	/**
+	 * Returns the minimum string distance between two strings.
+	 * 
+	 * Only two rows of the MSD matrix are kept, so the memory needed is proportional to the length of
+	 * <code>s2</code>, rather than the product of the lengths. Use this (or <code>getMSD</code>) when the alignments
+	 * are not needed.
+	 * <p>
+	 * 
+	 * @param s1
+	 *            the 1st text string (the "presented" text)
+	 * @param s2
+	 *            the 2nd text string (the "transcribed" text)
+	 * @return the minimum string distance
+	 */
+	public static int distance(String s1, String s2)
+	{
+		// the distance never exceeds the length of the longer string, so this bound is never reached
+		return distance(s1, s2, Math.max(s1.length(), s2.length()));
+	}
+
+	/**
+	 * Returns the minimum string distance between two strings, if it is no more than a bound.
+	 * 
+	 * This is Ukkonen's banded algorithm. A cell in the MSD matrix more than <code>bound</code> cells from the
+	 * diagonal must hold a value greater than <code>bound</code>, so only the band of cells within <code>bound</code>
+	 * of the diagonal is computed. The computation stops as soon as every cell in a row of the band exceeds
+	 * <code>bound</code>. The time needed is proportional to <code>bound</code> times the length of <code>s1</code>.
+	 * This is useful, for example, to find the phrases within a few errors of a transcription.
+	 * <p>
+	 * 
+	 * @param s1
+	 *            the 1st text string (the "presented" text)
+	 * @param s2
+	 *            the 2nd text string (the "transcribed" text)
+	 * @param bound
+	 *            the largest distance of interest (&ge; 0)
+	 * @return the minimum string distance, or <code>bound&nbsp;+&nbsp;1</code> if the distance exceeds
+	 *         <code>bound</code>
+	 */
+	public static int distance(String s1, String s2, int bound)
+	{
+		int n = s1.length();
+		int m = s2.length();
+		int over = bound + 1; // stands for any value greater than bound
+
+		if (Math.abs(n - m) > bound)
+			return over;
+		if (n == 0 || m == 0)
+			return Math.max(n, m);
+
+		int[] previous = new int[m + 1];
+		int[] current = new int[m + 1];
+		for (int j = 0; j <= m; ++j)
+			previous[j] = j <= bound ? j : over;
+
+		for (int i = 1; i <= n; ++i)
+		{
+			// the band for this row is columns lo to hi (cells just outside the band are set to "over")
+			int lo = Math.max(1, i - bound);
+			int hi = Math.min(m, i + bound);
+			current[lo - 1] = lo == 1 && i <= bound ? i : over;
+			int rowMinimum = current[lo - 1];
+			char c1 = s1.charAt(i - 1);
+
+			for (int j = lo; j <= hi; ++j)
+			{
+				int a = previous[j] + 1;
+				int b = current[j - 1] + 1;
+				int c = previous[j - 1] + r(c1, s2.charAt(j - 1));
+				int v = Math.min(Math.min(a, b), Math.min(c, over));
+				current[j] = v;
+				rowMinimum = Math.min(rowMinimum, v);
+			}
+			if (hi < m)
+				current[hi + 1] = over;
+
+			if (rowMinimum > bound) // the distance can only grow from here
+				return over;
+
+			int[] temp = previous;
+			previous = current;
+			current = temp;
+		}
+		return previous[m];
 	}
 
 	private static int r(char a, char b)
@@ -131,13 +224,16 @@ public class MSD
 	 * 
 	 * The number of rows in the matrix is <code>s1.length()&nbsp;+&nbsp;1</code>. The number of columns is
 	 * <code>s2.length()&nbsp;+&nbsp;1</code>. The value of the minimum string distance statistic may be retrieved from
-	 * <code>msdMatrix[s1.length()][s2.length()]</code>.
+	 * <code>msdMatrix[s1.length()][s2.length()]</code>. The matrix is built on the first call (the constructor
+	 * computes only the distance).
 	 * <p>
 	 * 
 	 * @return a two dimensional integer array containing the minimum string distance matrix.
 	 */
 	public int[][] getMatrix()
 	{
+		if (d == null)
+			buildMatrix();
 		return d;
 	}
 
@@ -155,7 +251,7 @@ public class MSD
 	 */
 	public int getMSD()
 	{
-		return d[s1.length()][s2.length()];
+		return msd;
 	}
 
 	/**
@@ -188,6 +284,7 @@ public class MSD
 	@SuppressWarnings("unused")
 	private void dumpMatrix()
 	{
+		int[][] d = getMatrix();
 		int rows = d.length;
 		int cols = d[0].length;
 
@@ -259,77 +356,87 @@ public class MSD
 		System.exit(0);
 	}
 
+	// the four ways a cell in the MSD matrix may be reached on an optimal path (in the order the alignments are listed)
+	private final static int DELETION = 0;
+	private final static int INSERTION = 1;
+	private final static int SUBSTITUTION = 2;
+	private final static int MATCH = 3;
+
 	/*
-	 * This is a helper-function used by doAlignments(). It accomplishes two things:
-	 * 
-	 * 1 - Two arrays of String Pairs are concatenated, forming the return array.
-	 * 
-	 * 2 - A character (either c1 or c2) is added to the ends of all of the first array strings, as they are copied into
-	 * the return value array. The character c1 is added to all of the presented texts, and c2 to all of the transribed
-	 * texts.
-	 * 
-	 * The second argument array is added to the result array verbatim.
+	 * Returns true if an optimal path through the 'D' matrix can reach cell (x, y) by the specified step. The steps
+	 * are from (x - 1, y - 1) for a MATCH (correct character) or SUBSTITUTION, from (x - 1, y) for an INSERTION (a
+	 * character in s1 but not s2), and from (x, y - 1) for a DELETION (a character in s2 but not s1).
 	 */
-	private static StringPair[] DoubleConcat(StringPair[] a, char c1, char c2, StringPair[] b)
+	private boolean canStep(int[][] d, int x, int y, int step)
 	{
-		int i;
-		StringPair[] returnvalue = new StringPair[a.length + b.length];
-
-		for (i = 0; i < a.length + b.length; i++)
-			returnvalue[i] = new StringPair();
-
-		for (i = 0; i < a.length; i++)
-			returnvalue[i].CopyConcat(a[i], c1, c2);
-
-		// use the quick array copy here...
-		System.arraycopy(b, 0, returnvalue, a.length, b.length);
-		// ...instead of the correct, but slower...
-		// for(i = 0; i < b.length; i++)
-		// returnvalue[i + a.length] = b[i];
-
-		return returnvalue;
+		switch (step)
+		{
+			case MATCH:
+				return x > 0 && y > 0 && d[x][y] == d[x - 1][y - 1] && s1.charAt(x - 1) == s2.charAt(y - 1);
+			case SUBSTITUTION:
+				return x > 0 && y > 0 && d[x][y] == d[x - 1][y - 1] + 1;
+			case INSERTION:
+				return x > 0 && d[x][y] == d[x - 1][y] + 1;
+			default: // DELETION
+				return y > 0 && d[x][y] == d[x][y - 1] + 1;
+		}
 	}
 
 	/*
-	 * This function does the work of producing the alignment strings. It calls by itself recursively. The idea is to
-	 * traverse the 'D' matrix, from bottom right to top left, recursing anywhere there is more than one path through
-	 * the matrix.<p>
-	 * 
-	 * This function uses the <code>DoubleConcat()</code> function above, and the <code>StringPair</code> class.
+	 * Count the optimal alignments and total their sizes, without listing them. An alignment is a path through the
+	 * 'D' matrix from (0, 0) to the bottom-right cell, one character per step. For each cell, the number of paths from
+	 * (0, 0) and the total of their lengths are computed from the cells it may be reached from (above, to the left,
+	 * and diagonally above-left), so only the current and previous rows are needed. The time is proportional to the
+	 * size of the matrix, no matter how many alignments there are.
 	 */
-	private static StringPair[] doAlignments(String s1, String s2, int[][] d, int x, int y)
+	private void countAlignments()
 	{
-		StringPair[] returnarray = new StringPair[0];
+		int[][] d = getMatrix();
+		int n = s1.length();
+		int m = s2.length();
+		double[] count = new double[m + 1], previousCount = new double[m + 1];
+		double[] size = new double[m + 1], previousSize = new double[m + 1];
 
-		if (x == 0 && y == 0)
+		for (int x = 0; x <= n; ++x)
 		{
-			returnarray = new StringPair[1];
-			returnarray[0] = new StringPair();
-			return returnarray;
-		}
-
-		if (x > 0 && y > 0)
-		{
-			// Correct (matching) characters
-			if (d[x][y] == d[x - 1][y - 1] && s1.charAt(x - 1) == s2.charAt(y - 1))
-				returnarray = DoubleConcat(doAlignments(s1, s2, d, x - 1, y - 1), s1.charAt(x - 1), s2.charAt(y - 1),
-						returnarray);
-
-			// Substitution Error
-			if (d[x][y] == d[x - 1][y - 1] + 1)
-				returnarray = DoubleConcat(doAlignments(s1, s2, d, x - 1, y - 1), s1.charAt(x - 1), s2.charAt(y - 1),
-						returnarray);
+			for (int y = 0; y <= m; ++y)
+			{
+				double c = 0.0;
+				double s = 0.0;
+				if (x == 0 && y == 0)
+					c = 1.0; // the empty alignment
+				else
+				{
+					// each path to a predecessor becomes a path to this cell, one character longer
+					if (canStep(d, x, y, MATCH) || canStep(d, x, y, SUBSTITUTION)) // (never both)
+					{
+						c += previousCount[y - 1];
+						s += previousSize[y - 1] + previousCount[y - 1];
+					}
+					if (canStep(d, x, y, INSERTION))
+					{
+						c += previousCount[y];
+						s += previousSize[y] + previousCount[y];
+					}
+					if (canStep(d, x, y, DELETION))
+					{
+						c += count[y - 1];
+						s += size[y - 1] + count[y - 1];
+					}
+				}
+				count[y] = c;
+				size[y] = s;
+			}
+			double[] temp = previousCount;
+			previousCount = count;
+			count = temp;
+			temp = previousSize;
+			previousSize = size;
+			size = temp;
 		}
-
-		// Insertion Error
-		if (x > 0 && d[x][y] == d[x - 1][y] + 1)
-			returnarray = DoubleConcat(doAlignments(s1, s2, d, x - 1, y), s1.charAt(x - 1), '-', returnarray);
-
-		// Deletion Error
-		if (y > 0 && d[x][y] == d[x][y - 1] + 1)
-			returnarray = DoubleConcat(doAlignments(s1, s2, d, x, y - 1), '-', s2.charAt(y - 1), returnarray);
-
-		return returnarray;
+		alignmentCount = previousCount[m];
+		alignmentSizeTotal = previousSize[m];
+		alignmentsCounted = true;
 	}
 
 	/**
@@ -339,11 +446,46 @@ public class MSD
 	 * substitute) are employed by the MSD algorithm. It's sort of an explanation of the 'D' matrix.
 	 * <p>
 	 * 
+	 * The number of optimal alignments can grow exponentially with the length of the strings. If only their number or
+	 * mean size is needed, use <code>getAlignmentCount</code> or <code>meanAlignmentSize</code>. To process the
+	 * alignments one at a time, use <code>alignmentIterator</code>.
+	 * <p>
+	 * 
 	 * @return an array of <code>StringPair</code>s containing pairs of alignment strings
 	 */
 	public StringPair[] getAlignments()
 	{
-		return doAlignments(s1, s2, d, s1.length(), s2.length());
+		ArrayList<StringPair> alignments = new ArrayList<StringPair>();
+		Iterator<StringPair> it = alignmentIterator();
+		while (it.hasNext())
+			alignments.add(it.next());
+		return alignments.toArray(new StringPair[alignments.size()]);
+	}
+
+	/**
+	 * Returns an iterator over the optimal alignments, in the same order as <code>getAlignments</code>.
+	 * 
+	 * The alignments are generated one at a time, as needed (by a depth-first walk through the 'D' matrix), so the
+	 * memory needed is proportional to the length of the strings, not the number of alignments.
+	 * <p>
+	 */
+	public Iterator<StringPair> alignmentIterator()
+	{
+		return new AlignmentIterator(getMatrix());
+	}
+
+	/**
+	 * Returns the number of optimal alignments (the length of the array returned by <code>getAlignments</code>).
+	 * 
+	 * The alignments are counted, not listed (see <code>countAlignments</code>), so this is fast even when there are
+	 * millions of alignments. The count is a <code>double</code>, since it can exceed the range of a
+	 * <code>long</code> for long strings with many errors.
+	 */
+	public double getAlignmentCount()
+	{
+		if (!alignmentsCounted)
+			countAlignments();
+		return alignmentCount;
 	}
 
 	/**
@@ -351,11 +493,9 @@ public class MSD
 	 */
 	public double meanAlignmentSize()
 	{
-		StringPair[] sp = getAlignments();
-		double n = 0.0;
-		for (int i = 0; i < sp.length; ++i)
-			n += sp[i].s1.length();
-		return n / sp.length;
+		if (!alignmentsCounted)
+			countAlignments();
+		return alignmentSizeTotal / alignmentCount;
 	}
 
 	/**
@@ -370,4 +510,99 @@ public class MSD
 	{
 		return getMSD() / meanAlignmentSize() * 100.0;
 	}
+
+	/*
+	 * Generate the optimal alignments one at a time. The path from the bottom-right cell of the 'D' matrix back to
+	 * (0, 0) is kept on a stack, along with the next step to try from each cell. Each time (0, 0) is reached, the
+	 * characters along the path (collected in reverse) form the next alignment.
+	 */
+	private class AlignmentIterator implements Iterator<StringPair>
+	{
+		private final int[][] d;
+		private final int[] xs, ys; // the cells along the current path (xs[0], ys[0] is the bottom-right cell)
+		private final int[] nextStep; // the next step to try from each cell on the path
+		private final char[] c1, c2; // the alignment characters for the step taken from each cell
+		private int depth; // the index of the last cell on the path (-1 when there are no more alignments)
+		private StringPair next; // the next alignment (null if not yet generated)
+
+		AlignmentIterator(int[][] dArg)
+		{
+			d = dArg;
+			int maxPath = s1.length() + s2.length() + 1;
+			xs = new int[maxPath];
+			ys = new int[maxPath];
+			nextStep = new int[maxPath];
+			c1 = new char[maxPath];
+			c2 = new char[maxPath];
+			xs[0] = s1.length();
+			ys[0] = s2.length();
+			nextStep[0] = DELETION;
+			depth = 0;
+		}
+
+		public boolean hasNext()
+		{
+			if (next == null)
+				next = advance();
+			return next != null;
+		}
+
+		public StringPair next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			StringPair sp = next;
+			next = null;
+			return sp;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		// extend the path until it reaches (0, 0), backing up from dead ends (returns null when done)
+		private StringPair advance()
+		{
+			while (depth >= 0)
+			{
+				int x = xs[depth];
+				int y = ys[depth];
+				if (x == 0 && y == 0)
+				{
+					// the path is complete: the characters were collected from the end, so reverse them
+					StringPair sp = new StringPair();
+					StringBuilder sb1 = new StringBuilder(depth);
+					StringBuilder sb2 = new StringBuilder(depth);
+					for (int i = depth - 1; i >= 0; --i)
+					{
+						sb1.append(c1[i]);
+						sb2.append(c2[i]);
+					}
+					sp.s1 = sb1.toString();
+					sp.s2 = sb2.toString();
+					--depth;
+					return sp;
+				}
+
+				int step = nextStep[depth];
+				while (step <= MATCH && !canStep(d, x, y, step))
+					++step;
+				if (step > MATCH) // no more steps from this cell
+				{
+					--depth;
+					continue;
+				}
+				nextStep[depth] = step + 1;
+
+				c1[depth] = step == DELETION ? '-' : s1.charAt(x - 1);
+				c2[depth] = step == INSERTION ? '-' : s2.charAt(y - 1);
+				xs[depth + 1] = step == DELETION ? x : x - 1;
+				ys[depth + 1] = step == INSERTION ? y : y - 1;
+				nextStep[depth + 1] = DELETION;
+				++depth;
+			}
+			return null;
+		}
+	}
 }
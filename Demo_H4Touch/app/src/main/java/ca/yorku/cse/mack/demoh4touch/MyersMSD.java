@@ -0,0 +1,292 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * MyersMSD -- a bit-parallel engine for the minimum string distance (MSD) between two strings.
+ * <p>
+ *
+ * The result is the same as <code>MSD.getMSD</code>, but the computation uses Myers' bit-vector algorithm (in the
+ * form given by Hyyr&ouml;, for the global edit distance). Rather than computing the MSD matrix cell by cell, a column
+ * of the matrix is encoded as bit vectors of the vertical differences (+1, 0, or -1) between adjacent cells, and the
+ * next column is computed from the last with a handful of bitwise operations and one addition. The shorter string is
+ * the "pattern". If it has up to 64 characters, a column fits in one <code>long</code>. Longer patterns are split into
+ * blocks of 64 characters, with the horizontal difference at the bottom of each block carried into the next.
+ * <p>
+ *
+ * The references are
+ * <p>
+ *
+ * <ul>
+ * <li>Myers, G. (1999). A fast bit-vector algorithm for approximate string matching based on dynamic programming.
+ * <i>Journal of the ACM, 46</i>, 395-415.
+ *
+ * <li>Hyyr&ouml;, H. (2001). <i>Explaining and extending the bit-parallel approximate string matching algorithm of
+ * Myers</i> (Technical report A-2001-10). University of Tampere.
+ * </ul>
+ * <p>
+ *
+ * A <code>MyersMSD</code> object keeps its work arrays from one call to the next, so scoring many pairs allocates
+ * (almost) nothing. For the same reason, an object must not be shared between threads; use one per thread.
+ * <p>
+ *
+ * The <code>main</code> method checks the engine against <code>MSD</code> on random string pairs and reports the
+ * speed of both:
+ *
+ * <pre>
+ *     PROMPT>java MyersMSD [pairs]
+ * </pre>
+ */
+public class MyersMSD
+{
+	private final static int WORD = 64;
+	private final static int ALPHABET = 256; // characters below this have a direct entry in peq
+
+	private long[] peq; // for each character c < ALPHABET, the pattern positions holding c (blocks words each)
+	private char[] otherChars; // the pattern characters >= ALPHABET...
+	private long[] otherPeq; // ... and their positions (as above)
+	private int otherCount;
+	private long[] pv, mv; // the vertical differences (+1, -1) for the current column (blocks words each)
+	private int blocks; // the number of 64-bit words per column
+
+	public MyersMSD()
+	{
+		blocks = 1;
+		peq = new long[ALPHABET];
+		otherChars = new char[4];
+		otherPeq = new long[4];
+		pv = new long[1];
+		mv = new long[1];
+	}
+
+	/**
+	 * Returns the minimum string distance between two strings (the same value as
+	 * <code>new MSD(s1, s2).getMSD()</code>).
+	 */
+	public int distance(String s1, String s2)
+	{
+		// the distance is symmetric, so use the shorter string as the pattern
+		String pattern = s1.length() <= s2.length() ? s1 : s2;
+		String text = pattern == s1 ? s2 : s1;
+		int m = pattern.length();
+		int n = text.length();
+		if (m == 0)
+			return n;
+
+		buildPeq(pattern);
+		int score = m; // the bottom cell of the current column (initially column 0, which is 0, 1, ..., m)
+		if (blocks == 1)
+		{
+			long lastBit = 1L << (m - 1);
+			long pvw = -1L; // column 0 increases by 1 from each cell to the next
+			long mvw = 0L;
+			for (int j = 0; j < n; ++j)
+			{
+				long eq = eq(text.charAt(j), 0);
+				long xv = eq | mvw;
+				long xh = (((eq & pvw) + pvw) ^ pvw) | eq;
+				long ph = mvw | ~(xh | pvw);
+				long mh = pvw & xh;
+				if ((ph & lastBit) != 0)
+					++score;
+				else if ((mh & lastBit) != 0)
+					--score;
+				ph = (ph << 1) | 1L; // the top row increases by 1 from each cell to the next
+				mh <<= 1;
+				pvw = mh | ~(xv | ph);
+				mvw = ph & xv;
+			}
+		} else
+		{
+			long lastBit = 1L << ((m - 1) % WORD);
+			Arrays.fill(pv, 0, blocks, -1L);
+			Arrays.fill(mv, 0, blocks, 0L);
+			for (int j = 0; j < n; ++j)
+			{
+				char c = text.charAt(j);
+				int hin = 1; // the horizontal difference entering the top of the block
+				for (int b = 0; b < blocks; ++b)
+				{
+					long eq = eq(c, b);
+					long pvw = pv[b];
+					long mvw = mv[b];
+					long xv = eq | mvw;
+					if (hin < 0)
+						eq |= 1L;
+					long xh = (((eq & pvw) + pvw) ^ pvw) | eq;
+					long ph = mvw | ~(xh | pvw);
+					long mh = pvw & xh;
+
+					// the horizontal difference leaving the bottom of the block (the last row, in the last block)
+					long bottom = b == blocks - 1 ? lastBit : 1L << (WORD - 1);
+					int hout = (ph & bottom) != 0 ? 1 : (mh & bottom) != 0 ? -1 : 0;
+
+					ph <<= 1;
+					mh <<= 1;
+					if (hin < 0)
+						mh |= 1L;
+					else if (hin > 0)
+						ph |= 1L;
+					pv[b] = mh | ~(xv | ph);
+					mv[b] = ph & xv;
+					hin = hout;
+				}
+				score += hin;
+			}
+		}
+		clearPeq(pattern);
+		return score;
+	}
+
+	/**
+	 * Returns the error rate (%) for two strings (the same value as <code>new MSD(s1, s2).getErrorRate()</code>).
+	 */
+	public double getErrorRate(String s1, String s2)
+	{
+		return (double)distance(s1, s2) / Math.max(s1.length(), s2.length()) * 100.0;
+	}
+
+	// the positions in block b of the pattern holding c
+	private long eq(char c, int b)
+	{
+		if (c < ALPHABET)
+			return peq[c * blocks + b];
+		for (int i = 0; i < otherCount; ++i)
+			if (otherChars[i] == c)
+				return otherPeq[i * blocks + b];
+		return 0L;
+	}
+
+	private void buildPeq(String pattern)
+	{
+		int m = pattern.length();
+		blocks = (m + WORD - 1) / WORD;
+		if (peq.length < ALPHABET * blocks)
+		{
+			peq = new long[ALPHABET * blocks];
+			pv = new long[blocks];
+			mv = new long[blocks];
+		}
+		otherCount = 0;
+
+		for (int i = 0; i < m; ++i)
+		{
+			char c = pattern.charAt(i);
+			long bit = 1L << (i % WORD);
+			int b = i / WORD;
+			if (c < ALPHABET)
+				peq[c * blocks + b] |= bit;
+			else
+			{
+				int k = 0;
+				while (k < otherCount && otherChars[k] != c)
+					++k;
+				if (k == otherCount)
+				{
+					if (otherCount == otherChars.length)
+						otherChars = Arrays.copyOf(otherChars, 2 * otherCount);
+					if (otherPeq.length < (otherCount + 1) * blocks)
+						otherPeq = Arrays.copyOf(otherPeq, 2 * (otherCount + 1) * blocks);
+					otherChars[otherCount] = c;
+					Arrays.fill(otherPeq, otherCount * blocks, (otherCount + 1) * blocks, 0L);
+					++otherCount;
+				}
+				otherPeq[k * blocks + b] |= bit;
+			}
+		}
+	}
+
+	// clear the entries set by buildPeq (cheaper than clearing the whole table)
+	private void clearPeq(String pattern)
+	{
+		for (int i = 0; i < pattern.length(); ++i)
+		{
+			char c = pattern.charAt(i);
+			if (c < ALPHABET)
+				Arrays.fill(peq, c * blocks, (c + 1) * blocks, 0L);
+		}
+		otherCount = 0;
+	}
+
+	/**
+	 * Check <code>MyersMSD</code> against <code>MSD</code> on random string pairs, then compare their speed.
+	 */
+	public static void main(String[] args)
+	{
+		int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		Random r = new Random(1);
+		MyersMSD myers = new MyersMSD();
+
+		// equivalence: random pairs, and pairs a few edits apart, of all lengths (one block, several blocks)
+		for (int t = 0; t < pairs; ++t)
+		{
+			int maxLength = t % 10 == 0 ? 300 : 70;
+			String alphabet = t % 7 == 0 ? "ab\u00e9\u4e2d\u0416 " : t % 3 == 0 ? "abcd" : "abcdefghijklmnopqrstuvwxyz ";
+			String s1 = randomString(r, r.nextInt(maxLength + 1), alphabet);
+			String s2 = r.nextBoolean() ? randomString(r, r.nextInt(maxLength + 1), alphabet) : edit(r, s1,
+					r.nextInt(8), alphabet);
+			int expected = MSD.distance(s1, s2);
+			int actual = myers.distance(s1, s2);
+			if (actual != expected)
+			{
+				System.out.println("MISMATCH: MSD = " + expected + ", MyersMSD = " + actual);
+				System.out.println(s1);
+				System.out.println(s2);
+				System.exit(1);
+			}
+		}
+		System.out.println(pairs + " random pairs: MyersMSD = MSD");
+
+		// speed: phrase-length pairs (as in a text entry experiment), then paragraph-length pairs
+		int[] lengths = { 30, 60, 500 };
+		for (int length : lengths)
+		{
+			int count = Math.max(1000, 3000000 / length);
+			String[] s1 = new String[count];
+			String[] s2 = new String[count];
+			for (int i = 0; i < count; ++i)
+			{
+				s1[i] = randomString(r, length, "abcdefghijklmnopqrstuvwxyz ");
+				s2[i] = edit(r, s1[i], length / 20 + 1, "abcdefghijklmnopqrstuvwxyz ");
+			}
+			long sum = 0; // (so the work is not optimized away)
+			long t0 = System.nanoTime();
+			for (int i = 0; i < count; ++i)
+				sum += MSD.distance(s1[i], s2[i]);
+			long t1 = System.nanoTime();
+			for (int i = 0; i < count; ++i)
+				sum -= myers.distance(s1[i], s2[i]);
+			long t2 = System.nanoTime();
+			System.out.printf("length %d: MSD %.2f us/pair, MyersMSD %.2f us/pair (%.1fx)%s\n", length,
+					(t1 - t0) / 1e3 / count, (t2 - t1) / 1e3 / count, (double)(t1 - t0) / (t2 - t1), sum == 0 ? ""
+							: " MISMATCH");
+		}
+	}
+
+	private static String randomString(Random r, int length, String alphabet)
+	{
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; ++i)
+			sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+		return sb.toString();
+	}
+
+	// apply some random insertions, deletions, and substitutions
+	private static String edit(Random r, String s, int edits, String alphabet)
+	{
+		StringBuilder sb = new StringBuilder(s);
+		for (int e = 0; e < edits; ++e)
+		{
+			int op = r.nextInt(3);
+			char c = alphabet.charAt(r.nextInt(alphabet.length()));
+			if (op == 0 || sb.length() == 0)
+				sb.insert(r.nextInt(sb.length() + 1), c);
+			else if (op == 1)
+				sb.deleteCharAt(r.nextInt(sb.length()));
+			else
+				sb.setCharAt(r.nextInt(sb.length()), c);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,478 @@
+package ca.yorku.cse.mack.demoh4touch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * TextEntryEvaluator -- score a log of text entry trials using all available cores.
+ * <p>
+ *
+ * This class is for offline analysis of a text entry study. It runs on a plain JVM (no device is needed). Each line
+ * in the log is one trial, with four tab-separated fields:
+ *
+ * <pre>
+ *     presented text &lt;tab&gt; transcribed text &lt;tab&gt; keystrokes &lt;tab&gt; time (ms)
+ * </pre>
+ *
+ * where "keystrokes" is the number of key presses (e.g., the number of calls to <code>onH4Keystroke</code>) and
+ * "time" is the time from the first to the last keystroke. Blank lines and lines beginning with '#' are ignored.
+ * <p>
+ *
+ * For each trial, the following statistics are computed:
+ * <p>
+ *
+ * <ul>
+ * <li>MSD error rate (%) -- the minimum string distance divided by the length of the longer string (see
+ * <code>MSD.getErrorRate</code>)
+ * <li>KSPC -- keystrokes per character (keystrokes divided by the length of the transcribed text)
+ * <li>WPM -- words per minute (the length of the transcribed text, less one, divided by the time in seconds, times 60,
+ * divided by 5)
+ * </ul>
+ * <p>
+ *
+ * A statistic that is not defined for a trial is not available (NaN; an empty field in the CSV file, and "n/a" in the
+ * totals): the error rate if both texts are empty, KSPC if the transcribed text is empty, and WPM if the transcribed
+ * text has fewer than two characters or the time is 0. Such trials are also left out of that statistic's total.
+ * <p>
+ *
+ * Optionally, the character-level confusions are counted: how often each presented character was entered correctly,
+ * substituted with each other character, or omitted, and how often each character was inserted. These come from one
+ * optimal alignment per trial (the same alignment as the first listed by <code>MSD.getAlignments</code>).
+ * <p>
+ *
+ * The log is read in chunks, so its size is not limited by memory. Each chunk is split recursively and scored on a
+ * fork/join (work-stealing) pool, and each worker thread has its own <code>MyersMSD</code> engine. The statistics for
+ * each trial can be written to a CSV file as each chunk completes (in the order of the log), and the totals are
+ * accumulated as the log is read. Usage:
+ *
+ * <pre>
+ *     PROMPT>java TextEntryEvaluator log.txt [-o trials.csv] [-c] [-t threads]
+ *
+ *     where -o = write the statistics for each trial to a CSV file
+ *           -c = count character-level confusions
+ *           -t = the number of worker threads, at least 1 (default: one per core)
+ * </pre>
+ */
+public class TextEntryEvaluator
+{
+	private final static int CHUNK_SIZE = 8192; // trials read from the log at a time
+	private final static int SPLIT_THRESHOLD = 128; // trials scored sequentially in a single task
+
+	final static char NONE = '\u0000'; // the "other" character in a confusion count for an insertion or omission
+
+	private ForkJoinPool pool;
+	private boolean countConfusions;
+	private ThreadLocal<MyersMSD> engines; // one MSD engine per worker thread
+
+	/**
+	 * Construct an evaluator using the specified number of threads.
+	 *
+	 * @param countConfusionsArg
+	 *            if true, character-level confusions are counted (this needs the full MSD matrix for each trial, and
+	 *            so is slower)
+	 */
+	public TextEntryEvaluator(int threads, boolean countConfusionsArg)
+	{
+		pool = new ForkJoinPool(threads);
+		countConfusions = countConfusionsArg;
+		engines = new ThreadLocal<MyersMSD>()
+		{
+			@Override
+			protected MyersMSD initialValue()
+			{
+				return new MyersMSD();
+			}
+		};
+	}
+
+	/**
+	 * Score all the trials in a log.
+	 *
+	 * @param log
+	 *            the log (see above for the format)
+	 * @param trialsOut
+	 *            if not null, receives a CSV row with the statistics for each trial
+	 * @throws IOException
+	 *             if the log cannot be read, or a line is not in the expected format (the message gives the line
+	 *             number)
+	 */
+	public Result evaluate(BufferedReader log, Writer trialsOut) throws IOException
+	{
+		Result total = new Result();
+		if (trialsOut != null)
+			trialsOut.write("line,presented_length,transcribed_length,msd,error_rate,kspc,wpm\n");
+
+		ArrayList<Trial> chunk = new ArrayList<Trial>(CHUNK_SIZE);
+		int lineNumber = 0;
+		String line = log.readLine();
+		while (line != null)
+		{
+			chunk.clear();
+			while (line != null && chunk.size() < CHUNK_SIZE)
+			{
+				++lineNumber;
+				if (line.length() > 0 && line.charAt(0) != '#')
+					chunk.add(parse(line, lineNumber));
+				line = log.readLine();
+			}
+
+			Trial[] trials = chunk.toArray(new Trial[chunk.size()]);
+			total.add(pool.invoke(new ScoreTask(trials, 0, trials.length)));
+
+			if (trialsOut != null)
+				for (Trial t : trials)
+					trialsOut.write(String.format(Locale.US, "%d,%d,%d,%d,%s,%s,%s\n", t.lineNumber,
+							t.presented.length(), t.transcribed.length(), t.msd, format(t.getErrorRate(), ""),
+							format(t.getKSPC(), ""), format(t.getWPM(), "")));
+		}
+		if (trialsOut != null)
+			trialsOut.flush();
+		return total;
+	}
+
+	/**
+	 * Release the worker threads.
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	// a statistic with four decimal places, or the specified text if it is not available (NaN)
+	private static String format(double value, String notAvailable)
+	{
+		return Double.isNaN(value) ? notAvailable : String.format(Locale.US, "%.4f", value);
+	}
+
+	private static Trial parse(String line, int lineNumber) throws IOException
+	{
+		String[] fields = line.split("\t", -1);
+		if (fields.length != 4)
+			throw new IOException("Line " + lineNumber + ": expected 4 tab-separated fields, found " + fields.length);
+		try
+		{
+			return new Trial(lineNumber, fields[0], fields[1], Integer.parseInt(fields[2].trim()),
+					Long.parseLong(fields[3].trim()));
+		} catch (NumberFormatException e)
+		{
+			throw new IOException("Line " + lineNumber + ": bad number (" + e.getMessage() + ")");
+		}
+	}
+
+	// score trials[lo] to trials[hi - 1], splitting the range in two until it is small enough
+	private class ScoreTask extends RecursiveTask<Result>
+	{
+		private static final long serialVersionUID = 1L; // fix compiler warning
+
+		Trial[] trials;
+		int lo, hi;
+
+		ScoreTask(Trial[] trialsArg, int loArg, int hiArg)
+		{
+			trials = trialsArg;
+			lo = loArg;
+			hi = hiArg;
+		}
+
+		@Override
+		protected Result compute()
+		{
+			if (hi - lo <= SPLIT_THRESHOLD)
+			{
+				MyersMSD engine = engines.get();
+				Result r = new Result();
+				for (int i = lo; i < hi; ++i)
+				{
+					Trial t = trials[i];
+					if (countConfusions)
+					{
+						MSD msd = new MSD(t.presented, t.transcribed);
+						t.msd = msd.getMSD();
+						r.addConfusions(t.presented, t.transcribed, msd.getMatrix());
+					} else
+						t.msd = engine.distance(t.presented, t.transcribed);
+					r.add(t);
+				}
+				return r;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			ScoreTask left = new ScoreTask(trials, lo, mid);
+			left.fork();
+			Result r = new ScoreTask(trials, mid, hi).compute();
+			r.add(left.join());
+			return r;
+		}
+	}
+
+	// one line in the log
+	private static class Trial
+	{
+		int lineNumber;
+		String presented, transcribed;
+		int keystrokes;
+		long time; // ms
+		int msd;
+
+		Trial(int lineNumberArg, String presentedArg, String transcribedArg, int keystrokesArg, long timeArg)
+		{
+			lineNumber = lineNumberArg;
+			presented = presentedArg;
+			transcribed = transcribedArg;
+			keystrokes = keystrokesArg;
+			time = timeArg;
+		}
+
+		// the statistics are NaN if they are not available (see above)
+		double getErrorRate()
+		{
+			int length = Math.max(presented.length(), transcribed.length());
+			return length == 0 ? Double.NaN : (double)msd / length * 100.0;
+		}
+
+		double getKSPC()
+		{
+			return transcribed.length() == 0 ? Double.NaN : (double)keystrokes / transcribed.length();
+		}
+
+		double getWPM()
+		{
+			if (transcribed.length() < 2 || time <= 0)
+				return Double.NaN;
+			return (transcribed.length() - 1) / (time / 1000.0) * 60.0 / 5.0;
+		}
+	}
+
+	/**
+	 * Result -- totals for a set of text entry trials
+	 */
+	public static class Result
+	{
+		private long trials;
+		private long msd, maxLength; // for the error rate
+		private long keystrokes, transcribedLength; // for KSPC (trials with a transcribed text)
+		private long wpmCharacters, wpmTime; // for WPM (trials with at least two characters and a time)
+
+		// presented character -> (transcribed character -> count); NONE for an insertion or omission
+		private HashMap<Character, HashMap<Character, long[]>> confusion =
+				new HashMap<Character, HashMap<Character, long[]>>();
+
+		void add(Trial t)
+		{
+			++trials;
+			msd += t.msd;
+			maxLength += Math.max(t.presented.length(), t.transcribed.length());
+			if (t.transcribed.length() > 0)
+			{
+				keystrokes += t.keystrokes;
+				transcribedLength += t.transcribed.length();
+			}
+			if (t.transcribed.length() > 1 && t.time > 0)
+			{
+				wpmCharacters += t.transcribed.length() - 1;
+				wpmTime += t.time;
+			}
+		}
+
+		void add(Result r)
+		{
+			trials += r.trials;
+			msd += r.msd;
+			maxLength += r.maxLength;
+			keystrokes += r.keystrokes;
+			transcribedLength += r.transcribedLength;
+			wpmCharacters += r.wpmCharacters;
+			wpmTime += r.wpmTime;
+			for (Map.Entry<Character, HashMap<Character, long[]>> row : r.confusion.entrySet())
+				for (Map.Entry<Character, long[]> cell : row.getValue().entrySet())
+					count(row.getKey(), cell.getKey(), cell.getValue()[0]);
+		}
+
+		/*
+		 * Walk one optimal path back through the MSD matrix from the end. At each step, the path prefers (as
+		 * MSD.getAlignments does) an inserted character, then an omitted character, then a correct or substituted
+		 * character, so this is the first alignment listed by getAlignments.
+		 */
+		void addConfusions(String presented, String transcribed, int[][] d)
+		{
+			int x = presented.length();
+			int y = transcribed.length();
+			if (x == 0 || y == 0) // (the matrix holds only the distance)
+			{
+				for (int i = 0; i < x; ++i)
+					count(presented.charAt(i), NONE, 1);
+				for (int j = 0; j < y; ++j)
+					count(NONE, transcribed.charAt(j), 1);
+				return;
+			}
+			while (x > 0 || y > 0)
+			{
+				if (y > 0 && d[x][y] == d[x][y - 1] + 1) // a character in the transcribed text only (insertion)
+				{
+					count(NONE, transcribed.charAt(y - 1), 1);
+					--y;
+				} else if (x > 0 && d[x][y] == d[x - 1][y] + 1) // a character in the presented text only (omission)
+				{
+					count(presented.charAt(x - 1), NONE, 1);
+					--x;
+				} else
+				// correct or substituted
+				{
+					count(presented.charAt(x - 1), transcribed.charAt(y - 1), 1);
+					--x;
+					--y;
+				}
+			}
+		}
+
+		private void count(char presented, char transcribed, long n)
+		{
+			HashMap<Character, long[]> row = confusion.get(presented);
+			if (row == null)
+			{
+				row = new HashMap<Character, long[]>();
+				confusion.put(presented, row);
+			}
+			long[] c = row.get(transcribed);
+			if (c == null)
+			{
+				c = new long[1];
+				row.put(transcribed, c);
+			}
+			c[0] += n;
+		}
+
+		public long getTrials()
+		{
+			return trials;
+		}
+
+		/**
+		 * Returns the overall MSD error rate (%): the total MSD divided by the total length of the longer string (NaN
+		 * if there are no characters).
+		 */
+		public double getErrorRate()
+		{
+			return maxLength == 0 ? Double.NaN : (double)msd / maxLength * 100.0;
+		}
+
+		/**
+		 * Returns the overall keystrokes per character (NaN if no trial has a transcribed text).
+		 */
+		public double getKSPC()
+		{
+			return transcribedLength == 0 ? Double.NaN : (double)keystrokes / transcribedLength;
+		}
+
+		/**
+		 * Returns the overall entry speed in words per minute (NaN if no trial has a speed; see above).
+		 */
+		public double getWPM()
+		{
+			return wpmTime == 0 ? Double.NaN : wpmCharacters / (wpmTime / 1000.0) * 60.0 / 5.0;
+		}
+
+		/**
+		 * Returns the number of times a presented character was entered as a transcribed character (NONE for an
+		 * insertion or omission).
+		 */
+		public long getConfusionCount(char presented, char transcribed)
+		{
+			HashMap<Character, long[]> row = confusion.get(presented);
+			long[] c = row == null ? null : row.get(transcribed);
+			return c == null ? 0 : c[0];
+		}
+
+		/**
+		 * Print the totals and (if counted) the character-level errors.
+		 */
+		public void print(PrintStream ps)
+		{
+			ps.printf(Locale.US, "Trials: %d\n", trials);
+			ps.printf(Locale.US, "MSD error rate (%%): %s\n", format(getErrorRate(), "n/a"));
+			ps.printf(Locale.US, "KSPC: %s\n", format(getKSPC(), "n/a"));
+			ps.printf(Locale.US, "WPM: %s\n", format(getWPM(), "n/a"));
+			if (confusion.isEmpty())
+				return;
+
+			ps.println("Character errors (presented -> transcribed: count / occurrences):");
+			TreeMap<Character, HashMap<Character, long[]>> rows = new TreeMap<Character, HashMap<Character, long[]>>(
+					confusion);
+			for (Map.Entry<Character, HashMap<Character, long[]>> row : rows.entrySet())
+			{
+				long occurrences = 0;
+				for (long[] c : row.getValue().values())
+					occurrences += c[0];
+				TreeMap<Character, long[]> cells = new TreeMap<Character, long[]>(row.getValue());
+				for (Map.Entry<Character, long[]> cell : cells.entrySet())
+				{
+					if (cell.getKey().equals(row.getKey()))
+						continue; // correct
+					ps.printf(Locale.US, "  %s -> %s: %d / %d\n", name(row.getKey()), name(cell.getKey()),
+							cell.getValue()[0], occurrences);
+				}
+			}
+		}
+
+		private static String name(char c)
+		{
+			return c == NONE ? "[none]" : c == ' ' ? "[space]" : "'" + c + "'";
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String logFile = null, trialsFile = null;
+		boolean confusions = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; ++i)
+		{
+			if (args[i].equals("-o") && i + 1 < args.length)
+				trialsFile = args[++i];
+			else if (args[i].equals("-c"))
+				confusions = true;
+			else if (args[i].equals("-t") && i + 1 < args.length)
+			{
+				try
+				{
+					threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e)
+				{
+					threads = 0;
+				}
+			} else
+				logFile = args[i];
+		}
+		if (logFile == null || threads < 1)
+		{
+			System.out.println("usage: java TextEntryEvaluator log.txt [-o trials.csv] [-c] [-t threads]");
+			return;
+		}
+
+		TextEntryEvaluator evaluator = new TextEntryEvaluator(threads, confusions);
+		BufferedReader log = new BufferedReader(new FileReader(logFile), 1 << 16);
+		Writer trialsOut = trialsFile == null ? null : new BufferedWriter(new FileWriter(trialsFile), 1 << 16);
+		long t0 = System.nanoTime();
+		Result r = evaluator.evaluate(log, trialsOut);
+		long t1 = System.nanoTime();
+		log.close();
+		if (trialsOut != null)
+			trialsOut.close();
+		evaluator.shutdown();
+
+		r.print(System.out);
+		System.out.printf(Locale.US, "(%d trials in %.2f s, %d threads)\n", r.getTrials(), (t1 - t0) / 1e9, threads);
+	}
+}
@@ -10,7 +10,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -83,16 +82,17 @@ class ImageDownloader
 	}
 
 	/*
-	 * Download the image referenced by the URL string and return it as a bitmap.
+	 * Download the image referenced by the URL string and return it as a bitmap. The request goes
+	 * through the app's one client (see SharedHttpClient), so a connection to the server is reused
+	 * from one download to the next.
 	 */
 	private static Bitmap downloadBitmap(String url) {
-		OkHttpClient client = new OkHttpClient();
 		Request request = new Request.Builder()
 				.url(url)
 				.build();
 
 		// Note: the execute() method is synchronous and blocks the current thread until the HTTP response is received
-		try (Response response = client.newCall(request).execute()) {
+		try (Response response = SharedHttpClient.get().newCall(request).execute()) {
 			if (!response.isSuccessful()) {
 				Log.i(MYDEBUG, "Oops! statusCode=" + response.code() + " while retrieving bitmap from " + url);
 				return null;
@@ -0,0 +1,47 @@
+package ca.yorku.eecs.mack.demointernetdownload;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * The one OkHttpClient for the app.
+ * <p>
+ * A client holds a pool of connections, which are kept open between requests, so the next request to the same host
+ * skips the TCP and TLS handshakes (and, with HTTP/2, many requests share one connection). A new client for every
+ * request starts with an empty pool, so every image pays for a new connection. All requests should go through the
+ * client returned by get.
+ * <p>
+ * The requests are synchronous (Call.execute), and a synchronous call runs on the caller's thread, so the number in
+ * progress is bounded by the threads that make them, not by the client (whose dispatcher limits only Call.enqueue).
+ */
+class SharedHttpClient
+{
+	static final int MAX_IDLE_CONNECTIONS = 5;
+	static final long KEEP_ALIVE_MINUTES = 5; // an idle connection is closed after this
+	static final long CONNECT_TIMEOUT_SECONDS = 10;
+	static final long READ_TIMEOUT_SECONDS = 20;
+
+	private static OkHttpClient instance;
+
+	private SharedHttpClient()
+	{
+	}
+
+	/**
+	 * Returns the client for this process (created on the first call).
+	 */
+	static synchronized OkHttpClient get()
+	{
+		if (instance == null)
+		{
+			instance = new OkHttpClient.Builder()
+					.connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+					.connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+					.readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+					.build();
+		}
+		return instance;
+	}
+}
@@ -0,0 +1,231 @@
+package ca.yorku.eecs.mack.demolistview2;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A memory cache of bitmaps with a budget in bytes, rather than in entries.
+ * <p>
+ * The bitmaps are kept in a LinkedHashMap in access order, so the least-recently used bitmap is the first to go when a
+ * new bitmap would push the total size over the budget. The size of a bitmap is the memory it actually holds
+ * (getAllocationByteCount), so the cache holds many thumbnails or a few full-screen images, as memory allows.
+ * <p>
+ * There is one cache per process (see getInstance), sized as a fraction of the app's memory class (the heap limit in
+ * MB; see ActivityManager.getMemoryClass). All methods are synchronized, so the cache may be used from the UI thread
+ * and from background threads.
+ * <p>
+ * The cache is cleared after DELAY_BEFORE_PURGE milliseconds in which no downloader in the process has used it (see
+ * resetPurgeTimer). The timer belongs to the cache, not to a downloader, so a downloader that has gone idle does not
+ * clear the bitmaps of one that is still in use.
+ */
+class BitmapMemoryCache
+{
+    static final float DEFAULT_MEMORY_FRACTION = 1f / 8f; // of the memory class
+    static final int DELAY_BEFORE_PURGE = 10 * 1000; // in milliseconds
+
+    private static BitmapMemoryCache instance;
+
+    private final LinkedHashMap<String, Entry> map;
+    private long maxBytes;
+    private long bytes;
+    private int hitCount, missCount, putCount, evictionCount;
+
+    private final Handler purgeHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable purger = new Runnable()
+    {
+        public void run()
+        {
+            clear();
+        }
+    };
+
+    BitmapMemoryCache(long maxBytesArg)
+    {
+        maxBytes = maxBytesArg;
+        map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cache for this process. The cache is created on the first call, with a budget of
+     * DEFAULT_MEMORY_FRACTION of the memory class.
+     */
+    static synchronized BitmapMemoryCache getInstance(Context context)
+    {
+        if (instance == null)
+            instance = new BitmapMemoryCache(getBudget(context, DEFAULT_MEMORY_FRACTION));
+        return instance;
+    }
+
+    /**
+     * Set the budget of the cache for this process to a fraction of the memory class (e.g., 0.25f for a quarter),
+     * creating the cache if necessary. Call this before the first download to use a budget other than the default.
+     */
+    static synchronized void setMemoryFraction(Context context, float fraction)
+    {
+        long budget = getBudget(context, fraction);
+        if (instance == null)
+            instance = new BitmapMemoryCache(budget);
+        else
+            instance.setMaxBytes(budget);
+    }
+
+    /**
+     * Returns a budget (in bytes) of the specified fraction of the app's memory class.
+     */
+    static long getBudget(Context context, float fraction)
+    {
+        ActivityManager am = (ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
+        return (long)(am.getMemoryClass() * 1024L * 1024L * fraction);
+    }
+
+    /**
+     * Returns the number of bytes held by a bitmap.
+     */
+    static int sizeOf(Bitmap bitmap)
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bitmap.getAllocationByteCount(); // (includes any unused part of a reused bitmap)
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Returns the bitmap for a key (and makes it the most-recently used), or null if it is not in the cache.
+     */
+    synchronized Bitmap get(String key)
+    {
+        Entry e = map.get(key);
+        if (e == null)
+        {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return e.bitmap;
+    }
+
+    /**
+     * Add a bitmap to the cache, evicting the least-recently used bitmaps as needed to stay within the budget. A
+     * bitmap larger than the whole budget is not cached.
+     */
+    synchronized void put(String key, Bitmap bitmap)
+    {
+        int size = sizeOf(bitmap);
+        if (size > maxBytes)
+            return;
+        ++putCount;
+        Entry previous = map.put(key, new Entry(bitmap, size));
+        bytes += size;
+        if (previous != null)
+            bytes -= previous.size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Returns true if a key is in the cache (without counting a hit or a miss, or making it the most-recently used).
+     */
+    synchronized boolean contains(String key)
+    {
+        return map.containsKey(key);
+    }
+
+    synchronized void remove(String key)
+    {
+        Entry previous = map.remove(key);
+        if (previous != null)
+            bytes -= previous.size;
+    }
+
+    synchronized void clear()
+    {
+        map.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Allow a new delay before the cache is cleared. Each downloader calls this whenever it is used (from any thread).
+     */
+    void resetPurgeTimer()
+    {
+        purgeHandler.removeCallbacks(purger);
+        purgeHandler.postDelayed(purger, DELAY_BEFORE_PURGE);
+    }
+
+    /**
+     * Change the budget (e.g., to a different fraction of the memory class; see getBudget).
+     */
+    synchronized void setMaxBytes(long maxBytesArg)
+    {
+        maxBytes = maxBytesArg;
+        trimToSize(maxBytes);
+    }
+
+    // evict the least-recently used bitmaps until the total size is within the specified size
+    private void trimToSize(long size)
+    {
+        Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+        while (bytes > size && it.hasNext())
+        {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.size;
+            ++evictionCount;
+        }
+    }
+
+    synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    synchronized long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    synchronized int getHitCount()
+    {
+        return hitCount;
+    }
+
+    synchronized int getMissCount()
+    {
+        return missCount;
+    }
+
+    synchronized int getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        int lookups = hitCount + missCount;
+        return String.format(Locale.US, "BitmapMemoryCache[entries=%d, bytes=%d/%d, hits=%d, misses=%d, hitRate=%d%%, "
+                + "puts=%d, evictions=%d]", map.size(), bytes, maxBytes, hitCount, missCount, lookups == 0 ? 0 : 100 *
+                hitCount / lookups, putCount, evictionCount);
+    }
+
+    // a bitmap and its size when it was added (so the total stays right, even if the bitmap is later recycled)
+    private static class Entry
+    {
+        final Bitmap bitmap;
+        final int size;
+
+        Entry(Bitmap bitmapArg, int sizeArg)
+        {
+            bitmap = bitmapArg;
+            size = sizeArg;
+        }
+    }
+}
@@ -119,8 +119,9 @@ import java.util.Arrays;
  * The task of retrieving the image from a file and placing it in the view is delegated to the <code>download</code>
  * method of the <code>ImageDownloader</code> class.  An <code>ImageDownloader</code> is a helper class that downloads
  * images and binds them with the provided <code>ImageView</code>. The core purpose of <code>ImageDownloader</code> is
- * to host an inner class named <code>BitmapDownloader</code>, a subclass of <code>AsyncTask</code>, which handles the
- * downloading in a separate thread. Additional cache-related fields and methods are added to improve efficiency. <p>
+ * to host an inner class named <code>BitmapDownloader</code>, a request run by <code>ImageLoader</code>, which handles
+ * the downloading in separate threads (newest request first). Additional cache-related fields and methods are added
+ * to improve efficiency. <p>
  *
  * To fully understand these difficult topics, your best bet is to study the links above under Android Developer's Blog
  * and Android Developer Training.  Study these while also reviewing the source code and comments in
@@ -192,7 +193,11 @@ public class DemoListView2Activity extends ListActivity
         String path = images.getAbsolutePath();
 
         // give the array of image filenames and their path to the image adapter and use that to fill our ListView
-        setListAdapter(new ImageAdapter(imageFiles, path));
+        ImageAdapter imageAdapter = new ImageAdapter(imageFiles, path);
+        setListAdapter(imageAdapter);
+
+        // load the images just beyond the screen as the list scrolls (see ScrollPrefetcher)
+        getListView().setOnScrollListener(new ScrollPrefetcher(imageAdapter));
     }
 
     // A filter used with the list method (see above) to return only files with a specified extension (e.g., ".jpg")
@@ -8,8 +8,9 @@ import android.widget.ImageView;
 
 import java.io.File;
 
-class ImageAdapter extends BaseAdapter
+class ImageAdapter extends BaseAdapter implements ScrollPrefetcher.Target
 {
+    private final static int THUMBNAIL_SIZE = 300;
 
     private final String[] fileNames;
     private final String path;
@@ -43,7 +44,7 @@ class ImageAdapter extends BaseAdapter
     @Override
     public View getView(int position, View view, ViewGroup parent)
     {
-        int thumbnailSize = 300;
+        int thumbnailSize = THUMBNAIL_SIZE;
 
         if (view == null)
         {
@@ -60,4 +61,17 @@ class ImageAdapter extends BaseAdapter
         imageDownloader.download(file, (ImageView)view, thumbnailSize);
         return view;
     }
+
+    // load the image for a position that is about to scroll into view (see ScrollPrefetcher)
+    @Override
+    public void prefetch(int position)
+    {
+        imageDownloader.prefetch(path + File.separator + fileNames[position], THUMBNAIL_SIZE);
+    }
+
+    @Override
+    public void cancelPrefetches()
+    {
+        imageDownloader.cancelPrefetches();
+    }
 }
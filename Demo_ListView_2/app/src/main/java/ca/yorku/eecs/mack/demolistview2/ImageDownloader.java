@@ -5,24 +5,23 @@ import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.os.Handler;
 import android.util.Log;
 import android.widget.ImageView;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
 
 /**
  * This helper class downloads images and binds them with the provided ImageView.
  * <p>
- * A local cache of downloaded images is maintained internally to improve performance.
+ * A local cache of downloaded images is maintained internally to improve performance. A request for an image that
+ * is already being downloaded (e.g., for another view) joins that download, rather than decoding the image again.
+ * <p>
+ * The images are loaded on the threads of the ImageLoader, newest request first.
  */
 class ImageDownloader
 {		
@@ -40,7 +39,9 @@ class ImageDownloader
     	//String path = pathArg;
     	//int width = widthArg;
     	
-        resetPurgeTimer();
+        if (memoryCache == null)
+            memoryCache = BitmapMemoryCache.getInstance(imageView.getContext());
+        memoryCache.resetPurgeTimer();
         Bitmap bitmap = getBitmapFromCache(pathArg);
 
         if (bitmap == null) 
@@ -67,16 +68,58 @@ class ImageDownloader
 
         if (cancelPotentialDownload(path, imageView)) 
         {
-            BitmapDownloaderTask task = new BitmapDownloaderTask(imageView, width);
+            // join the download in progress for this image and width, if any
+            String key = inFlightKey(path, width);
+            BitmapDownloaderTask task = inFlight.get(key);
+            if (task != null && task.isPrefetch() && !task.isStarted())
+            {
+                // (a prefetch that has not started is behind all the other downloads, so start afresh)
+                task.cancelPrefetch();
+                task = null;
+            }
+            boolean joined = task != null;
+            if (joined)
+                task.addImageView(imageView);
+            else
+            {
+                task = new BitmapDownloaderTask(imageView, path, width);
+                inFlight.put(key, task);
+            }
             DownloadedDrawable downloadedDrawable = new DownloadedDrawable(task);
             imageView.setImageDrawable(downloadedDrawable);
-            task.execute(path);
+            if (!joined)
+                ImageLoader.getInstance().submit(task);
         }
     }
 
     /**
-     * Returns true if the current download has been canceled or if there was no download in
-     * progress on this image view.
+     * Load the specified image into the cache ahead of need, behind all the other downloads (see ScrollPrefetcher).
+     * Nothing is done if the image is in the cache or is already being downloaded.
+     */
+    void prefetch(String path, int width)
+    {
+        String key = inFlightKey(path, width);
+        if (path == null || memoryCache == null || memoryCache.contains(path) || inFlight.containsKey(key))
+            return;
+        BitmapDownloaderTask task = new BitmapDownloaderTask(null, path, width);
+        inFlight.put(key, task);
+        prefetches.add(task);
+        ImageLoader.getInstance().prefetch(task);
+    }
+
+    /**
+     * Cancel the prefetches that no view has joined (e.g., when a fling ends).
+     */
+    void cancelPrefetches()
+    {
+        for (BitmapDownloaderTask task : prefetches)
+            task.detach(null); // (cancels the task, unless a view is waiting for it)
+        prefetches.clear();
+    }
+
+    /**
+     * Returns true if the current download has been canceled (or the image view has been detached from it, if other
+     * views are waiting for the same image) or if there was no download in progress on this image view.
      * Returns false if the download in progress deals with the same url. The download is not
      * stopped in that case.
      */
@@ -89,7 +132,7 @@ class ImageDownloader
             String bitmapPath = bitmapDownloaderTask.path;
             if ((bitmapPath == null) || (!bitmapPath.equals(pathArg))) 
             {
-                bitmapDownloaderTask.cancel(true);
+                bitmapDownloaderTask.detach(imageView);
             } else 
             {
                 // The same URL is already being downloaded.
@@ -118,33 +161,83 @@ class ImageDownloader
         return null;
     }
 
+    // the key of a download in inFlight (the same file decoded for a different width is a different download)
+    private static String inFlightKey(String path, int width)
+    {
+        return width + ":" + path;
+    }
+
     /**
-     * The actual AsyncTask that will asynchronously download the image.
+     * The actual request that will asynchronously download the image (see ImageLoader). The image size is read first,
+     * to choose the scale, and then the image is decoded at that scale.
+     * <p>
+     * The task binds the image to every view that is still waiting for it (see forceDownload).
      */
-    private class BitmapDownloaderTask extends AsyncTask<String, Void, Bitmap>
+    private class BitmapDownloaderTask extends ImageLoader.Request<BitmapFactory.Options>
     {
-        private String path;
-        private final WeakReference<ImageView> imageViewReference;
+        private final String path;
+        private final ArrayList<WeakReference<ImageView>> imageViewReferences;
         
         private int viewWidth;
 
-        BitmapDownloaderTask(ImageView imageView, int displayWidthArg)
+        BitmapDownloaderTask(ImageView imageView, String pathArg, int displayWidthArg)
         {
-            imageViewReference = new WeakReference<ImageView>(imageView);
+            imageViewReferences = new ArrayList<WeakReference<ImageView>>();
+            if (imageView != null) // (null for a prefetch)
+                imageViewReferences.add(new WeakReference<ImageView>(imageView));
+            path = pathArg;
             viewWidth = displayWidthArg;
         }
 
+        void addImageView(ImageView imageView)
+        {
+            imageViewReferences.add(new WeakReference<ImageView>(imageView));
+        }
+
         /**
-         * Actual download method.  Image is scaled to fit available view width.
+         * The image view is being bound to another image. Cancel the download, unless another view is still waiting
+         * for it.
          */
-        @Override
-        protected Bitmap doInBackground(String... params)
+        void detach(ImageView imageView)
         {
-            path = params[0];           
-            return decodeFile(new File(path));
+            boolean waiting = false;
+            Iterator<WeakReference<ImageView>> it = imageViewReferences.iterator();
+            while (it.hasNext())
+            {
+                ImageView v = it.next().get();
+                if (v == null || v == imageView || getBitmapDownloaderTask(v) != this)
+                    it.remove();
+                else
+                    waiting = true;
+            }
+            if (!waiting)
+            {
+                cancel();
+                removeFromInFlight();
+            }
         }
-        
-        private Bitmap decodeFile(File f)
+
+        private void removeFromInFlight()
+        {
+            String key = inFlightKey(path, viewWidth);
+            if (inFlight.get(key) == this)
+                inFlight.remove(key);
+        }
+
+        // cancel a prefetch that has not started, and drop it from the prefetches of the downloader that made it (not
+        // necessarily this one, since inFlight is shared by all the downloaders)
+        void cancelPrefetch()
+        {
+            cancel();
+            prefetches.remove(this); // (the owner's list)
+        }
+
+        /**
+         * Read the image size and choose the scale, so the image fits the available view width. Returns the options
+         * for decode (or null if the file can't be read).
+         */
+        @Override
+        BitmapFactory.Options read()
         {
         	// scaling method adapted from...
         	// http://stackoverflow.com/questions/8132296/handle-resolution-of-different-size-images-in-listview
@@ -155,7 +248,7 @@ class ImageDownloader
                 // decode image size (without allocating memory to store the bitmap)
                 BitmapFactory.Options o = new BitmapFactory.Options();
                 o.inJustDecodeBounds = true;
-                BitmapFactory.decodeStream(new FileInputStream(f), null, o);
+                BitmapFactory.decodeStream(new FileInputStream(path), null, o);
                 
                 // determine scale value so image will fit in available display width
                 int scale = 1;
@@ -168,11 +261,10 @@ class ImageDownloader
                     scale *= 2;
                 }                
                
-                // decode image, scaled to fit display width (allocates memory to store the bitmap)
                 BitmapFactory.Options o2 = new BitmapFactory.Options();
                 //o2.inSampleSize = scale;
                 o2.inSampleSize = scale / 2; // a bit better quality (for zooming in)
-                return BitmapFactory.decodeStream(new FileInputStream(f), null, o2);
+                return o2;
             } catch (FileNotFoundException e)
             {
             	Log.i("MYDEBUG", "FileNotFoundException: e=" + e.toString());
@@ -181,19 +273,32 @@ class ImageDownloader
         }
 
         /**
-         * Once the image is downloaded, associate it to the imageView
+         * Decode image, scaled to fit display width (allocates memory to store the bitmap).
          */
         @Override
-        protected void onPostExecute(Bitmap bitmap)
+        Bitmap decode(BitmapFactory.Options o2)
         {
-            if (isCancelled()) 
+            try 
             {
-                bitmap = null;
+                return BitmapFactory.decodeStream(new FileInputStream(path), null, o2);
+            } catch (FileNotFoundException e)
+            {
+            	Log.i("MYDEBUG", "FileNotFoundException: e=" + e.toString());
             }
+            return null;
+        }
 
+        /**
+         * Once the image is downloaded, associate it to the imageViews
+         */
+        @Override
+        void onLoaded(Bitmap bitmap)
+        {
+            removeFromInFlight();
+            prefetches.remove(this);
             addBitmapToCache(path, bitmap);
 
-            if (imageViewReference != null) 
+            for (WeakReference<ImageView> imageViewReference : imageViewReferences)
             {
                 ImageView imageView = imageViewReference.get();
                 BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
@@ -233,107 +338,41 @@ class ImageDownloader
     /*
      * Cache-related fields and methods.
      *
-     * We use a hard and a soft cache. A soft reference cache is too aggressively cleared by the
-     * Garbage Collector.
+     * The bitmaps are kept in a memory cache with a budget in bytes (see BitmapMemoryCache). The
+     * cache is shared by all the downloaders in the process, and it is purged after a period in
+     * which none of them has used it (see BitmapMemoryCache).
      */
    
-    private static final int HARD_CACHE_CAPACITY = 10;
-    private static final int DELAY_BEFORE_PURGE = 10 * 1000; // in milliseconds
-
-    // Hard cache, with a fixed maximum capacity and a life duration
-    private final HashMap<String, Bitmap> sHardBitmapCache = new LinkedHashMap<String, Bitmap>(HARD_CACHE_CAPACITY / 2, 0.75f, true)
-    {        
-		private static final long serialVersionUID = 1L; // fix compiler warning
+    // the memory cache (one per process, with a budget in bytes; see BitmapMemoryCache)
+    private BitmapMemoryCache memoryCache;
 
-		@Override
-        protected boolean removeEldestEntry(LinkedHashMap.Entry<String, Bitmap> eldest)
-        {
-            if (size() > HARD_CACHE_CAPACITY) 
-            {
-                // Entries push-out of hard reference cache are transferred to soft reference cache
-                sSoftBitmapCache.put(eldest.getKey(), new SoftReference<Bitmap>(eldest.getValue()));
-                return true;
-            } else
-                return false;
-        }
-    };
-
-    // Soft cache for bitmaps kicked out of hard cache
-    private final static ConcurrentHashMap<String, SoftReference<Bitmap>> sSoftBitmapCache =
-        new ConcurrentHashMap<String, SoftReference<Bitmap>>(HARD_CACHE_CAPACITY / 2);
+    // the downloads in progress, by path and width, in all the downloaders in the process (UI thread only)
+    private static final HashMap<String, BitmapDownloaderTask> inFlight = new HashMap<String, BitmapDownloaderTask>();
 
-    private final Handler purgeHandler = new Handler();
-
-    private final Runnable purger = new Runnable()
-    {
-        public void run() 
-        {
-            clearCache();
-        }
-    };
+    // the prefetches made by this downloader that have not finished (UI thread only)
+    private final ArrayList<BitmapDownloaderTask> prefetches = new ArrayList<BitmapDownloaderTask>();
 
     //Add the passed bitmap to the cache.
     private void addBitmapToCache(String path, Bitmap bitmap)
     {
-        if (bitmap != null) 
-        {
-            synchronized (sHardBitmapCache) 
-            {
-                sHardBitmapCache.put(path, bitmap);
-            }
-        }
+        if (bitmap != null)
+            memoryCache.put(path, bitmap);
     }
 
     // return the bitmap from the cache specified by the passed path
     private Bitmap getBitmapFromCache(String path)
     {
-        // First try the hard reference cache
-        synchronized (sHardBitmapCache) 
-        {
-            final Bitmap bitmap = sHardBitmapCache.get(path);
-            if (bitmap != null) 
-            {
-                // Bitmap found in hard cache
-                // Move element to first position, so that it is removed last
-                sHardBitmapCache.remove(path);
-                sHardBitmapCache.put(path, bitmap);
-                return bitmap;
-            }
-        }
-
-        // Then try the soft reference cache
-        SoftReference<Bitmap> bitmapReference = sSoftBitmapCache.get(path);
-        if (bitmapReference != null) 
-        {
-            final Bitmap bitmap = bitmapReference.get();
-            if (bitmap != null) 
-            {
-                // Bitmap found in soft cache
-                return bitmap;
-            } else 
-            {
-                // Soft reference has been Garbage Collected
-                sSoftBitmapCache.remove(path);
-            }
-        }
-        return null;
+        return memoryCache.get(path);
     }
  
     /*
-     Clear the image cache that is used internally to improve performance. Note that for memory
-     * efficiency reasons, the cache is automatically cleared after a certain inactivity delay.
+     Clear the image cache that is used internally to improve performance. Note that the cache is
+     * shared by all the downloaders in the process, and that it is cleared automatically after a
+     * certain inactivity delay (see BitmapMemoryCache).
      */
     public void clearCache() 
     {
-        sHardBitmapCache.clear();
-        sSoftBitmapCache.clear();
-    }
-
-
-    // Allow a new delay before the automatic cache clear is done.
-    private void resetPurgeTimer() 
-    {
-        purgeHandler.removeCallbacks(purger);
-        purgeHandler.postDelayed(purger, DELAY_BEFORE_PURGE);
+        if (memoryCache != null)
+            memoryCache.clear();
     }
 }
@@ -72,7 +72,8 @@ import android.util.Log;
  * handles the downloading in a separate thread; see <code>DemoWebDownload</code>). Additional functionality is added
  * here, since we are downloading a series of images that appear in a scrollable <code>ListView</code> (rather than
  * downloading a single image and placing it in an <code>ImageView</code>). Additional cache-related fields and methods
- * are added to improve efficiency. <p>
+ * are added to improve efficiency. Here, the task is run by <code>ImageLoader</code> (rather than by
+ * <code>AsyncTask</code>), which loads the images for the rows on the screen first. <p>
  *
  * Since this program is accessing the Internet, the manifest must include the following permission (placed just before
  * the <code>application</code> element): <p>
@@ -114,6 +115,10 @@ public class DemoListView3Activity extends ListActivity
         Log.i(MYDEBUG, "onCreate!");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.listviewlayout);
-        setListAdapter(new ImageAdapter(URLS));
+        ImageAdapter imageAdapter = new ImageAdapter(URLS);
+        setListAdapter(imageAdapter);
+
+        // load the images just beyond the screen as the list scrolls (see ScrollPrefetcher)
+        getListView().setOnScrollListener(new ScrollPrefetcher(imageAdapter));
     }
 }
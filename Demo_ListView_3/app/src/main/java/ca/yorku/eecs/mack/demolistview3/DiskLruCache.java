@@ -0,0 +1,552 @@
+package ca.yorku.eecs.mack.demolistview3;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A disk cache of downloaded images with a budget in bytes.
+ * <p>
+ * Each image is kept as downloaded (i.e., still compressed) in a file in the app's cache directory. The name of the
+ * file is a hash of the URL (SHA-1, in hex), so any URL gives a safe name of the same length. The least-recently used
+ * files are deleted when a new file would push the total size over the budget. Each file also has the metadata from
+ * the response that brought it (see Metadata): until when it is fresh, and the validators (ETag, Last-Modified) with
+ * which to ask the server whether a stale file has changed.
+ * <p>
+ * The cache survives the app being stopped or killed. Its state is kept in a journal, a text file with one line per
+ * operation:
+ *
+ * <pre>
+ *     CLEAN key size expires etag lastModified   - a file was added (or replaced), or its metadata changed
+ *     READ key                                   - a file was read (so it is now the most-recently used)
+ *     REMOVE key                                 - a file was deleted
+ * </pre>
+ *
+ * When the cache is opened, the journal is replayed to rebuild the entries in access order, and then rewritten with one
+ * CLEAN line per entry. A new file is written under a temporary name, synced, and renamed (an atomic operation) before
+ * its CLEAN line is added, so a crash at any point leaves either the old entry or the new one. A file is deleted after
+ * its REMOVE line is added. On opening, a truncated (or garbled) line ends the replay, entries whose files are missing
+ * or the wrong size are dropped, and any other files in the directory (e.g., the temporary file of a write that was cut
+ * short) are deleted. The journal is also rewritten when most of its lines are redundant. In a CLEAN line, a missing
+ * validator is "-", an empty one is an empty field, and the characters of a validator that could be mistaken for a
+ * separator are escaped (%XX).
+ * <p>
+ * There is one cache per process (see getInstance). All methods are synchronized, except that the bytes of a new file
+ * are written outside the lock, so a slow write does not hold up lookups on other threads.
+ */
+class DiskLruCache
+{
+	final static String MYDEBUG = "MYDEBUG"; // for Log.i messages
+	static final String DIRECTORY = "images"; // in the app's cache directory
+	static final long DEFAULT_MAX_BYTES = 10L * 1024L * 1024L;
+
+	private static final String JOURNAL = "journal";
+	private static final String JOURNAL_TMP = "journal.tmp";
+	private static final String MAGIC = "ca.yorku.eecs.mack.DiskLruCache";
+	private static final String VERSION = "2"; // (version 1 had no metadata)
+	private static final String CLEAN = "CLEAN";
+	private static final String READ = "READ";
+	private static final String REMOVE = "REMOVE";
+	private static final int REDUNDANT_LINES_BEFORE_REBUILD = 2000;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static DiskLruCache instance;
+	private static boolean openFailed;
+
+	private final File directory;
+	private final File journalFile;
+	private final LinkedHashMap<String, Entry> map; // key -> size and metadata of the file
+	private final long maxBytes;
+	private long bytes;
+	private Writer journal;
+	private int redundantLines; // lines in the journal that a rebuild would drop
+	private int tmpCount;
+	private int hitCount, missCount, putCount, evictionCount;
+
+	private DiskLruCache(File directoryArg, long maxBytesArg)
+	{
+		directory = directoryArg;
+		journalFile = new File(directory, JOURNAL);
+		maxBytes = maxBytesArg;
+		map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the cache for this process, or null if the cache directory can't be used. The cache is opened on the
+	 * first call (which reads the journal, so call this from a background thread), with a budget of DEFAULT_MAX_BYTES.
+	 */
+	static synchronized DiskLruCache getInstance(Context context)
+	{
+		if (instance == null && !openFailed)
+		{
+			try
+			{
+				instance = open(new File(context.getCacheDir(), DIRECTORY), DEFAULT_MAX_BYTES);
+			} catch (IOException e)
+			{
+				Log.i(MYDEBUG, "Can't open the disk cache, e=" + e);
+				openFailed = true; // (don't try again for every image)
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Open the cache in the specified directory (creating the directory, if necessary).
+	 */
+	static DiskLruCache open(File directory, long maxBytes) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can't create " + directory);
+		DiskLruCache cache = new DiskLruCache(directory, maxBytes);
+		synchronized (cache)
+		{
+			cache.readJournal();
+			cache.deleteStrayFiles();
+			cache.rebuildJournal();
+			cache.trimToSize();
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the hash of a URL that is used as its key (and file name).
+	 */
+	static String keyOf(String url)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF8));
+			char[] key = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; ++i)
+			{
+				key[2 * i] = HEX[(digest[i] >> 4) & 0x0f];
+				key[2 * i + 1] = HEX[digest[i] & 0x0f];
+			}
+			return new String(key);
+		} catch (NoSuchAlgorithmException e)
+		{
+			throw new AssertionError(e); // (every Java platform has SHA-1)
+		}
+	}
+
+	/**
+	 * Returns the file for a URL (and makes it the most-recently used), or null if it is not in the cache. The file
+	 * may be evicted by another thread before it is read, so a failure to read it should be treated as a miss.
+	 */
+	synchronized File get(String url)
+	{
+		String key = keyOf(url);
+		if (journal == null || map.get(key) == null)
+		{
+			++missCount;
+			return null;
+		}
+		++hitCount;
+		appendToJournal(READ + " " + key, true);
+		return fileFor(key);
+	}
+
+	/**
+	 * Returns the metadata of the file for a URL, or null if it is not in the cache. (This is not a read, so it does not
+	 * change the access order.)
+	 */
+	synchronized Metadata getMetadata(String url)
+	{
+		Entry e = journal == null ? null : map.get(keyOf(url));
+		return e == null ? null : e.metadata;
+	}
+
+	/**
+	 * Replace the metadata of the file for a URL (e.g., after the server said a stale file has not changed). Nothing is
+	 * done if the file is not in the cache.
+	 */
+	synchronized void updateMetadata(String url, Metadata metadata)
+	{
+		String key = keyOf(url);
+		Entry e = map.get(key);
+		if (e == null || journal == null)
+			return;
+		e.metadata = metadata;
+		appendToJournal(cleanLine(key, e), true);
+	}
+
+	/**
+	 * Add the bytes of an image and their metadata to the cache (replacing any earlier version), evicting the
+	 * least-recently used files as needed to stay within the budget. Errors (e.g., a full disk) are logged, and the
+	 * image is not cached.
+	 */
+	void put(String url, byte[] data, Metadata metadata)
+	{
+		String key = keyOf(url);
+		if (data.length > maxBytes)
+			return;
+
+		File tmp;
+		synchronized (this)
+		{
+			tmp = new File(directory, key + "." + (++tmpCount) + ".tmp"); // (unique, if two threads put one URL)
+		}
+		try
+		{
+			FileOutputStream out = new FileOutputStream(tmp);
+			try
+			{
+				out.write(data);
+				out.getFD().sync(); // (the bytes are on the disk before the file gets its real name)
+			} finally
+			{
+				out.close();
+			}
+		} catch (IOException e)
+		{
+			Log.i(MYDEBUG, "Can't write to the disk cache, e=" + e);
+			tmp.delete();
+			return;
+		}
+		commit(key, tmp, new Entry(data.length, metadata));
+	}
+
+	/**
+	 * Remove the file for a URL (e.g., if it could not be decoded).
+	 */
+	synchronized void remove(String url)
+	{
+		String key = keyOf(url);
+		Entry e = map.remove(key);
+		if (e == null || journal == null)
+			return;
+		bytes -= e.size;
+		appendToJournal(REMOVE + " " + key, true);
+		fileFor(key).delete();
+	}
+
+	/**
+	 * Close the journal. The cache is not usable afterward (lookups miss, and puts are dropped).
+	 */
+	synchronized void close()
+	{
+		if (journal == null)
+			return;
+		try
+		{
+			journal.close();
+		} catch (IOException e)
+		{
+			Log.i(MYDEBUG, "Can't close the disk cache journal, e=" + e);
+		}
+		journal = null;
+	}
+
+	synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	synchronized long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	synchronized int getHitCount()
+	{
+		return hitCount;
+	}
+
+	synchronized int getMissCount()
+	{
+		return missCount;
+	}
+
+	synchronized int getEvictionCount()
+	{
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		int lookups = hitCount + missCount;
+		return String.format(Locale.US, "DiskLruCache[entries=%d, bytes=%d/%d, hits=%d, misses=%d, hitRate=%d%%, "
+				+ "puts=%d, evictions=%d]", map.size(), bytes, maxBytes, hitCount, missCount, lookups == 0 ? 0 : 100
+				* hitCount / lookups, putCount, evictionCount);
+	}
+
+	// give a written temporary file its real name and add it to the journal
+	private synchronized void commit(String key, File tmp, Entry entry)
+	{
+		if (journal == null || !tmp.renameTo(fileFor(key)))
+		{
+			tmp.delete();
+			return;
+		}
+		++putCount;
+		Entry previous = map.put(key, entry);
+		bytes += entry.size;
+		if (previous != null)
+			bytes -= previous.size;
+		appendToJournal(cleanLine(key, entry), previous != null);
+		trimToSize();
+	}
+
+	// evict the least-recently used files until the total size is within the budget
+	private void trimToSize()
+	{
+		Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext())
+		{
+			Map.Entry<String, Entry> eldest = it.next();
+			it.remove();
+			bytes -= eldest.getValue().size;
+			++evictionCount;
+			if (journal != null)
+				appendToJournal(REMOVE + " " + eldest.getKey(), true);
+			fileFor(eldest.getKey()).delete();
+		}
+	}
+
+	private File fileFor(String key)
+	{
+		return new File(directory, key);
+	}
+
+	// replay the journal into the map (a missing or foreign journal gives an empty cache)
+	private void readJournal()
+	{
+		BufferedReader in;
+		try
+		{
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), ASCII));
+		} catch (FileNotFoundException e)
+		{
+			return; // a new cache
+		}
+		try
+		{
+			if (!MAGIC.equals(in.readLine()) || !VERSION.equals(in.readLine()))
+				return; // (the files are deleted as strays)
+			String line;
+			while ((line = in.readLine()) != null)
+				if (!replayLine(line))
+					break; // a truncated line (from a crash during a write); keep the lines before it
+		} catch (IOException e)
+		{
+			Log.i(MYDEBUG, "Can't read the disk cache journal, e=" + e);
+		} finally
+		{
+			try
+			{
+				in.close();
+			} catch (IOException e)
+			{
+				// ignore
+			}
+		}
+
+		// drop the entries whose files are missing or the wrong size
+		Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<String, Entry> e = it.next();
+			if (fileFor(e.getKey()).length() != e.getValue().size)
+				it.remove();
+			else
+				bytes += e.getValue().size;
+		}
+	}
+
+	// returns false if the line is not a valid journal line
+	private boolean replayLine(String line)
+	{
+		String[] parts = line.split(" ", -1); // (keeps a trailing empty field, e.g., an empty Last-Modified)
+		if (parts.length < 2 || !isKey(parts[1]))
+			return false;
+		String key = parts[1];
+		if (parts[0].equals(CLEAN) && parts.length == 6)
+		{
+			try
+			{
+				Metadata metadata = new Metadata(Long.parseLong(parts[3]), decode(parts[4]), decode(parts[5]));
+				map.put(key, new Entry(Long.parseLong(parts[2]), metadata));
+			} catch (NumberFormatException e)
+			{
+				return false;
+			}
+		} else if (parts[0].equals(READ) && parts.length == 2)
+			map.get(key); // (moves the entry to the end of the access order)
+		else if (parts[0].equals(REMOVE) && parts.length == 2)
+			map.remove(key);
+		else
+			return false;
+		return true;
+	}
+
+	private static boolean isKey(String s)
+	{
+		if (s.length() != 40)
+			return false;
+		for (int i = 0; i < s.length(); ++i)
+			if (Character.digit(s.charAt(i), 16) == -1 || Character.isUpperCase(s.charAt(i)))
+				return false;
+		return true;
+	}
+
+	// delete the files in the directory that are not in the map (e.g., temporary files from an interrupted put)
+	private void deleteStrayFiles()
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			if (!f.getName().equals(JOURNAL) && !map.containsKey(f.getName()))
+				f.delete();
+	}
+
+	// write a new journal (one CLEAN line per entry, in access order) and swap it in atomically
+	private void rebuildJournal() throws IOException
+	{
+		File tmp = new File(directory, JOURNAL_TMP);
+		FileOutputStream out = new FileOutputStream(tmp);
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, ASCII));
+		try
+		{
+			w.write(MAGIC + "\n" + VERSION + "\n");
+			for (Map.Entry<String, Entry> e : map.entrySet())
+				w.write(cleanLine(e.getKey(), e.getValue()) + "\n");
+			w.flush();
+			out.getFD().sync();
+		} finally
+		{
+			w.close();
+		}
+		if (!tmp.renameTo(journalFile))
+			throw new IOException("Can't rename " + tmp);
+
+		if (journal != null)
+			journal.close();
+		journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), ASCII));
+		redundantLines = 0;
+	}
+
+	private static String cleanLine(String key, Entry e)
+	{
+		return CLEAN + " " + key + " " + e.size + " " + e.metadata.expires + " " + encode(e.metadata.etag) + " "
+				+ encode(e.metadata.lastModified);
+	}
+
+	// a header value as a journal field: "-" for none, otherwise the UTF-8 bytes, with spaces, controls, '%', '-', and
+	// non-ASCII bytes as %XX (so the field has no separators, and is never "-"; an empty value is an empty field)
+	private static String encode(String value)
+	{
+		if (value == null)
+			return "-";
+		StringBuilder sb = new StringBuilder();
+		for (byte b : value.getBytes(UTF8))
+		{
+			int c = b & 0xff;
+			if (c > ' ' && c < 0x7f && c != '%' && c != '-')
+				sb.append((char)c);
+			else
+				sb.append('%').append(HEX[c >> 4]).append(HEX[c & 0x0f]);
+		}
+		return sb.toString();
+	}
+
+	private static String decode(String field)
+	{
+		if (field.equals("-"))
+			return null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < field.length(); ++i)
+		{
+			char c = field.charAt(i);
+			if (c != '%')
+				out.write(c);
+			else if (i + 2 < field.length())
+			{
+				out.write(Integer.parseInt(field.substring(i + 1, i + 3), 16));
+				i += 2;
+			} else
+				throw new NumberFormatException("Truncated escape in " + field);
+		}
+		return new String(out.toByteArray(), UTF8);
+	}
+
+	private void appendToJournal(String line, boolean redundant)
+	{
+		try
+		{
+			journal.write(line + "\n");
+			journal.flush();
+		} catch (IOException e)
+		{
+			Log.i(MYDEBUG, "Can't write to the disk cache journal, e=" + e);
+		}
+		if (redundant && ++redundantLines >= REDUNDANT_LINES_BEFORE_REBUILD && redundantLines >= map.size())
+		{
+			try
+			{
+				rebuildJournal();
+			} catch (IOException e)
+			{
+				Log.i(MYDEBUG, "Can't rebuild the disk cache journal, e=" + e);
+			}
+		}
+	}
+
+	/**
+	 * What the server said about a cached image: until when it is fresh (may be used without asking the server), and the
+	 * validators, if any, with which to ask whether it has changed since (a conditional request).
+	 */
+	static class Metadata
+	{
+		final long expires; // ms since the epoch
+		final String etag; // the ETag header, or null
+		final String lastModified; // the Last-Modified header, or null
+
+		Metadata(long expiresArg, String etagArg, String lastModifiedArg)
+		{
+			expires = expiresArg;
+			etag = etagArg;
+			lastModified = lastModifiedArg;
+		}
+
+		boolean isFresh()
+		{
+			return System.currentTimeMillis() < expires;
+		}
+	}
+
+	// the size of a file (when it was added) and its metadata
+	private static class Entry
+	{
+		final long size;
+		Metadata metadata;
+
+		Entry(long sizeArg, Metadata metadataArg)
+		{
+			size = sizeArg;
+			metadata = metadataArg;
+		}
+	}
+}
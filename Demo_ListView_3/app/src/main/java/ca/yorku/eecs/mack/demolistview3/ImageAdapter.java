@@ -6,7 +6,7 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 
-public class ImageAdapter extends BaseAdapter
+public class ImageAdapter extends BaseAdapter implements ScrollPrefetcher.Target
 {
 	final int THUMBNAIL_HEIGHT = 300;
 	private final ImageDownloader imageDownloader = new ImageDownloader();
@@ -50,4 +50,17 @@ public class ImageAdapter extends BaseAdapter
 		imageDownloader.download(urls[position], (ImageView)view);
 		return view;
 	}
+
+	// load the image for a position that is about to scroll into view (see ScrollPrefetcher)
+	@Override
+	public void prefetch(int position)
+	{
+		imageDownloader.prefetch(urls[position]);
+	}
+
+	@Override
+	public void cancelPrefetches()
+	{
+		imageDownloader.cancelPrefetches();
+	}
 }
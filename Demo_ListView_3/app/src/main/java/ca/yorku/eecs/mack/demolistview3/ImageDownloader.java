@@ -1,31 +1,34 @@
 package ca.yorku.eecs.mack.demolistview3;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.os.Handler;
 import android.util.Log;
 import android.widget.ImageView;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.concurrent.ConcurrentHashMap;
-
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
+import java.util.Iterator;
 
 /*
  * This helper class downloads images from the Internet and binds those with the provided ImageView.
  * 
  * It requires the INTERNET permission, which should be added to your application's manifest file.
  * 
- * A local cache of downloaded images is maintained internally to improve performance.
+ * A local cache of downloaded images is maintained internally to improve performance. The images
+ * are also kept on disk (see DiskLruCache), so they are downloaded once, not each time they
+ * scroll back into view or the app is started. A request for an image that is already being
+ * downloaded (e.g., for another row) joins that download, rather than fetching it again. The
+ * images are loaded on the threads of the ImageLoader, newest request first. All downloads go
+ * through one client (see SharedHttpClient), so connections to the server are reused. An image on
+ * disk is used as is while it is fresh (per the Cache-Control or Expires header of the response
+ * that brought it). Once it is stale, the server is asked whether it has changed (a conditional
+ * request, with its ETag or Last-Modified), and a "304 Not Modified" answer costs no download
+ * (see ImageFetcher).
  */
 public class ImageDownloader
 {
@@ -40,7 +43,12 @@ public class ImageDownloader
 	 */
 	public void download(String url, ImageView imageView)
 	{
-		resetPurgeTimer();
+		if (memoryCache == null)
+		{
+			memoryCache = BitmapMemoryCache.getInstance(imageView.getContext());
+			context = imageView.getContext().getApplicationContext();
+		}
+		memoryCache.resetPurgeTimer();
 		Bitmap bitmap = getBitmapFromCache(url);
 
 		if (bitmap == null) // image is not in the cache (force download)
@@ -69,18 +77,60 @@ public class ImageDownloader
 
 		if (cancelPotentialDownload(url, imageView))
 		{
-			BitmapDownloaderTask task = new BitmapDownloaderTask(imageView);
+			// join the download in progress for this URL, if any
+			BitmapDownloaderTask task = inFlight.get(url);
+			if (task != null && task.isPrefetch() && !task.isStarted())
+			{
+				// (a prefetch that has not started is behind all the other downloads, so start afresh)
+				task.cancelPrefetch();
+				task = null;
+			}
+			boolean joined = task != null;
+			if (joined)
+				task.addImageView(imageView);
+			else
+			{
+				task = new BitmapDownloaderTask(imageView, url);
+				inFlight.put(url, task);
+			}
 			DownloadedDrawable downloadedDrawable = new DownloadedDrawable(task);
 			imageView.setImageDrawable(downloadedDrawable);
 			imageView.setMinimumHeight(156);
-			task.execute(url);
+			if (!joined)
+				ImageLoader.getInstance().submit(task);
 		}
 	}
 
+	/*
+	 * Load the specified image into the cache ahead of need, behind all the other downloads (see
+	 * ScrollPrefetcher). Nothing is done if the image is in the cache or is already being
+	 * downloaded.
+	 */
+	void prefetch(String url)
+	{
+		if (url == null || memoryCache == null || memoryCache.contains(url) || inFlight.containsKey(url))
+			return;
+		BitmapDownloaderTask task = new BitmapDownloaderTask(null, url);
+		inFlight.put(url, task);
+		prefetches.add(task);
+		ImageLoader.getInstance().prefetch(task);
+	}
+
+	/*
+	 * Cancel the prefetches that no view has joined (e.g., when a fling ends).
+	 */
+	void cancelPrefetches()
+	{
+		for (BitmapDownloaderTask task : prefetches)
+			task.detach(null); // (cancels the task, unless a view is waiting for it)
+		prefetches.clear();
+	}
+
 	/*
 	 * Pass the URL and the ImageView.
 	 * 
-	 * Return true if the current download has been cancelled or if there was no download in
+	 * Return true if the current download has been cancelled (or the image view has been detached
+	 * from it, if other views are waiting for the same image) or if there was no download in
 	 * progress on this image view. Return false if the download in progress deals with the same
 	 * URL. The download is not stopped in that case.
 	 */
@@ -93,7 +143,7 @@ public class ImageDownloader
 			String bitmapUrl = bitmapDownloaderTask.url;
 			if ((bitmapUrl == null) || (!bitmapUrl.equals(url)))
 			{
-				bitmapDownloaderTask.cancel(true);
+				bitmapDownloaderTask.detach(imageView);
 			} else
 			{
 				// The same URL is already being downloaded.
@@ -123,62 +173,120 @@ public class ImageDownloader
 		return null;
 	}
 
-	private Bitmap downloadBitmap(String url) {
-		OkHttpClient client = new OkHttpClient();
-		Request request = new Request.Builder()
-				.url(url)
-				.build();
-
-		try (Response response = client.newCall(request).execute()) {
-			if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
-
-			assert response.body() != null;
-			return BitmapFactory.decodeStream(response.body().byteStream());
+	/*
+	 * Returns the bytes of the image, from the disk cache or the network (see ImageFetcher).
+	 * Returns null if there is an error.
+	 */
+	private byte[] readImage(String url) {
+		try {
+			return ImageFetcher.read(url, DiskLruCache.getInstance(context), SharedHttpClient.get());
 		} catch (IOException e) {
 			Log.i(MYDEBUG, "Error while retrieving bitmap from " + url + ", e=" + e);
+			return null;
 		}
-		return null;
 	}
 
 	/*
-	 * The actual AsyncTask that will asynchronously download the image.
+	 * Returns the decoded image, or null if the bytes are not an image (they are then removed from
+	 * the disk cache, so they are fetched again next time).
+	 */
+	private Bitmap decodeImage(String url, byte[] data) {
+		Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+		if (bitmap == null) {
+			DiskLruCache diskCache = DiskLruCache.getInstance(context);
+			if (diskCache != null) diskCache.remove(url);
+		}
+		return bitmap;
+	}
+
+	/*
+	 * The actual request that will asynchronously download the image (see ImageLoader). The bytes
+	 * are read first, and then decoded. The task binds the image to every view that is still
+	 * waiting for it (see forceDownload).
 	 */
-	class BitmapDownloaderTask extends AsyncTask<String, Void, Bitmap>
+	class BitmapDownloaderTask extends ImageLoader.Request<byte[]>
 	{
-		private String url;
-		private final WeakReference<ImageView> imageViewReference;
+		private final String url;
+		private final ArrayList<WeakReference<ImageView>> imageViewReferences;
+
+		public BitmapDownloaderTask(ImageView imageView, String urlArg)
+		{
+			imageViewReferences = new ArrayList<WeakReference<ImageView>>();
+			if (imageView != null) // (null for a prefetch)
+				imageViewReferences.add(new WeakReference<ImageView>(imageView));
+			url = urlArg;
+		}
+
+		void addImageView(ImageView imageView)
+		{
+			imageViewReferences.add(new WeakReference<ImageView>(imageView));
+		}
+
+		/*
+		 * The image view is being bound to another image. Cancel the download, unless another view
+		 * is still waiting for it.
+		 */
+		void detach(ImageView imageView)
+		{
+			boolean waiting = false;
+			Iterator<WeakReference<ImageView>> it = imageViewReferences.iterator();
+			while (it.hasNext())
+			{
+				ImageView v = it.next().get();
+				if (v == null || v == imageView || getBitmapDownloaderTask(v) != this)
+					it.remove();
+				else
+					waiting = true;
+			}
+			if (!waiting)
+			{
+				cancel();
+				removeFromInFlight();
+			}
+		}
 
-		public BitmapDownloaderTask(ImageView imageView)
+		private void removeFromInFlight()
 		{
-			imageViewReference = new WeakReference<ImageView>(imageView);
+			if (inFlight.get(url) == this)
+				inFlight.remove(url);
+		}
+
+		// cancel a prefetch that has not started, and drop it from the prefetches of the downloader that made it (not
+		// necessarily this one, since inFlight is shared by all the downloaders)
+		void cancelPrefetch()
+		{
+			cancel();
+			prefetches.remove(this); // (the owner's list)
 		}
 
 		/*
 		 * Actual download method.
 		 */
 		@Override
-		protected Bitmap doInBackground(String... params)
+		byte[] read()
 		{
-			Log.i(MYDEBUG, "doInBackground!");
-			url = params[0];
-			return downloadBitmap(url);
+			Log.i(MYDEBUG, "read!");
+			return readImage(url);
+		}
+
+		@Override
+		Bitmap decode(byte[] data)
+		{
+			return decodeImage(url, data);
 		}
 
 		/*
-		 * Once the image is downloaded, associate it to the imageView
+		 * Once the image is downloaded, associate it to the imageViews
 		 */
 		@Override
-		protected void onPostExecute(Bitmap bitmap)
+		void onLoaded(Bitmap bitmap)
 		{
-			Log.i(MYDEBUG, "onPostExecute!");
-			if (isCancelled())
-			{
-				bitmap = null;
-			}
-
+			Log.i(MYDEBUG, "onLoaded!");
+			removeFromInFlight();
+			prefetches.remove(this);
 			addBitmapToCache(url, bitmap);
 
-			if (imageViewReference != null)
+			for (WeakReference<ImageView> imageViewReference : imageViewReferences)
 			{
 				ImageView imageView = imageViewReference.get();
 				BitmapDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
@@ -220,45 +328,22 @@ public class ImageDownloader
 	// ================================
 
 	/*
-	 * We use a hard and a soft cache. A soft reference cache is too aggressively cleared by the
-	 * Garbage Collector.
+	 * The bitmaps are kept in a memory cache with a budget in bytes (see BitmapMemoryCache). The
+	 * cache is shared by all the downloaders in the process, and it is purged after a period in
+	 * which none of them has used it. The purge clears the memory cache only; the disk cache keeps
+	 * the images until they are evicted.
 	 */
 
-	private static final int HARD_CACHE_CAPACITY = 10;
-	private static final int DELAY_BEFORE_PURGE = 10 * 1000; // in milliseconds
-
-	// Hard cache, with a fixed maximum capacity and a life duration
-	private final HashMap<String, Bitmap> sHardBitmapCache = new LinkedHashMap<String, Bitmap>(
-			HARD_CACHE_CAPACITY / 2, 0.75f, true)
-	{
-		private static final long serialVersionUID = 1L;
+	// the memory cache (one per process, with a budget in bytes; see BitmapMemoryCache)
+	private BitmapMemoryCache memoryCache;
 
-		@Override
-		protected boolean removeEldestEntry(LinkedHashMap.Entry<String, Bitmap> eldest)
-		{
-			if (size() > HARD_CACHE_CAPACITY)
-			{
-				// Entries push-out of hard reference cache are transferred to soft reference cache
-				sSoftBitmapCache.put(eldest.getKey(), new SoftReference<Bitmap>(eldest.getValue()));
-				return true;
-			} else
-				return false;
-		}
-	};
-
-	// Soft cache for bitmaps kicked out of hard cache
-	private final static ConcurrentHashMap<String, SoftReference<Bitmap>> sSoftBitmapCache = new ConcurrentHashMap<String, SoftReference<Bitmap>>(
-			HARD_CACHE_CAPACITY / 2);
+	private Context context; // the application context (for the disk cache)
 
-	private final Handler purgeHandler = new Handler();
+	// the downloads in progress, by URL, in all the downloaders in the process (UI thread only)
+	private static final HashMap<String, BitmapDownloaderTask> inFlight = new HashMap<String, BitmapDownloaderTask>();
 
-	private final Runnable purger = new Runnable()
-	{
-		public void run()
-		{
-			clearCache();
-		}
-	};
+	// the prefetches made by this downloader that have not finished (UI thread only)
+	private final ArrayList<BitmapDownloaderTask> prefetches = new ArrayList<BitmapDownloaderTask>();
 
 	/*
 	 * Adds this bitmap to the cache.
@@ -266,12 +351,7 @@ public class ImageDownloader
 	private void addBitmapToCache(String url, Bitmap bitmap)
 	{
 		if (bitmap != null)
-		{
-			synchronized (sHardBitmapCache)
-			{
-				sHardBitmapCache.put(url, bitmap);
-			}
-		}
+			memoryCache.put(url, bitmap);
 	}
 
 	/*
@@ -281,54 +361,16 @@ public class ImageDownloader
 	 */
 	private Bitmap getBitmapFromCache(String url)
 	{
-		// First try the hard reference cache
-		synchronized (sHardBitmapCache)
-		{
-			final Bitmap bitmap = sHardBitmapCache.get(url);
-			if (bitmap != null)
-			{
-				// Bitmap found in hard cache
-				// Move element to first position, so that it is removed last
-				sHardBitmapCache.remove(url);
-				sHardBitmapCache.put(url, bitmap);
-				return bitmap;
-			}
-		}
-
-		// Then try the soft reference cache
-		SoftReference<Bitmap> bitmapReference = sSoftBitmapCache.get(url);
-		if (bitmapReference != null)
-		{
-			final Bitmap bitmap = bitmapReference.get();
-			if (bitmap != null)
-			{
-				// Bitmap found in soft cache
-				return bitmap;
-			} else
-			{
-				// Soft reference has been Garbage Collected
-				sSoftBitmapCache.remove(url);
-			}
-		}
-		return null;
+		return memoryCache.get(url);
 	}
 
 	/*
-	 * Clears the image cache used internally to improve performance. Note that for memory
-	 * efficiency reasons, the cache will automatically be cleared after a certain inactivity delay.
+	 * Clears the memory cache. Note that the cache is shared by all the downloaders in the process,
+	 * and that it is cleared automatically after a certain inactivity delay (see BitmapMemoryCache).
 	 */
 	public void clearCache()
 	{
-		sHardBitmapCache.clear();
-		sSoftBitmapCache.clear();
-	}
-
-	/*
-	 * Allow a new delay before the automatic cache clear is done.
-	 */
-	private void resetPurgeTimer()
-	{
-		purgeHandler.removeCallbacks(purger);
-		purgeHandler.postDelayed(purger, DELAY_BEFORE_PURGE);
+		if (memoryCache != null)
+			memoryCache.clear();
 	}
 }
@@ -0,0 +1,171 @@
+package ca.yorku.eecs.mack.demolistview3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Fetches the bytes of an image through the disk cache (see DiskLruCache).
+ * <p>
+ * An image on disk is used as is while it is fresh (per the Cache-Control or Expires header of the response that
+ * brought it). Once it is stale, the server is asked whether it has changed (a conditional request, with its ETag or
+ * Last-Modified), and a "304 Not Modified" answer costs no download (the metadata of the file is updated from the
+ * answer). If a stale file can't be revalidated (e.g., the device is offline, or the server has an error), the stale
+ * file is used, and it stays stale, so it is revalidated the next time. Only the paths that serve a file read it from
+ * the cache (see DiskLruCache.get), so only those change the access order.
+ * <p>
+ * This class has no Android dependencies, so it can be checked off the device (see RevalidationCheck).
+ */
+class ImageFetcher
+{
+	static final int HTTP_NOT_MODIFIED = 304;
+	static final int HTTP_SERVER_ERROR = 500; // (and above: the stale file on disk is used)
+	static final long HEURISTIC_FRESHNESS_LIMIT = 24L * 60L * 60L * 1000L; // one day (ms)
+
+	private ImageFetcher()
+	{
+	}
+
+	/**
+	 * Returns the bytes of an image: from the disk cache if they are there, otherwise from the network (and then they
+	 * are added to the disk cache).
+	 *
+	 * @param diskCache
+	 *            the disk cache, or null if there is none (the image is then always downloaded)
+	 * @throws IOException
+	 *             if the image can't be fetched, and there is no stale file to fall back on
+	 */
+	static byte[] read(String url, DiskLruCache diskCache, OkHttpClient client) throws IOException
+	{
+		// try the disk cache first
+		DiskLruCache.Metadata cached = diskCache != null ? diskCache.getMetadata(url) : null;
+		if (cached != null && cached.isFresh())
+		{
+			byte[] data = readCachedFile(diskCache, url);
+			if (data != null)
+				return data;
+			cached = null; // (unreadable, or evicted since the lookup)
+		}
+
+		// a stale file is revalidated: the server sends the image only if it has changed
+		Request.Builder builder = new Request.Builder().url(url);
+		if (cached != null && cached.etag != null)
+			builder.header("If-None-Match", cached.etag);
+		if (cached != null && cached.lastModified != null)
+			builder.header("If-Modified-Since", cached.lastModified);
+		Request request = builder.build();
+
+		try (Response response = client.newCall(request).execute())
+		{
+			if (response.code() == HTTP_NOT_MODIFIED && cached != null)
+			{
+				diskCache.updateMetadata(url, metadataOf(response, cached));
+				byte[] data = readCachedFile(diskCache, url);
+				if (data == null)
+					throw new IOException("Not modified, but no longer in the disk cache: " + url);
+				return data;
+			}
+			if (response.code() < HTTP_SERVER_ERROR && !response.isSuccessful())
+			{
+				cached = null; // (e.g., 404: the stale file is not used)
+				throw new IOException("Unexpected code " + response);
+			}
+			if (!response.isSuccessful())
+				throw new IOException("Server error " + response);
+
+			assert response.body() != null;
+			byte[] data = response.body().bytes(); // (the compressed bytes are what goes to disk)
+			if (diskCache != null && !response.cacheControl().noStore())
+				diskCache.put(url, data, metadataOf(response, null));
+			return data;
+		} catch (IOException e)
+		{
+			byte[] stale = cached != null ? readCachedFile(diskCache, url) : null;
+			if (stale == null)
+				throw e;
+			return stale; // (its metadata is unchanged, so it is still stale)
+		}
+	}
+
+	/**
+	 * The metadata for the disk cache from the headers of a response (for a 304, the headers the server sent again
+	 * replace those of the earlier response). An image is fresh for the max-age of its Cache-Control header, or else
+	 * until its Expires header. If the server gave neither, it is fresh for a tenth of the time since it was last
+	 * modified (as a browser would guess), but at most HEURISTIC_FRESHNESS_LIMIT (and for that long if there is no
+	 * Last-Modified).
+	 */
+	static DiskLruCache.Metadata metadataOf(Response response, DiskLruCache.Metadata previous)
+	{
+		long now = System.currentTimeMillis();
+		String etag = response.header("ETag");
+		String lastModified = response.header("Last-Modified");
+		if (previous != null)
+		{
+			if (etag == null)
+				etag = previous.etag;
+			if (lastModified == null)
+				lastModified = previous.lastModified;
+		}
+
+		CacheControl cacheControl = response.cacheControl();
+		Date expires = response.headers().getDate("Expires");
+		Date modified = response.headers().getDate("Last-Modified");
+		long expiresMillis;
+		if (cacheControl.noCache())
+			expiresMillis = 0L; // (always revalidate)
+		else if (cacheControl.maxAgeSeconds() != -1)
+			expiresMillis = now + cacheControl.maxAgeSeconds() * 1000L;
+		else if (expires != null)
+			expiresMillis = expires.getTime();
+		else if (modified != null)
+			expiresMillis = now + Math.min(HEURISTIC_FRESHNESS_LIMIT, Math.max(0L, now - modified.getTime()) / 10);
+		else
+			expiresMillis = now + HEURISTIC_FRESHNESS_LIMIT;
+		return new DiskLruCache.Metadata(expiresMillis, etag, lastModified);
+	}
+
+	// the bytes of the file for a URL in the disk cache, or null if it is not there or can't be read (it is then
+	// removed); this is a read, so the file becomes the most-recently used
+	private static byte[] readCachedFile(DiskLruCache diskCache, String url)
+	{
+		File file = diskCache.get(url);
+		if (file == null)
+			return null;
+		try
+		{
+			return readFile(file);
+		} catch (IOException e)
+		{
+			diskCache.remove(url); // unreadable (or evicted since the lookup)
+			return null;
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException
+	{
+		byte[] data = new byte[(int)file.length()];
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			int offset = 0;
+			while (offset < data.length)
+			{
+				int count = in.read(data, offset, data.length - offset);
+				if (count == -1)
+					throw new IOException("Unexpected end of " + file);
+				offset += count;
+			}
+		} finally
+		{
+			in.close();
+		}
+		return data;
+	}
+}
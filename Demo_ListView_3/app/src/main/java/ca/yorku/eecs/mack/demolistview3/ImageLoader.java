@@ -0,0 +1,201 @@
+package ca.yorku.eecs.mack.demolistview3;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background threads that load the images for ImageDownloader (in place of AsyncTask's single, process-wide
+ * queue).
+ * <p>
+ * A request is done in two stages: reading (waiting on the disk or the network) on one small pool of threads, and
+ * then decoding (CPU bound) on another, with one thread per core, less one for the UI thread. The result is delivered
+ * on the UI thread. Each pool takes the newest request first (LIFO), so after a fling the images for the views on the
+ * screen now are loaded before those for the views that went by. A request that is cancelled (its view was bound to
+ * another image) is dropped at the start of the next stage, so it never reaches the decoder if it has not already.
+ * A prefetch (an image that is not on the screen yet; see ScrollPrefetcher) goes behind all the other work, in the
+ * order the prefetches were made.
+ * <p>
+ * There is one loader per process (see getInstance).
+ */
+class ImageLoader
+{
+	static final int READ_THREADS = 4;
+	static final int DECODE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private static final int KEEP_ALIVE_SECONDS = 30; // idle threads end after this
+
+	private static ImageLoader instance;
+
+	private final ThreadPoolExecutor readExecutor;
+	private final ThreadPoolExecutor decodeExecutor;
+	private final Handler uiHandler;
+
+	/**
+	 * A request to load one image. read runs on a read thread and decode on a decode thread (data is the value
+	 * returned by read; if read returns null, decode is skipped and the bitmap is null). onLoaded runs on the UI
+	 * thread, unless the request was cancelled.
+	 */
+	abstract static class Request<T>
+	{
+		private volatile boolean cancelled;
+		private volatile boolean started;
+		private boolean prefetch;
+
+		abstract T read();
+
+		abstract Bitmap decode(T data);
+
+		abstract void onLoaded(Bitmap bitmap);
+
+		// UI thread
+		void cancel()
+		{
+			cancelled = true;
+		}
+
+		boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		boolean isPrefetch()
+		{
+			return prefetch;
+		}
+
+		// true once a read thread has taken the request
+		boolean isStarted()
+		{
+			return started;
+		}
+	}
+
+	private ImageLoader()
+	{
+		readExecutor = newExecutor(READ_THREADS, "ImageLoader read");
+		decodeExecutor = newExecutor(DECODE_THREADS, "ImageLoader decode");
+		uiHandler = new Handler(Looper.getMainLooper());
+	}
+
+	static synchronized ImageLoader getInstance()
+	{
+		if (instance == null)
+			instance = new ImageLoader();
+		return instance;
+	}
+
+	/**
+	 * Queue a request (ahead of the requests that are waiting).
+	 */
+	<T> void submit(Request<T> request)
+	{
+		submit(request, false);
+	}
+
+	/**
+	 * Queue a request behind all the other requests (UI thread only).
+	 */
+	<T> void prefetch(Request<T> request)
+	{
+		request.prefetch = true;
+		submit(request, true);
+	}
+
+	private <T> void submit(final Request<T> request, boolean prefetch)
+	{
+		readExecutor.execute(new Stage(prefetch)
+		{
+			public void run()
+			{
+				request.started = true;
+				if (request.isCancelled())
+					return;
+				final T data = request.read();
+				if (data == null)
+				{
+					deliver(request, null);
+					return;
+				}
+				decodeExecutor.execute(new Stage(prefetch)
+				{
+					public void run()
+					{
+						if (request.isCancelled())
+							return;
+						deliver(request, request.decode(data));
+					}
+				});
+			}
+		});
+	}
+
+	private <T> void deliver(final Request<T> request, final Bitmap bitmap)
+	{
+		uiHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				if (!request.isCancelled())
+					request.onLoaded(bitmap);
+			}
+		});
+	}
+
+	// a fixed number of threads (at background priority), taking the newest job first
+	private static ThreadPoolExecutor newExecutor(int threads, final String name)
+	{
+		ThreadFactory threadFactory = new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(final Runnable r)
+			{
+				return new Thread(new Runnable()
+				{
+					public void run()
+					{
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, name + " #" + count.incrementAndGet());
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LifoQueue(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	// a stage of a request, to run on one of the pools
+	private abstract static class Stage implements Runnable
+	{
+		final boolean prefetch;
+
+		Stage(boolean prefetchArg)
+		{
+			prefetch = prefetchArg;
+		}
+	}
+
+	// a work queue that hands out the newest job first (the pool takes from the head, so new jobs go there too), but
+	// puts a prefetch at the tail
+	private static class LifoQueue extends LinkedBlockingDeque<Runnable>
+	{
+		private static final long serialVersionUID = 1L; // fix compiler warning
+
+		@Override
+		public boolean offer(Runnable r)
+		{
+			if (r instanceof Stage && ((Stage)r).prefetch)
+				return offerLast(r);
+			return offerFirst(r);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package ca.yorku.eecs.mack.demolistview3;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * RevalidationCheck -- checks the disk cache and its revalidation (see ImageFetcher) against a local mock server.
+ * <p>
+ *
+ * The mock server answers every request after a delay (the injected latency), with Cache-Control max-age=MAX_AGE and
+ * an ETag, and with "304 Not Modified" if the request has that ETag in If-None-Match. The check then fetches one image
+ * through a new disk cache (in a temporary directory) and verifies that
+ * <p>
+ *
+ * <ul>
+ * <li>a miss downloads the image, and a fresh hit makes no request (so it takes less than the latency)
+ * <li>a stale entry with an unchanged ETag is served after a 304, and its metadata is extended
+ * <li>a changed ETag downloads the image again
+ * <li>the metadata survives a reopen of the cache
+ * <li>a stale entry is served if the server has an error (503) or is gone (offline), and it stays stale
+ * <li>offline, an image that is not on disk is an error
+ * </ul>
+ * <p>
+ *
+ * Usage (with the app's classes, <code>android.jar</code>, and the OkHttp jars on the class path):
+ *
+ * <pre>
+ *     java ca.yorku.eecs.mack.demolistview3.RevalidationCheck [latency]
+ * </pre>
+ *
+ * The latency is in ms (default 200). The exit status is 1 if any check failed.
+ */
+class RevalidationCheck
+{
+	static final int MAX_AGE = 1; // seconds
+	static final int DEFAULT_LATENCY = 200; // ms
+
+	private static int failures;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int latency = DEFAULT_LATENCY;
+		try
+		{
+			if (args.length > 0)
+				latency = Integer.parseInt(args[0]);
+		} catch (NumberFormatException e)
+		{
+			latency = -1;
+		}
+		if (args.length > 1 || latency < 0)
+		{
+			System.out.println("usage: RevalidationCheck [latency] (latency >= 0, in ms)");
+			System.exit(0);
+		}
+
+		MockServer server = new MockServer(latency);
+		new Thread(server).start();
+		File directory = new File(System.getProperty("java.io.tmpdir"), "RevalidationCheck-" + System.nanoTime());
+		DiskLruCache cache = DiskLruCache.open(directory, 1024 * 1024);
+		OkHttpClient client = SharedHttpClient.get();
+		String url = "http://127.0.0.1:" + server.socket.getLocalPort() + "/image";
+		try
+		{
+			String image = fetch(url, cache, client);
+			check("image \"v1\"".equals(image) && server.requests == 1, "a miss downloads the image");
+
+			long t0 = System.nanoTime();
+			image = fetch(url, cache, client);
+			long ms = (System.nanoTime() - t0) / 1000000L;
+			check("image \"v1\"".equals(image) && server.requests == 1 && ms < Math.max(latency, 1),
+					"a fresh hit makes no request (" + ms + " ms)");
+
+			long expires = cache.getMetadata(url).expires;
+			waitUntilStale();
+			image = fetch(url, cache, client);
+			check("image \"v1\"".equals(image) && server.requests == 2 && server.notModified == 1,
+					"a stale entry with an unchanged ETag is served after a 304");
+			check(cache.getMetadata(url).expires > expires && cache.getMetadata(url).isFresh(),
+					"a 304 extends the metadata");
+
+			server.etag = "\"v2\"";
+			waitUntilStale();
+			image = fetch(url, cache, client);
+			check("image \"v2\"".equals(image) && server.requests == 3 && server.fullResponses == 2
+					&& "\"v2\"".equals(cache.getMetadata(url).etag), "a changed ETag downloads the image again");
+
+			DiskLruCache.Metadata before = cache.getMetadata(url);
+			cache.close();
+			cache = DiskLruCache.open(directory, 1024 * 1024);
+			DiskLruCache.Metadata after = cache.getMetadata(url);
+			check(after != null && after.expires == before.expires && before.etag.equals(after.etag),
+					"the metadata survives a reopen");
+
+			waitUntilStale();
+			server.status = 503;
+			image = fetch(url, cache, client);
+			check("image \"v2\"".equals(image) && server.requests == 4 && !cache.getMetadata(url).isFresh(),
+					"a server error serves the stale entry (and it stays stale)");
+
+			server.close();
+			image = fetch(url, cache, client);
+			check("image \"v2\"".equals(image) && !cache.getMetadata(url).isFresh(),
+					"offline, the stale entry is served (and it stays stale)");
+
+			check(fetch(url + "2", cache, client) == null, "offline, an image that is not on disk is an error");
+		} finally
+		{
+			server.close();
+			cache.close();
+			deleteAll(directory);
+		}
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) FAILED");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	// the image as a string, or null if it can't be fetched
+	private static String fetch(String url, DiskLruCache cache, OkHttpClient client)
+	{
+		try
+		{
+			return new String(ImageFetcher.read(url, cache, client), "UTF-8");
+		} catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	private static void check(boolean ok, String description)
+	{
+		System.out.println((ok ? "ok      " : "FAILED  ") + description);
+		if (!ok)
+			++failures;
+	}
+
+	private static void waitUntilStale() throws InterruptedException
+	{
+		Thread.sleep(MAX_AGE * 1000L + 100L);
+	}
+
+	private static void deleteAll(File f)
+	{
+		File[] files = f.listFiles();
+		if (files != null)
+			for (File c : files)
+				deleteAll(c);
+		f.delete();
+	}
+
+	// a minimal HTTP server: one connection at a time, closed after each response (so no libraries are needed)
+	private static class MockServer implements Runnable
+	{
+		private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+		final ServerSocket socket;
+		final int latency; // ms, before each response
+		volatile String etag = "\"v1\"";
+		volatile int status = 200; // (anything else is sent with no body)
+		volatile int requests, fullResponses, notModified;
+
+		MockServer(int latencyArg) throws IOException
+		{
+			latency = latencyArg;
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		}
+
+		@Override
+		public void run()
+		{
+			while (!socket.isClosed())
+			{
+				try
+				{
+					Socket s = socket.accept();
+					try
+					{
+						respond(s);
+					} finally
+					{
+						s.close();
+					}
+				} catch (IOException e)
+				{
+					// (the socket was closed, or a client went away)
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+		}
+
+		void close() throws IOException
+		{
+			socket.close();
+		}
+
+		private void respond(Socket s) throws IOException, InterruptedException
+		{
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), ISO_8859_1));
+			if (in.readLine() == null)
+				return;
+			String ifNoneMatch = null;
+			for (String line = in.readLine(); line != null && line.length() > 0; line = in.readLine())
+				if (line.toLowerCase(Locale.US).startsWith("if-none-match:"))
+					ifNoneMatch = line.substring(line.indexOf(':') + 1).trim();
+
+			Thread.sleep(latency);
+			++requests;
+			String head, body = "";
+			if (status != 200)
+				head = "HTTP/1.1 " + status + " Error\r\n";
+			else if (etag.equals(ifNoneMatch))
+			{
+				++notModified;
+				head = "HTTP/1.1 304 Not Modified\r\nETag: " + etag + "\r\nCache-Control: max-age=" + MAX_AGE + "\r\n";
+			} else
+			{
+				++fullResponses;
+				body = "image " + etag;
+				head = "HTTP/1.1 200 OK\r\nETag: " + etag + "\r\nCache-Control: max-age=" + MAX_AGE + "\r\n";
+			}
+			OutputStream out = s.getOutputStream();
+			out.write((head + "Content-Length: " + body.length() + "\r\nConnection: close\r\n\r\n" + body)
+					.getBytes(ISO_8859_1));
+			out.flush();
+		}
+	}
+}
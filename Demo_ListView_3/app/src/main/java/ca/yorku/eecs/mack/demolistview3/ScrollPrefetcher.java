@@ -0,0 +1,104 @@
+package ca.yorku.eecs.mack.demolistview3;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+
+/**
+ * Loads the images for the positions just beyond the screen, in the direction of scrolling, before they scroll into
+ * view (so they appear already decoded, rather than as a placeholder first).
+ * <p>
+ * The prefetcher is the scroll listener of a list or grid. While the view scrolls, it estimates the scroll velocity (in
+ * positions per second) and asks the target (the adapter) to prefetch the positions the view will reach in the next
+ * LOOKAHEAD_SECONDS, at least one screenful and at most MAX_PREFETCH. The prefetches run behind all the other
+ * downloads (see ImageLoader), and are cancelled when the scrolling stops or changes direction. While the free heap is
+ * below MIN_FREE_HEAP_FRACTION of the maximum, no prefetches are made (and those waiting are cancelled).
+ */
+class ScrollPrefetcher implements AbsListView.OnScrollListener
+{
+	static final float LOOKAHEAD_SECONDS = 0.5f;
+	static final int MAX_PREFETCH = 24; // positions
+	static final float MIN_FREE_HEAP_FRACTION = 0.125f;
+
+	/**
+	 * The adapter side of the prefetcher.
+	 */
+	interface Target
+	{
+		// load the image for a position into the cache (nothing is done if it is there, or on its way)
+		void prefetch(int position);
+
+		// cancel the prefetches that are not needed yet
+		void cancelPrefetches();
+	}
+
+	private final Target target;
+	private int scrollState = SCROLL_STATE_IDLE;
+	private int lastFirst = -1; // the first visible position at the last change
+	private long lastTime; // the time of the last change (ms)
+	private float velocity; // positions per second (positive toward the end)
+
+	ScrollPrefetcher(Target targetArg)
+	{
+		target = targetArg;
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollStateArg)
+	{
+		scrollState = scrollStateArg;
+		if (scrollState == SCROLL_STATE_IDLE)
+		{
+			target.cancelPrefetches();
+			lastFirst = -1;
+			velocity = 0f;
+		}
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int first, int visibleCount, int totalCount)
+	{
+		if (scrollState == SCROLL_STATE_IDLE || visibleCount == 0 || first == lastFirst)
+			return;
+
+		long now = SystemClock.uptimeMillis();
+		if (lastFirst == -1)
+		{
+			lastFirst = first;
+			lastTime = now;
+			return;
+		}
+		float v = (first - lastFirst) * 1000f / Math.max(1, now - lastTime);
+		if (v * velocity < 0f)
+			target.cancelPrefetches(); // (a change of direction)
+		velocity = v * velocity > 0f ? (v + velocity) / 2f : v; // (smoothed, in one direction)
+		lastFirst = first;
+		lastTime = now;
+
+		if (isMemoryTight())
+		{
+			target.cancelPrefetches();
+			return;
+		}
+		int count = Math.min(MAX_PREFETCH, Math.max(visibleCount, Math.round(Math.abs(velocity) *
+				LOOKAHEAD_SECONDS)));
+		if (velocity > 0f)
+		{
+			int end = Math.min(totalCount, first + visibleCount + count);
+			for (int p = first + visibleCount; p < end; ++p)
+				target.prefetch(p);
+		} else
+		{
+			int end = Math.max(0, first - count);
+			for (int p = first - 1; p >= end; --p)
+				target.prefetch(p);
+		}
+	}
+
+	// true if the free heap is too low to load images that may never be seen
+	private static boolean isMemoryTight()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return free < runtime.maxMemory() * MIN_FREE_HEAP_FRACTION;
+	}
+}